@@ -0,0 +1,34 @@
+#!/bin/sh
+# Downloads the benchmark corpus into bench/roms/corpus: every plain CHIP-8 program of the CHIP-8 Archive
+# (https://github.com/JohnEarnest/chip8Archive), whose programs are released to the public domain under
+# CC0. SUPER-CHIP and XO-CHIP programs of the archive are left out. The archive's LICENSE is copied along.
+#
+# The ROMs in bench/roms/synthetic are small loops written for the benchmarks and always present.
+set -e
+cd "$(dirname "$0")"
+archive=https://github.com/JohnEarnest/chip8Archive/archive/refs/heads/master.tar.gz
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+curl -fsSL "$archive" | tar -xz -C "$work" --strip-components=1
+
+# programs.json maps every program name to its properties, e.g.
+#   "name": {
+#       "platform": "chip8",
+chip8=$(awk '/^[[:space:]]*"[^"]+"[[:space:]]*:/ && depth == 1 { split($0, q, "\""); name = q[2] }
+             /"platform"[[:space:]]*:[[:space:]]*"chip8"/ && depth == 2 { print name }
+             { depth += gsub(/\{/, "{") - gsub(/\}/, "}") }' "$work/programs.json")
+
+rm -rf corpus
+mkdir corpus
+[ -f "$work/LICENSE" ] && cp "$work/LICENSE" corpus/LICENSE
+count=0
+for name in $chip8
+do
+    if [ -f "$work/roms/$name.ch8" ]
+    then
+        cp "$work/roms/$name.ch8" corpus/
+        count=$((count + 1))
+    fi
+done
+echo "Copied $count ROMs to bench/roms/corpus"
@@ -0,0 +1,72 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.BatchEnvironment;
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+// instructions per second of many machines running the same ROM, as one BatchEnvironment with and
+// without the vector lanes and as separate Chip8 objects
+public class BatchBenchmark
+{
+    private static final int MACHINES = 1024;
+    private static final int CYCLES_PER_FRAME = 12;
+
+    @State(Scope.Thread)
+    public static class Batch
+    {
+        @Param({"synthetic/bounce.ch8", "synthetic/counter.ch8", "synthetic/memcopy.ch8"})
+        public String rom;
+
+        // BatchEnvironment reads it once, every parameter combination runs in a JVM of its own
+        @Param({"true", "false"})
+        public boolean vector;
+
+        private BatchEnvironment environment;
+        private final int[] actions = new int[MACHINES];
+
+        @Setup
+        public void setup() throws IOException
+        {
+            System.setProperty("chip8.batch.vector", String.valueOf(vector));
+            environment = new BatchEnvironment(Machines.rom(rom), MACHINES, CYCLES_PER_FRAME);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Objects
+    {
+        @Param({"synthetic/bounce.ch8", "synthetic/counter.ch8", "synthetic/memcopy.ch8"})
+        public String rom;
+
+        private Chip8[] machines;
+
+        @Setup
+        public void setup() throws IOException
+        {
+            byte[] bytes = Machines.rom(rom);
+            machines = new Chip8[MACHINES];
+            for(int m = 0; m < machines.length; m++)
+                machines[m] = Machines.machine(EngineType.PREDECODED, bytes);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MACHINES * CYCLES_PER_FRAME)
+    public long batch(Batch batch)
+    {
+        batch.environment.step(batch.actions);
+        return batch.environment.getScreens()[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MACHINES * CYCLES_PER_FRAME)
+    public long objects(Objects objects)
+    {
+        for(Chip8 chip8 : objects.machines)
+            chip8.runFrame(CYCLES_PER_FRAME);
+        return objects.machines[0].getRow(0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.kgeleta.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs the JMH benchmarks of the emulator hot paths. Machines are driven with Chip8.runFrame() and a
+// large instruction budget, so nothing is paced and the numbers are raw throughput. The ROM benchmarks
+// run every ROM found under the ROM directory.
+//
+//   java -jar bench/target/benchmarks.jar [--json results.json] [--filter regex] [--roms dir] [--quick]
+//
+// Any other JMH option can be given by starting org.openjdk.jmh.Main from the same jar instead.
+public class Benchmarks
+{
+    public static void main(String[] args) throws IOException, RunnerException
+    {
+        String json = null;
+        String filter = "com\\.kgeleta\\.bench\\.";
+        Path roms = Machines.romDirectory();
+        boolean quick = false;
+        for(int i = 0; i < args.length; i++)
+        {
+            switch(args[i])
+            {
+                case "--json":   json = args[++i];              break;
+                case "--filter": filter = args[++i];            break;
+                case "--roms":   roms = Paths.get(args[++i]);   break;
+                case "--quick":  quick = true;                  break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(filter)
+                .forks(1)
+                .jvmArgsAppend("-Djava.awt.headless=true", "-Dchip8.roms=" + roms.toAbsolutePath(),
+                        "--add-modules=jdk.incubator.vector");     // BatchEnvironment's vector lanes
+        if(quick)
+            options.warmupIterations(2).warmupTime(TimeValue.milliseconds(200))
+                    .measurementIterations(3).measurementTime(TimeValue.milliseconds(200));
+        else
+            options.warmupIterations(5).warmupTime(TimeValue.seconds(1))
+                    .measurementIterations(10).measurementTime(TimeValue.seconds(1));
+
+        List<String> found = roms(roms);
+        if(found.isEmpty())
+            System.err.println("No ROMs in " + roms + ", ROM benchmarks use their defaults");
+        else
+            options.param("rom", found.toArray(new String[0]));
+
+        if(json != null)
+            options.resultFormat(ResultFormatType.JSON).result(json);
+        new Runner(options.build()).run();
+    }
+
+    // every ROM below 'directory', relative to it
+    private static List<String> roms(Path directory) throws IOException
+    {
+        if(!Files.isDirectory(directory))
+            return List.of();
+        try(Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.toString().endsWith(".ch8") || file.toString().endsWith(".c8"))
+                    .map(file -> directory.relativize(file).toString().replace('\\', '/'))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
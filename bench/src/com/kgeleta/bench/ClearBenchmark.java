@@ -0,0 +1,27 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import static com.kgeleta.bench.Machines.CYCLES_PER_CALL;
+
+@State(Scope.Thread)
+public class ClearBenchmark
+{
+    private Chip8 chip8;
+
+    @Setup
+    public void setup()
+    {
+        chip8 = Machines.machine(EngineType.PREDECODED, Machines.program(0x00E0, 0x1200));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_CALL / 2)               // every second instruction is 00E0
+    public long clear()
+    {
+        chip8.runFrame(CYCLES_PER_CALL);
+        return chip8.getRow(0);
+    }
+}
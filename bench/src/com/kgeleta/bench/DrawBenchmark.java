@@ -0,0 +1,45 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import static com.kgeleta.bench.Machines.CYCLES_PER_CALL;
+
+// DXYN cost for different sprite heights, aligned, unaligned and wrapping at the screen edges
+@State(Scope.Thread)
+public class DrawBenchmark
+{
+    @Param({"1", "5", "15"})
+    public int height;
+
+    @Param({"aligned", "unaligned", "wrapping"})
+    public String position;
+
+    private Chip8 chip8;
+
+    @Setup
+    public void setup()
+    {
+        int x, y;
+        switch(position)
+        {
+            case "aligned":     x = 0;  y = 0;  break;
+            case "unaligned":   x = 13; y = 7;  break;
+            case "wrapping":    x = 60; y = 28; break;
+            default:
+                throw new IllegalArgumentException("Unknown position " + position);
+        }
+        chip8 = Machines.machine(EngineType.PREDECODED,
+                Machines.program(0x6000 | x, 0x6100 | y, 0xA050, 0xD010 | height, 0x1206));
+        chip8.runFrame(3);                                      // set up V0, V1 and I once
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_CALL / 2)               // every second instruction is DXYN
+    public long draw()
+    {
+        chip8.runFrame(CYCLES_PER_CALL);
+        return chip8.getRow(0);
+    }
+}
@@ -0,0 +1,59 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Machines and small programs shared by the benchmarks
+final class Machines
+{
+    // instructions run by one benchmark invocation, large enough to hide the call overhead
+    static final int CYCLES_PER_CALL = 10_000;
+
+    private Machines() {}
+
+    static Chip8 machine(EngineType engine, byte[] rom)
+    {
+        Chip8 chip8 = new Chip8();
+        chip8.setEngine(engine);
+        chip8.initialize();
+        chip8.loadRom(rom);
+        return chip8;
+    }
+
+    // a ROM relative to the directory given by -Dchip8.roms, bench/roms by default
+    static byte[] rom(String name) throws IOException
+    {
+        return Files.readAllBytes(romDirectory().resolve(name));
+    }
+
+    static Path romDirectory()
+    {
+        return Paths.get(System.getProperty("chip8.roms", "bench/roms"));
+    }
+
+    // the given instructions repeated to fill a block, followed by a jump back to the start
+    static byte[] loop(int... instructions)
+    {
+        int[] words = new int[64 + 1];
+        for(int i = 0; i < 64; i++)
+            words[i] = instructions[i % instructions.length];
+        words[64] = 0x1200;
+        return program(words);
+    }
+
+    static byte[] program(int... words)
+    {
+        byte[] rom = new byte[words.length * 2];
+        for(int i = 0; i < words.length; i++)
+        {
+            rom[2 * i] = (byte) (words[i] >>> 8);
+            rom[2 * i + 1] = (byte) words[i];
+        }
+        return rom;
+    }
+}
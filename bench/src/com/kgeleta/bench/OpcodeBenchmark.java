@@ -0,0 +1,59 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import static com.kgeleta.bench.Machines.CYCLES_PER_CALL;
+
+// instruction throughput of every engine on loops made of one opcode family
+@State(Scope.Thread)
+public class OpcodeBenchmark
+{
+    @Param({"6XNN-7XNN", "8XYN", "skips", "ANNN-FX1E-FX29", "FX33-FX55-FX65", "CXNN", "FX07-FX15-FX18", "2NNN-00EE"})
+    public String family;
+
+    @Param
+    public EngineType engine;
+
+    private Chip8 chip8;
+
+    @Setup
+    public void setup()
+    {
+        chip8 = Machines.machine(engine, program(family));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_CALL)
+    public long run()
+    {
+        chip8.runFrame(CYCLES_PER_CALL);
+        return chip8.getRow(0);
+    }
+
+    private static byte[] program(String family)
+    {
+        switch(family)
+        {
+            // loads and immediate adds
+            case "6XNN-7XNN":       return Machines.loop(0x6005, 0x6107, 0x7003, 0x71FE, 0x6A10, 0x7A01);
+            // register ALU incl. carry, borrow and shifts
+            case "8XYN":            return Machines.loop(0x8014, 0x8125, 0x8206, 0x8317, 0x840E, 0x8501, 0x8602, 0x8703);
+            // conditional skips, taken and not taken
+            case "skips":           return Machines.loop(0x3000, 0x6000, 0x4001, 0x6000, 0x5010, 0x6000, 0x9010, 0x6000);
+            // index register arithmetic
+            case "ANNN-FX1E-FX29":  return Machines.loop(0xA800, 0xF01E, 0xF129, 0xA900, 0xF21E);
+            // BCD and register block transfers into data memory
+            case "FX33-FX55-FX65":  return Machines.loop(0xAE00, 0xF033, 0xAE00, 0xF355, 0xAE00, 0xF365);
+            // random numbers
+            case "CXNN":            return Machines.loop(0xC0FF, 0xC10F, 0xC2F0);
+            // timers
+            case "FX07-FX15-FX18":  return Machines.loop(0xF015, 0xF107, 0xF218);
+            // call / return pairs need a subroutine next to the loop
+            case "2NNN-00EE":       return Machines.program(0x2206, 0x2206, 0x1200, 0x00EE);
+            default:
+                throw new IllegalArgumentException("Unknown opcode family " + family);
+        }
+    }
+}
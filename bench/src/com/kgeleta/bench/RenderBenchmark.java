@@ -0,0 +1,49 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.DisplayPanel;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// presenting a frame with every row changed and painting it to an offscreen Graphics2D
+@State(Scope.Thread)
+public class RenderBenchmark
+{
+    @Param({"10", "20"})
+    public int pixelSize;
+
+    private Chip8 chip8;
+    private DisplayPanel display;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup()
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        // draws a full height sprite every frame, so 15 rows change every time
+        chip8 = Machines.machine(EngineType.PREDECODED, Machines.program(0xA050, 0x600D, 0x7007, 0xD01F, 0x1202));
+        display = new DisplayPanel(pixelSize);
+        Dimension size = display.getPreferredSize();
+        display.setSize(size);
+        BufferedImage target = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        graphics = target.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public void frame()
+    {
+        chip8.runFrame(3);
+        display.present(chip8);
+        display.paint(graphics);
+    }
+}
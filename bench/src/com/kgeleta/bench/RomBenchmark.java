@@ -0,0 +1,38 @@
+package com.kgeleta.bench;
+
+import com.kgeleta.Chip8;
+import com.kgeleta.EngineType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+
+import static com.kgeleta.bench.Machines.CYCLES_PER_CALL;
+
+// end to end instructions per second on whole ROMs; Benchmarks runs every ROM it finds under bench/roms:
+// the synthetic loops that come with the repository, and the CHIP-8 Archive only once fetch-corpus.sh
+// downloaded it. The defaults here are only used when JMH is started directly
+@State(Scope.Thread)
+public class RomBenchmark
+{
+    @Param({"synthetic/bounce.ch8", "synthetic/counter.ch8", "synthetic/memcopy.ch8"})
+    public String rom;
+
+    @Param
+    public EngineType engine;
+
+    private Chip8 chip8;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        chip8 = Machines.machine(engine, Machines.rom(rom));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES_PER_CALL)
+    public long run()
+    {
+        chip8.runFrame(CYCLES_PER_CALL);
+        return chip8.getRow(0);
+    }
+}
@@ -0,0 +1,74 @@
+package com.kgeleta;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.Arrays;
+
+// Plays samples from a SampleRing on the default audio device. A dedicated thread moves small chunks
+// from the ring into a SourceDataLine whose buffer holds only about 10 ms, and blocking on the line
+// paces that thread by the sound card clock. When the ring runs dry silence is played, when it gets
+// more than two frames ahead (the emulation clock is a bit faster than the sound card) the oldest
+// samples are dropped, so the delay from the emulator to the speaker stays under 20 ms plus one frame.
+public class AudioPlayer implements AutoCloseable
+{
+    private static final int LINE_BUFFER = 2 * Beeper.SAMPLE_RATE / 100;           // 10 ms of 16 bit samples
+    private static final int CHUNK = 2 * 128;                                       // 128 samples, about 3 ms
+    private static final int MAX_BACKLOG = 2 * 2 * Beeper.SAMPLES_PER_FRAME;        // two frames
+    private static final int TARGET_BACKLOG = 2 * Beeper.SAMPLES_PER_FRAME;         // one frame
+
+    private final SampleRing input;
+    private final SourceDataLine line;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // opens the default audio device, fails if there is none
+    public AudioPlayer(SampleRing input) throws LineUnavailableException
+    {
+        this.input = input;
+        try {
+            line = AudioSystem.getSourceDataLine(Beeper.FORMAT);
+        }catch(IllegalArgumentException iae) {
+            throw new LineUnavailableException("No audio device: " + iae.getMessage());
+        }
+        line.open(Beeper.FORMAT, LINE_BUFFER);
+        line.start();
+
+        thread = new Thread(this::play, "CHIP-8 audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    private void play()
+    {
+        byte[] chunk = new byte[CHUNK];
+        while(running)
+        {
+            int backlog = input.available();
+            if(backlog > MAX_BACKLOG)
+                input.skip((backlog - TARGET_BACKLOG) & ~1);    // whole samples only
+
+            int length = input.poll(chunk, 0, chunk.length);
+            if(length == 0)
+            {
+                Arrays.fill(chunk, (byte) 0);
+                length = chunk.length;
+            }
+            line.write(chunk, 0, length);                       // blocks while the line buffer is full
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        running = false;
+        try {
+            thread.join(1000);
+        }catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        line.stop();
+        line.close();
+    }
+}
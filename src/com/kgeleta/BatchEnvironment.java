@@ -0,0 +1,519 @@
+package com.kgeleta;
+
+import java.util.Arrays;
+
+// Many machines running the same ROM in lock step, e.g. as a reinforcement learning environment where
+// every step() advances all of them by one frame. State is kept as structure of arrays - register Vx of
+// all machines is one contiguous run of 'machines' ints, pc, I, timers and keys are one array each - and
+// every instruction step first fetches the opcode of each machine, then executes every run of adjacent
+// machines sharing an opcode with one tight loop over that run. If the JVM runs with
+// --add-modules jdk.incubator.vector, the arithmetic, loads and skips of a run go through BatchLanes a
+// whole vector of machines at a time; the rest of a run, sprites, memory and everything without the
+// module are plain counted loops over primitive arrays. Machines whose code diverged simply form runs of
+// one. Nothing is allocated per step.
+//
+// Each machine behaves exactly like a Chip8 with QuirkProfile.CLASSIC initialized with the same seed,
+// loaded with the same ROM and given the same keys and cycles per frame, until it is done: it jumped to
+// itself, executed an unknown opcode (both would leave the screen as it is forever) or over- or
+// underflowed the stack (a Chip8 would throw). A done machine stands still until reset().
+public class BatchEnvironment
+{
+    private static final int SIZE = Memory.SIZE;
+    private static final int MASK = Memory.MASK;
+    private static final int STACK = 16;
+    private static final long RNG_MULTIPLIER = 0x5DEECE66DL;     // same generator as Rng
+    private static final long RNG_ADDEND = 0xBL;
+    private static final long RNG_MASK = (1L << 48) - 1;
+    // a compile time constant for the JIT like Metrics.ENABLED, -Dchip8.batch.vector=false turns it off
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("chip8.batch.vector"));
+
+    private final int machines;
+    private final byte[] rom;
+    private final byte[] image = new byte[SIZE];        // memory right after initialization, copied on reset
+    private int cyclesPerFrame;
+
+    private final byte[] memory;                        // machine m at m * SIZE
+    private final int[] writtenFrom;                    // machine m changed only memory[writtenFrom[m], writtenTo[m])
+    private final int[] writtenTo;                      // of its copy of 'image', the rest is read from 'image' itself
+    private final int[] v;                              // register x of machine m at x * machines + m
+    private final int[] pc;
+    private final int[] index;                          // register I
+    private final int[] sp;                             // -1 = empty stack
+    private final int[] stack;                          // machine m at m * STACK
+    private final int[] delayTimer;
+    private final int[] soundTimer;
+    private final int[] keys;
+    private final long[] random;                        // state of each machine's Rng
+    private final long[] screens;                       // row y of machine m at m * Chip8.HEIGHT + y
+    private final boolean[] done;
+    private final int[] opcodes;                        // opcode of this instruction step, -1 = machine doesn't run
+
+    public BatchEnvironment(byte[] rom, int machines, int cyclesPerFrame)
+    {
+        if(machines < 1 || machines > Integer.MAX_VALUE / SIZE)
+            throw new IllegalArgumentException("Number of machines should be in range 1 to " + Integer.MAX_VALUE / SIZE);
+        if(rom.length > Chip8.MAX_ROM_SIZE)
+            throw new IllegalArgumentException("ROM has " + rom.length + " bytes, it can't be bigger than " + Chip8.MAX_ROM_SIZE);
+        this.machines = machines;
+        this.rom = rom.clone();
+        setCyclesPerFrame(cyclesPerFrame);
+
+        memory = new byte[machines * SIZE];
+        writtenFrom = new int[machines];
+        writtenTo = new int[machines];
+        v = new int[16 * machines];
+        pc = new int[machines];
+        index = new int[machines];
+        sp = new int[machines];
+        stack = new int[STACK * machines];
+        delayTimer = new int[machines];
+        soundTimer = new int[machines];
+        keys = new int[machines];
+        random = new long[machines];
+        screens = new long[machines * Chip8.HEIGHT];
+        done = new boolean[machines];
+        opcodes = new int[machines];
+
+        // the same memory a Chip8 starts with: font at 0x50, ROM at 0x200
+        Chip8 reference = new Chip8();
+        reference.initialize(0);
+        reference.loadRom(this.rom);
+        reference.memory.store(0, image, 0, SIZE);
+        reset(0);
+    }
+
+    public int getMachines()
+    {
+        return machines;
+    }
+
+    public int getCyclesPerFrame()
+    {
+        return cyclesPerFrame;
+    }
+
+    public void setCyclesPerFrame(int cyclesPerFrame)
+    {
+        if(cyclesPerFrame < 1 || cyclesPerFrame > FrameScheduler.MAX_CYCLES_PER_FRAME)
+            throw new IllegalArgumentException("Cycles per frame should be in range 1 to " + FrameScheduler.MAX_CYCLES_PER_FRAME);
+        this.cyclesPerFrame = cyclesPerFrame;
+    }
+
+    // screens of all machines, row y of machine m at m * Chip8.HEIGHT + y (same bits as Chip8.getRow());
+    // updated in place by step(), read only for the caller
+    public long[] getScreens()
+    {
+        return screens;
+    }
+
+    // done[m] = machine m stopped for good, see the class comment; updated in place, read only for the caller
+    public boolean[] getDone()
+    {
+        return done;
+    }
+
+    // restarts every machine, machine m like Chip8.initialize(seed + m)
+    public void reset(long seed)
+    {
+        for(int m = 0; m < machines; m++)
+            reset(m, seed + m);
+    }
+
+    // restarts machine 'm' like Chip8.initialize(seed) followed by loading the ROM
+    public void reset(int m, long seed)
+    {
+        System.arraycopy(image, 0, memory, m * SIZE, SIZE);
+        writtenFrom[m] = SIZE;
+        writtenTo[m] = 0;
+        for(int x = 0; x < 16; x++)
+            v[x * machines + m] = 0;
+        pc[m] = Chip8.ROM_START;
+        index[m] = 0;
+        sp[m] = -1;
+        Arrays.fill(stack, m * STACK, (m + 1) * STACK, 0);
+        delayTimer[m] = 0;
+        soundTimer[m] = 0;
+        keys[m] = 0;
+        random[m] = (seed ^ RNG_MULTIPLIER) & RNG_MASK;
+        Arrays.fill(screens, m * Chip8.HEIGHT, (m + 1) * Chip8.HEIGHT, 0L);
+        done[m] = false;
+    }
+
+    // one frame of every machine that isn't done: actions[m] are the keys held by machine m during the
+    // frame (bit k = key k), then cyclesPerFrame instructions, then one timer tick
+    public void step(int[] actions)
+    {
+        if(actions.length < machines)
+            throw new IllegalArgumentException("Expected keys of " + machines + " machines, got " + actions.length);
+        System.arraycopy(actions, 0, keys, 0, machines);
+
+        final int[] opcodes = this.opcodes;
+        for(int m = 0; m < machines; m++)
+            opcodes[m] = done[m] ? -1 : 0;
+
+        for(int cycle = 0; cycle < cyclesPerFrame; cycle++)
+        {
+            boolean running = false;
+            int shared = -1;                            // address of the last opcode fetched from 'image'
+            int sharedOpcode = 0;
+            for(int m = 0; m < machines; m++)
+            {
+                if(opcodes[m] >= 0)
+                {
+                    // code is rarely written, so nearly all fetches hit the one shared image instead of
+                    // 'machines' separate 4 KB copies, and machines in lock step fetch at the same address
+                    int address = pc[m] & MASK;
+                    if(address < SIZE - 1 && (address + 2 <= writtenFrom[m] || address >= writtenTo[m]))
+                    {
+                        if(address != shared)
+                        {
+                            shared = address;
+                            sharedOpcode = ((image[address] & 0xFF) << 8) | (image[address + 1] & 0xFF);
+                        }
+                        opcodes[m] = sharedOpcode;
+                        if(VECTORIZED)                  // the machines in lock step with this one
+                            m = BatchLanes.fetchShared(pc, opcodes, writtenFrom, writtenTo, pc[m], address, sharedOpcode, m + 1, machines) - 1;
+                    }
+                    else
+                    {
+                        int base = m * SIZE;
+                        opcodes[m] = ((memory[base + address] & 0xFF) << 8) | (memory[base + ((address + 1) & MASK)] & 0xFF);
+                    }
+                    running = true;
+                }
+            }
+            if(!running)
+                break;                                  // everything is done or waiting for a key
+
+            for(int from = 0; from < machines; )
+            {
+                int opcode = opcodes[from];
+                int to = VECTORIZED ? BatchLanes.run(opcodes, opcode, from + 1, machines) : from + 1;
+                while(to < machines && opcodes[to] == opcode)
+                    to++;
+                if(opcode >= 0)
+                    execute(opcode, from, to);
+                from = to;
+            }
+        }
+
+        for(int m = 0; m < machines; m++)
+        {
+            if(done[m])
+                continue;
+            if(delayTimer[m] > 0)
+                delayTimer[m]--;
+            if(soundTimer[m] > 0)
+                soundTimer[m]--;
+        }
+    }
+
+    // executes 'opcode' on machines 'from' to 'to' - 1, with exactly the semantics of Ops
+    private void execute(int opcode, int from, int to)
+    {
+        final int n = machines;
+        final int[] v = this.v;
+        final int[] pc = this.pc;
+        final int nnn = opcode & 0x0FFF;
+        final int nn = opcode & 0xFF;
+        final int vx = (opcode >>> 8 & 0xF) * n;        // start of register X in 'v'
+        final int vy = (opcode >>> 4 & 0xF) * n;
+        final int vf = 0xF * n;
+
+        switch(PredecodedEngine.handler(opcode))
+        {
+            case PredecodedEngine.NOP:
+                for(int m = from; m < to; m++)
+                    stop(m);                            // pc would never move again
+                break;
+            case PredecodedEngine.CLS:
+                Arrays.fill(screens, from * Chip8.HEIGHT, to * Chip8.HEIGHT, 0L);
+                advance(from, to);
+                break;
+            case PredecodedEngine.RET:
+                for(int m = from; m < to; m++)
+                {
+                    if(sp[m] < 0)
+                    {
+                        stop(m);
+                        continue;
+                    }
+                    pc[m] = stack[m * STACK + sp[m]] + 2;
+                    sp[m]--;
+                }
+                break;
+            case PredecodedEngine.JP:
+                for(int m = from; m < to; m++)
+                {
+                    if(pc[m] == nnn)
+                        stop(m);                        // jumps to itself forever
+                    else
+                        pc[m] = nnn;
+                }
+                break;
+            case PredecodedEngine.CALL:
+                for(int m = from; m < to; m++)
+                {
+                    if(sp[m] == STACK - 1)
+                    {
+                        stop(m);
+                        continue;
+                    }
+                    sp[m]++;
+                    stack[m * STACK + sp[m]] = pc[m];
+                    pc[m] = nnn;
+                }
+                break;
+            case PredecodedEngine.SE_NN:
+                for(int m = VECTORIZED ? BatchLanes.skipNN(v, vx, nn, true, pc, from, to) : from; m < to; m++)
+                    pc[m] += v[vx + m] == nn ? 4 : 2;
+                break;
+            case PredecodedEngine.SNE_NN:
+                for(int m = VECTORIZED ? BatchLanes.skipNN(v, vx, nn, false, pc, from, to) : from; m < to; m++)
+                    pc[m] += v[vx + m] != nn ? 4 : 2;
+                break;
+            case PredecodedEngine.SE_VY:
+                for(int m = VECTORIZED ? BatchLanes.skipVY(v, vx, vy, true, pc, from, to) : from; m < to; m++)
+                    pc[m] += v[vx + m] == v[vy + m] ? 4 : 2;
+                break;
+            case PredecodedEngine.SNE_VY:
+                for(int m = VECTORIZED ? BatchLanes.skipVY(v, vx, vy, false, pc, from, to) : from; m < to; m++)
+                    pc[m] += v[vx + m] != v[vy + m] ? 4 : 2;
+                break;
+            case PredecodedEngine.LD_NN:
+                for(int m = VECTORIZED ? BatchLanes.fill(v, vx, nn, from, to) : from; m < to; m++)
+                    v[vx + m] = nn;
+                advance(from, to);
+                break;
+            case PredecodedEngine.ADD_NN:
+                for(int m = VECTORIZED ? BatchLanes.addNN(v, vx, nn, from, to) : from; m < to; m++)
+                    v[vx + m] = v[vx + m] > 0xFF - nn ? (v[vx + m] + nn - 256) & 0xFF : v[vx + m] + nn;
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_VY:
+                for(int m = VECTORIZED ? BatchLanes.copy(v, vy, v, vx, -1, from, to) : from; m < to; m++)
+                    v[vx + m] = v[vy + m];
+                advance(from, to);
+                break;
+            case PredecodedEngine.OR:
+                for(int m = VECTORIZED ? BatchLanes.or(v, vx, vy, from, to) : from; m < to; m++)
+                    v[vx + m] |= v[vy + m];
+                advance(from, to);
+                break;
+            case PredecodedEngine.AND:
+                for(int m = VECTORIZED ? BatchLanes.and(v, vx, vy, from, to) : from; m < to; m++)
+                    v[vx + m] &= v[vy + m];
+                advance(from, to);
+                break;
+            case PredecodedEngine.XOR:
+                for(int m = VECTORIZED ? BatchLanes.xor(v, vx, vy, from, to) : from; m < to; m++)
+                    v[vx + m] ^= v[vy + m];
+                advance(from, to);
+                break;
+            // V[F] is written first and V[X], V[Y] are read again afterwards, like Ops does
+            case PredecodedEngine.ADD_VY:
+                for(int m = VECTORIZED ? BatchLanes.addVY(v, vx, vy, vf, from, to) : from; m < to; m++)
+                {
+                    boolean carry = v[vy + m] > 0xFF - v[vx + m];
+                    v[vf + m] = carry ? 1 : 0;
+                    v[vx + m] = v[vy + m] + v[vx + m] - (carry ? 256 : 0);
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.SUB:
+                for(int m = VECTORIZED ? BatchLanes.sub(v, vx, vy, vf, false, from, to) : from; m < to; m++)
+                {
+                    boolean borrow = v[vx + m] < v[vy + m];
+                    v[vf + m] = borrow ? 0 : 1;
+                    v[vx + m] = borrow ? 256 - (v[vy + m] - v[vx + m]) : v[vx + m] - v[vy + m];
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.SHR:
+                for(int m = VECTORIZED ? BatchLanes.shr(v, vx, vf, from, to) : from; m < to; m++)
+                {
+                    v[vf + m] = v[vx + m] & 0x1;
+                    v[vx + m] >>= 1;
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.SUBN:
+                for(int m = VECTORIZED ? BatchLanes.sub(v, vx, vy, vf, true, from, to) : from; m < to; m++)
+                {
+                    boolean borrow = v[vx + m] > v[vy + m];
+                    v[vf + m] = borrow ? 0 : 1;
+                    v[vx + m] = borrow ? 256 - (v[vx + m] - v[vy + m]) : v[vy + m] - v[vx + m];
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.SHL:
+                for(int m = VECTORIZED ? BatchLanes.shl(v, vx, vf, from, to) : from; m < to; m++)
+                {
+                    v[vf + m] = v[vx + m] >> 7;
+                    v[vx + m] <<= 1;
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_I:
+                for(int m = VECTORIZED ? BatchLanes.fill(index, 0, nnn, from, to) : from; m < to; m++)
+                    index[m] = nnn;
+                advance(from, to);
+                break;
+            case PredecodedEngine.JP_V0:
+                for(int m = from; m < to; m++)
+                    pc[m] = v[m] + nnn;
+                break;
+            case PredecodedEngine.RND:
+                for(int m = from; m < to; m++)
+                {
+                    long state = (random[m] * RNG_MULTIPLIER + RNG_ADDEND) & RNG_MASK;
+                    random[m] = state;
+                    v[vx + m] = (int) ((256L * (int) (state >>> 17)) >> 31) & nn;
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.DRW:
+                for(int m = from; m < to; m++)
+                    drawSprite(m, v[vx + m], v[vy + m], opcode & 0xF);
+                advance(from, to);
+                break;
+            case PredecodedEngine.SKP:
+                for(int m = VECTORIZED ? BatchLanes.skipKey(v, vx, keys, true, pc, from, to) : from; m < to; m++)
+                    pc[m] += (keys[m] & (1 << (v[vx + m] & 0xF))) != 0 ? 4 : 2;
+                break;
+            case PredecodedEngine.SKNP:
+                for(int m = VECTORIZED ? BatchLanes.skipKey(v, vx, keys, false, pc, from, to) : from; m < to; m++)
+                    pc[m] += (keys[m] & (1 << (v[vx + m] & 0xF))) == 0 ? 4 : 2;
+                break;
+            case PredecodedEngine.LD_VX_DT:
+                for(int m = VECTORIZED ? BatchLanes.copy(delayTimer, 0, v, vx, 0xFF, from, to) : from; m < to; m++)
+                    v[vx + m] = delayTimer[m] & 0xFF;
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_VX_K:
+                for(int m = from; m < to; m++)
+                {
+                    if(keys[m] != 0)
+                    {
+                        v[vx + m] = Integer.numberOfTrailingZeros(keys[m]);
+                        pc[m] += 2;
+                    }
+                    else
+                        opcodes[m] = -1;                // keys can't change before the frame ends
+                }
+                break;
+            case PredecodedEngine.LD_DT:
+                for(int m = VECTORIZED ? BatchLanes.copy(v, vx, delayTimer, 0, 0xFF, from, to) : from; m < to; m++)
+                    delayTimer[m] = v[vx + m] & 0xFF;
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_ST:
+                for(int m = VECTORIZED ? BatchLanes.copy(v, vx, soundTimer, 0, 0xFF, from, to) : from; m < to; m++)
+                    soundTimer[m] = v[vx + m] & 0xFF;
+                advance(from, to);
+                break;
+            case PredecodedEngine.ADD_I:
+                for(int m = VECTORIZED ? BatchLanes.addI(v, vx, vf, index, from, to) : from; m < to; m++)
+                {
+                    v[vf + m] = index[m] + v[vx + m] > 0xFFF ? 1 : 0;
+                    index[m] += v[vx + m];
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_F:
+                for(int m = VECTORIZED ? BatchLanes.ldF(v, vx, index, from, to) : from; m < to; m++)
+                    index[m] = v[vx + m] * 5 + 0x50;
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_B:
+                for(int m = from; m < to; m++)
+                {
+                    int value = v[vx + m];
+                    int base = m * SIZE;
+                    memory[base + (index[m] & MASK)] = (byte) (value / 100);
+                    memory[base + ((index[m] + 1) & MASK)] = (byte) ((value / 10) % 10);
+                    memory[base + ((index[m] + 2) & MASK)] = (byte) (value % 10);
+                    written(m, index[m], 3);
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.ST_REGS:
+                for(int m = from; m < to; m++)
+                {
+                    int base = m * SIZE;
+                    int last = opcode >>> 8 & 0xF;
+                    for(int x = 0; x <= last; x++)
+                        memory[base + ((index[m] + x) & MASK)] = (byte) v[x * n + m];
+                    written(m, index[m], last + 1);
+                    index[m] += last + 1;
+                }
+                advance(from, to);
+                break;
+            case PredecodedEngine.LD_REGS:
+                for(int m = from; m < to; m++)
+                {
+                    int base = m * SIZE;
+                    int last = opcode >>> 8 & 0xF;
+                    for(int x = 0; x <= last; x++)
+                        v[x * n + m] = memory[base + ((index[m] + x) & MASK)] & 0xFF;
+                    index[m] += last + 1;
+                }
+                advance(from, to);
+                break;
+        }
+    }
+
+    private void advance(int from, int to)
+    {
+        final int[] pc = this.pc;
+        for(int m = VECTORIZED ? BatchLanes.advance(pc, from, to) : from; m < to; m++)
+            pc[m] += 2;
+    }
+
+    // machine m wrote 'length' bytes at 'address'
+    private void written(int m, int address, int length)
+    {
+        address &= MASK;
+        if(address + length > SIZE)
+        {
+            writtenFrom[m] = 0;                         // wrapped around, don't bother
+            writtenTo[m] = SIZE;
+            return;
+        }
+        writtenFrom[m] = Math.min(writtenFrom[m], address);
+        writtenTo[m] = Math.max(writtenTo[m], address + length);
+    }
+
+    private void stop(int m)
+    {
+        done[m] = true;
+        opcodes[m] = -1;
+    }
+
+    // same as Chip8.drawSprite()
+    private void drawSprite(int m, int vx, int vy, int height)
+    {
+        int x0 = vx & 0x3F;
+        int y0 = vy & 0x1F;
+        int address = index[m] & MASK;
+        byte[] source = memory;
+        int base = m * SIZE;
+        if(address + height <= SIZE && (address + height <= writtenFrom[m] || address >= writtenTo[m]))
+        {
+            source = image;
+            base = 0;
+        }
+        int screen = m * Chip8.HEIGHT;
+        int collision = 0;
+        for(int y = 0; y < height; y++)
+        {
+            long spriteRow = Long.rotateRight((long) (source[base + ((address + y) & MASK)] & 0xFF) << 56, x0);
+            int row = screen + ((y + y0) & 0x1F);
+            if((screens[row] & spriteRow) != 0)
+                collision = 1;
+            screens[row] ^= spriteRow;
+        }
+        v[0xF * machines + m] = collision;
+    }
+}
@@ -0,0 +1,245 @@
+package com.kgeleta;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// jdk.incubator.vector versions of BatchEnvironment's loops over a run of machines sharing an opcode.
+// Every method executes the instruction on whole vectors of machines starting at 'from' and returns the
+// first machine it left out, BatchEnvironment runs the rest (fewer than one vector) with its scalar loop.
+// Results are exactly those of the scalar loops, registers are read again after V[F] is written like
+// they are there. This class is only loaded if BatchEnvironment.VECTORIZED.
+final class BatchLanes
+{
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    private BatchLanes() {}
+
+    private static int end(int from, int to)
+    {
+        return from + SPECIES.loopBound(to - from);
+    }
+
+    // Opcodes of the machines from 'm' on that run at the same 'pc' and still have the code at 'address'
+    // (pc & MASK) of the shared image: 'opcode' for all of them
+    static int fetchShared(int[] pcs, int[] opcodes, int[] writtenFrom, int[] writtenTo, int pc, int address, int opcode, int m, int to)
+    {
+        IntVector at = IntVector.broadcast(SPECIES, pc);
+        IntVector fetched = IntVector.broadcast(SPECIES, opcode);
+        for(int end = end(m, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> shared = IntVector.fromArray(SPECIES, pcs, m).compare(VectorOperators.EQ, at)
+                    .and(IntVector.fromArray(SPECIES, opcodes, m).compare(VectorOperators.GE, 0))
+                    .and(IntVector.fromArray(SPECIES, writtenFrom, m).compare(VectorOperators.GE, address + 2)
+                            .or(IntVector.fromArray(SPECIES, writtenTo, m).compare(VectorOperators.LE, address)));
+            if(!shared.allTrue())
+                break;
+            fetched.intoArray(opcodes, m);
+        }
+        return m;
+    }
+
+    // end of the run of machines from 'm' on with 'opcode', or where the scalar search has to go on
+    static int run(int[] opcodes, int opcode, int m, int to)
+    {
+        for(int end = end(m, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> other = IntVector.fromArray(SPECIES, opcodes, m).compare(VectorOperators.NE, opcode);
+            if(other.anyTrue())
+                return m + other.firstTrue();
+        }
+        return m;
+    }
+
+    // pc += 2
+    static int advance(int[] pc, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+            IntVector.fromArray(SPECIES, pc, m).add(2).intoArray(pc, m);
+        return m;
+    }
+
+    // pc += 4 where 'skip' holds, 2 elsewhere
+    private static void skip(int[] pc, int m, VectorMask<Integer> skip)
+    {
+        IntVector.fromArray(SPECIES, pc, m).add(IntVector.broadcast(SPECIES, 2).blend(4, skip)).intoArray(pc, m);
+    }
+
+    // 3XNN / 4XNN: skip if V[X] == NN, or if it doesn't
+    static int skipNN(int[] v, int vx, int nn, boolean equal, int[] pc, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> same = IntVector.fromArray(SPECIES, v, vx + m).compare(VectorOperators.EQ, nn);
+            skip(pc, m, equal ? same : same.not());
+        }
+        return m;
+    }
+
+    // 5XY0 / 9XY0: skip if V[X] == V[Y], or if it doesn't
+    static int skipVY(int[] v, int vx, int vy, boolean equal, int[] pc, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> same = IntVector.fromArray(SPECIES, v, vx + m).compare(VectorOperators.EQ, IntVector.fromArray(SPECIES, v, vy + m));
+            skip(pc, m, equal ? same : same.not());
+        }
+        return m;
+    }
+
+    // EX9E / EXA1: skip if key V[X] is pressed, or if it isn't
+    static int skipKey(int[] v, int vx, int[] keys, boolean pressed, int[] pc, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            IntVector key = IntVector.broadcast(SPECIES, 1).lanewise(VectorOperators.LSHL, IntVector.fromArray(SPECIES, v, vx + m).and(0xF));
+            VectorMask<Integer> up = IntVector.fromArray(SPECIES, keys, m).and(key).compare(VectorOperators.EQ, 0);
+            skip(pc, m, pressed ? up.not() : up);
+        }
+        return m;
+    }
+
+    // target[m] = value: 6XNN, ANNN
+    static int fill(int[] target, int offset, int value, int from, int to)
+    {
+        IntVector filled = IntVector.broadcast(SPECIES, value);
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+            filled.intoArray(target, offset + m);
+        return m;
+    }
+
+    // target[m] = source[m] & mask: 8XY0, FX07, FX15, FX18
+    static int copy(int[] source, int sourceOffset, int[] target, int targetOffset, int mask, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+            IntVector.fromArray(SPECIES, source, sourceOffset + m).and(mask).intoArray(target, targetOffset + m);
+        return m;
+    }
+
+    // 7XNN
+    static int addNN(int[] v, int vx, int nn, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            IntVector x = IntVector.fromArray(SPECIES, v, vx + m);
+            IntVector sum = x.add(nn);
+            sum.blend(sum.sub(256).and(0xFF), x.compare(VectorOperators.GT, 0xFF - nn)).intoArray(v, vx + m);
+        }
+        return m;
+    }
+
+    // 8XY1
+    static int or(int[] v, int vx, int vy, int from, int to)
+    {
+        return logic(VectorOperators.OR, v, vx, vy, from, to);
+    }
+
+    // 8XY2
+    static int and(int[] v, int vx, int vy, int from, int to)
+    {
+        return logic(VectorOperators.AND, v, vx, vy, from, to);
+    }
+
+    // 8XY3
+    static int xor(int[] v, int vx, int vy, int from, int to)
+    {
+        return logic(VectorOperators.XOR, v, vx, vy, from, to);
+    }
+
+    private static int logic(VectorOperators.Binary operator, int[] v, int vx, int vy, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+            IntVector.fromArray(SPECIES, v, vx + m).lanewise(operator, IntVector.fromArray(SPECIES, v, vy + m)).intoArray(v, vx + m);
+        return m;
+    }
+
+    // 8XY4
+    static int addVY(int[] v, int vx, int vy, int vf, int from, int to)
+    {
+        IntVector zero = IntVector.zero(SPECIES);
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> carry = IntVector.fromArray(SPECIES, v, vy + m)
+                    .compare(VectorOperators.GT, IntVector.broadcast(SPECIES, 0xFF).sub(IntVector.fromArray(SPECIES, v, vx + m)));
+            zero.blend(1, carry).intoArray(v, vf + m);
+            IntVector.fromArray(SPECIES, v, vy + m).add(IntVector.fromArray(SPECIES, v, vx + m))
+                    .sub(zero.blend(256, carry)).intoArray(v, vx + m);
+        }
+        return m;
+    }
+
+    // 8XY5, or 8XY7 if 'reverse': V[X] = V[Y] - V[X]
+    static int sub(int[] v, int vx, int vy, int vf, boolean reverse, int from, int to)
+    {
+        int minuend = reverse ? vy : vx;
+        int subtrahend = reverse ? vx : vy;
+        IntVector one = IntVector.broadcast(SPECIES, 1);
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            VectorMask<Integer> borrow = IntVector.fromArray(SPECIES, v, minuend + m)
+                    .compare(VectorOperators.LT, IntVector.fromArray(SPECIES, v, subtrahend + m));
+            one.blend(0, borrow).intoArray(v, vf + m);
+            IntVector difference = IntVector.fromArray(SPECIES, v, minuend + m).sub(IntVector.fromArray(SPECIES, v, subtrahend + m));
+            difference.blend(difference.add(256), borrow).intoArray(v, vx + m);
+        }
+        return m;
+    }
+
+    // 8XY6
+    static int shr(int[] v, int vx, int vf, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            IntVector.fromArray(SPECIES, v, vx + m).and(0x1).intoArray(v, vf + m);
+            IntVector.fromArray(SPECIES, v, vx + m).lanewise(VectorOperators.ASHR, 1).intoArray(v, vx + m);
+        }
+        return m;
+    }
+
+    // 8XYE
+    static int shl(int[] v, int vx, int vf, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            IntVector.fromArray(SPECIES, v, vx + m).lanewise(VectorOperators.ASHR, 7).intoArray(v, vf + m);
+            IntVector.fromArray(SPECIES, v, vx + m).lanewise(VectorOperators.LSHL, 1).intoArray(v, vx + m);
+        }
+        return m;
+    }
+
+    // FX1E
+    static int addI(int[] v, int vx, int vf, int[] index, int from, int to)
+    {
+        IntVector zero = IntVector.zero(SPECIES);
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+        {
+            IntVector i = IntVector.fromArray(SPECIES, index, m);
+            zero.blend(1, i.add(IntVector.fromArray(SPECIES, v, vx + m)).compare(VectorOperators.GT, 0xFFF)).intoArray(v, vf + m);
+            i.add(IntVector.fromArray(SPECIES, v, vx + m)).intoArray(index, m);
+        }
+        return m;
+    }
+
+    // FX29
+    static int ldF(int[] v, int vx, int[] index, int from, int to)
+    {
+        int m = from;
+        for(int end = end(from, to); m < end; m += SPECIES.length())
+            IntVector.fromArray(SPECIES, v, vx + m).mul(5).add(0x50).intoArray(index, m);
+        return m;
+    }
+}
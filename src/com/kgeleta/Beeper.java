@@ -0,0 +1,75 @@
+package com.kgeleta;
+
+import javax.sound.sampled.AudioFormat;
+
+// The CHIP-8 buzzer: a square wave while the sound timer is above zero. Chip8 calls frame() on every
+// timer tick and the samples of that 1/60 s go into a SampleRing as 16 bit signed mono PCM, to be
+// played by an AudioPlayer or stored by a WavSink. Runs on the emulation thread, so it never blocks and
+// never allocates; if nobody reads the ring, samples are dropped.
+public class Beeper
+{
+    public static final int SAMPLE_RATE = 44_100;
+    public static final int SAMPLES_PER_FRAME = SAMPLE_RATE / FrameScheduler.FRAME_RATE;
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    private static final int TONE = 440;                    // Hz
+    private static final int PHASE_STEP = (int) Math.round(TONE * 4294967296.0 / SAMPLE_RATE);
+
+    private final SampleRing output;
+    private final byte[] frame = new byte[2 * SAMPLES_PER_FRAME];
+    private volatile boolean enabled = true;
+    private volatile short amplitude = 6000;
+    private int phase;                                      // the whole int range is one period
+
+    public Beeper(SampleRing output)
+    {
+        this.output = output;
+    }
+
+    public SampleRing getOutput()
+    {
+        return output;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    // a disabled beeper writes nothing at all, not even silence
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    // 0.0 - 1.0
+    public void setVolume(double volume)
+    {
+        amplitude = (short) (Math.max(0, Math.min(1, volume)) * Short.MAX_VALUE);
+    }
+
+    // one frame of sound, 'on' if the sound timer was running during it
+    public void frame(boolean on)
+    {
+        if(!enabled)
+            return;
+        if(on)
+        {
+            short high = amplitude;
+            for(int i = 0; i < frame.length; i += 2)
+            {
+                int sample = phase < 0 ? -high : high;
+                frame[i] = (byte) sample;                   // little endian
+                frame[i + 1] = (byte) (sample >> 8);
+                phase += PHASE_STEP;
+            }
+        }
+        else
+        {
+            for(int i = 0; i < frame.length; i++)
+                frame[i] = 0;
+            phase = 0;                                      // next beep starts at the beginning of a period
+        }
+        output.offer(frame, 0, frame.length);
+    }
+}
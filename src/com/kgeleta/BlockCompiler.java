@@ -0,0 +1,331 @@
+package com.kgeleta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+// Emits a class file for one basic block and defines it as a hidden class in this package.
+// The generated run() method is a straight sequence of 'invokestatic Ops.xxx(c, NNN)' calls with
+// the operands as constants, so after inlining the JIT sees plain field and array accesses with
+// constant register indexes. There are no branches in the generated code, so no stack map frames
+// are needed and a tiny hand written class file writer is enough.
+final class BlockCompiler
+{
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class);
+
+    private static final String CHIP8 = "com/kgeleta/Chip8";
+    private static final String OPS = "com/kgeleta/Ops";
+    private static final String OP_DESCRIPTOR = "(L" + CHIP8 + ";I)V";
+    private static final String TRACER = "com/kgeleta/Tracer";
+    private static final String STEP_DESCRIPTOR = "(L" + CHIP8 + ";II)V";
+
+    // Ops method implementing each PredecodedEngine handler
+    private static final String[] OP_NAMES = new String[PredecodedEngine.HANDLERS];
+    static
+    {
+        OP_NAMES[PredecodedEngine.CLS] = "cls";
+        OP_NAMES[PredecodedEngine.RET] = "ret";
+        OP_NAMES[PredecodedEngine.JP] = "jp";
+        OP_NAMES[PredecodedEngine.CALL] = "call";
+        OP_NAMES[PredecodedEngine.SE_NN] = "seNN";
+        OP_NAMES[PredecodedEngine.SNE_NN] = "sneNN";
+        OP_NAMES[PredecodedEngine.SE_VY] = "seVY";
+        OP_NAMES[PredecodedEngine.LD_NN] = "ldNN";
+        OP_NAMES[PredecodedEngine.ADD_NN] = "addNN";
+        OP_NAMES[PredecodedEngine.LD_VY] = "ldVY";
+        OP_NAMES[PredecodedEngine.OR] = "or";
+        OP_NAMES[PredecodedEngine.AND] = "and";
+        OP_NAMES[PredecodedEngine.XOR] = "xor";
+        OP_NAMES[PredecodedEngine.ADD_VY] = "addVY";
+        OP_NAMES[PredecodedEngine.SUB] = "sub";
+        OP_NAMES[PredecodedEngine.SHR] = "shr";
+        OP_NAMES[PredecodedEngine.SUBN] = "subn";
+        OP_NAMES[PredecodedEngine.SHL] = "shl";
+        OP_NAMES[PredecodedEngine.SNE_VY] = "sneVY";
+        OP_NAMES[PredecodedEngine.LD_I] = "ldI";
+        OP_NAMES[PredecodedEngine.JP_V0] = "jpV0";
+        OP_NAMES[PredecodedEngine.RND] = "rnd";
+        OP_NAMES[PredecodedEngine.DRW] = "drw";
+        OP_NAMES[PredecodedEngine.SKP] = "skp";
+        OP_NAMES[PredecodedEngine.SKNP] = "sknp";
+        OP_NAMES[PredecodedEngine.LD_VX_DT] = "ldVxDt";
+        OP_NAMES[PredecodedEngine.LD_VX_K] = "ldVxK";
+        OP_NAMES[PredecodedEngine.LD_DT] = "ldDt";
+        OP_NAMES[PredecodedEngine.LD_ST] = "ldSt";
+        OP_NAMES[PredecodedEngine.ADD_I] = "addI";
+        OP_NAMES[PredecodedEngine.LD_F] = "ldF";
+        OP_NAMES[PredecodedEngine.LD_B] = "ldB";
+        OP_NAMES[PredecodedEngine.ST_REGS] = "stRegs";
+        OP_NAMES[PredecodedEngine.LD_REGS] = "ldRegs";
+        OP_NAMES[PredecodedEngine.SHR_VY] = "shrVY";
+        OP_NAMES[PredecodedEngine.SHL_VY] = "shlVY";
+        OP_NAMES[PredecodedEngine.OR_VF] = "orVF";
+        OP_NAMES[PredecodedEngine.AND_VF] = "andVF";
+        OP_NAMES[PredecodedEngine.XOR_VF] = "xorVF";
+        OP_NAMES[PredecodedEngine.JP_VX] = "jpVX";
+        OP_NAMES[PredecodedEngine.DRW_CLIP] = "drwClip";
+        OP_NAMES[PredecodedEngine.DRW_WAIT] = "drwWait";
+        OP_NAMES[PredecodedEngine.DRW_CLIP_WAIT] = "drwClipWait";
+        OP_NAMES[PredecodedEngine.ST_REGS_X] = "stRegsX";
+        OP_NAMES[PredecodedEngine.ST_REGS_KEEP] = "stRegsKeep";
+        OP_NAMES[PredecodedEngine.LD_REGS_X] = "ldRegsX";
+        OP_NAMES[PredecodedEngine.LD_REGS_KEEP] = "ldRegsKeep";
+    }
+
+    // bytecodes used by the generated code
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int SIPUSH = 0x11;
+    private static final int RETURN = 0xB1;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+
+    static boolean isSupported(int handler)
+    {
+        return handler < OP_NAMES.length && OP_NAMES[handler] != null;
+    }
+
+    // instructions that change pc in a non-sequential way, may modify code or wait for the display end a block
+    static boolean endsBlock(int handler)
+    {
+        switch(handler)
+        {
+            case PredecodedEngine.RET:
+            case PredecodedEngine.JP:
+            case PredecodedEngine.CALL:
+            case PredecodedEngine.SE_NN:
+            case PredecodedEngine.SNE_NN:
+            case PredecodedEngine.SE_VY:
+            case PredecodedEngine.SNE_VY:
+            case PredecodedEngine.JP_V0:
+            case PredecodedEngine.JP_VX:
+            case PredecodedEngine.SKP:
+            case PredecodedEngine.SKNP:
+            case PredecodedEngine.LD_VX_K:
+            case PredecodedEngine.LD_B:
+            case PredecodedEngine.ST_REGS:
+            case PredecodedEngine.ST_REGS_X:
+            case PredecodedEngine.ST_REGS_KEEP:
+            case PredecodedEngine.DRW_WAIT:
+            case PredecodedEngine.DRW_CLIP_WAIT:
+                return true;
+        }
+        return false;
+    }
+
+    // control flow Ops read c.pc, so it has to be stored before they are called
+    private static boolean needsPc(int handler)
+    {
+        switch(handler)
+        {
+            case PredecodedEngine.LD_B:
+            case PredecodedEngine.ST_REGS:
+            case PredecodedEngine.ST_REGS_X:
+            case PredecodedEngine.ST_REGS_KEEP:
+            case PredecodedEngine.DRW_WAIT:
+            case PredecodedEngine.DRW_CLIP_WAIT:
+                return false;                   // these just fall off the end of the block
+        }
+        return endsBlock(handler);
+    }
+
+    // 'decoded' holds PredecodedEngine.decode() values of 'length' consecutive instructions starting at 'start'
+    CompiledBlock compile(int start, int[] decoded, int length)
+    {
+        try {
+            MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(classFile(start, decoded, length), true);
+            return (CompiledBlock) lookup.findConstructor(lookup.lookupClass(), CONSTRUCTOR).invoke();
+        }catch(Throwable t) {
+            throw new IllegalStateException("Cannot compile block at 0x" + Integer.toHexString(start), t);
+        }
+    }
+
+    private byte[] classFile(int start, int[] decoded, int length) throws IOException
+    {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef("com/kgeleta/Block_" + Integer.toHexString(start));
+        int superClass = pool.classRef("java/lang/Object");
+        int blockInterface = pool.classRef("com/kgeleta/CompiledBlock");
+        int objectInit = pool.methodRef(superClass, "<init>", "()V");
+        int pcField = pool.fieldRef(pool.classRef(CHIP8), "pc", "I");
+        int ops = pool.classRef(OPS);
+        int tracer = Tracer.ENABLED ? pool.classRef(TRACER) : 0;
+        int initName = pool.utf8("<init>");
+        int initType = pool.utf8("()V");
+        int runName = pool.utf8("run");
+        int runType = pool.utf8("(L" + CHIP8 + ";)V");
+        int codeName = pool.utf8("Code");
+
+        // run(Chip8 c)
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        int address = start;
+        for(int i = 0; i < length; i++, address += 2)
+        {
+            int handler = decoded[i] >>> 16;
+            if(needsPc(handler))
+                setPc(code, pcField, address);
+
+            code.write(ALOAD_1);
+            pushShort(code, decoded[i] & 0x0FFF);
+            code.write(INVOKESTATIC);
+            writeShort(code, pool.methodRef(ops, OP_NAMES[handler], OP_DESCRIPTOR));
+
+            if(Tracer.ENABLED)
+            {
+                // Tracer.step(c, address, opcode)
+                code.write(ALOAD_1);
+                pushShort(code, address);
+                pushShort(code, decoded[i] & 0xFFFF);
+                code.write(INVOKESTATIC);
+                writeShort(code, pool.methodRef(tracer, "step", STEP_DESCRIPTOR));
+            }
+
+            if(i == length - 1 && !needsPc(handler))
+                setPc(code, pcField, address + 2);      // fell off the end of the block
+        }
+        code.write(RETURN);
+
+        // constructor
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        init.write(INVOKESPECIAL);
+        writeShort(init, objectInit);
+        init.write(RETURN);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + code.size() + pool.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);                      // minor version
+        out.writeShort(52);                     // major version - Java 8 is enough
+        pool.writeTo(out);
+        out.writeShort(0x0010 | 0x0020);        // ACC_FINAL | ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);                      // interfaces
+        out.writeShort(blockInterface);
+        out.writeShort(0);                      // fields
+        out.writeShort(2);                      // methods
+        writeMethod(out, initName, initType, codeName, 1, 1, init.toByteArray());
+        writeMethod(out, runName, runType, codeName, 3, 2, code.toByteArray());
+        out.writeShort(0);                      // attributes
+        return bytes.toByteArray();
+    }
+
+    private static void setPc(ByteArrayOutputStream code, int pcField, int address)
+    {
+        code.write(ALOAD_1);
+        pushShort(code, address);
+        code.write(PUTFIELD);
+        writeShort(code, pcField);
+    }
+
+    private static void pushShort(ByteArrayOutputStream code, int value)
+    {
+        code.write(SIPUSH);
+        writeShort(code, value);
+    }
+
+    private static void writeShort(ByteArrayOutputStream code, int value)
+    {
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException
+    {
+        out.writeShort(0x0001);                 // ACC_PUBLIC
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);                      // attributes: Code
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                      // exception table
+        out.writeShort(0);                      // code attributes
+    }
+
+    // constant pool with de-duplication of entries
+    private static class ConstantPool
+    {
+        private static final int UTF8 = 1;
+        private static final int CLASS = 7;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;                  // index 0 is not used
+
+        int utf8(String value) throws IOException
+        {
+            Integer index = indexes.get("U" + value);
+            if(index != null)
+                return index;
+            out.writeByte(UTF8);
+            out.writeUTF(value);
+            return add("U" + value);
+        }
+
+        int classRef(String name) throws IOException
+        {
+            return ref("C" + name, CLASS, utf8(name), -1);
+        }
+
+        int fieldRef(int owner, String name, String descriptor) throws IOException
+        {
+            return ref("F" + owner + "." + name + descriptor, FIELD_REF, owner, nameAndType(name, descriptor));
+        }
+
+        int methodRef(int owner, String name, String descriptor) throws IOException
+        {
+            return ref("M" + owner + "." + name + descriptor, METHOD_REF, owner, nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) throws IOException
+        {
+            return ref("N" + name + descriptor, NAME_AND_TYPE, utf8(name), utf8(descriptor));
+        }
+
+        // entry made of one or two constant pool indexes
+        private int ref(String key, int tag, int first, int second) throws IOException
+        {
+            Integer index = indexes.get(key);
+            if(index != null)
+                return index;
+            out.writeByte(tag);
+            out.writeShort(first);
+            if(second >= 0)
+                out.writeShort(second);
+            return add(key);
+        }
+
+        private int add(String key)
+        {
+            indexes.put(key, count);
+            return count++;
+        }
+
+        int size()
+        {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream target) throws IOException
+        {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+}
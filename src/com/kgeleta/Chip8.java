@@ -1,25 +1,30 @@
 package com.kgeleta;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Random;
 
 public class Chip8
 {
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+    public static final int ROM_START = 0x200;
+    public static final int MAX_ROM_SIZE = Memory.SIZE - ROM_START;
+
     private int opcode;     // 16 bit
-    private int[] memory;   // 4096 x 8 bit
-    private int[] V;        // registers 16 x 8 bit
-    private int I;          // additional register using in memory operations (16 bits)
-    private int pc;         // index of currently executing opcode in memory
+    final Memory memory;    // 4096 x 8 bit
+    int[] V;                // registers 16 x 8 bit
+    int I;                  // additional register using in memory operations (16 bits)
+    int pc;                 // index of currently executing opcode in memory
 
-    private int delayTimer; //timers
-    private int soundTimer;
+    int delayTimer;         //timers
+    int soundTimer;
 
-    private int[] stack;    //stack:
-    private int sp;         // stack pointer
+    int[] stack;            //stack:
+    int sp;                 // stack pointer
 
     private final int[] fontSet = {       //font set
             0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
@@ -39,109 +44,255 @@ public class Chip8
             0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
             0xF0, 0x80, 0xF0, 0x80, 0x80  // F
     };
-    private Random random;   // random for 0xCXNN opcode
+    Rng random;              // random for 0xCXNN opcode
+
+    long[] gfx;              // 64 x 32, one long per row, bit 63 is the leftmost pixel
+    int keys;                // 16 keys (0x0 - 0xF), bit 'k' set = key 'k' pressed
+    private int dirtyRows;                  // bit 'y' set = row 'y' changed since last takeDirtyRows()
+    final long[] executed = new long[16];   // instructions by first opcode digit, counted only if Metrics.ENABLED
+    long fastForwarded;                     // instructions of idle loop passes skipped, only if Metrics.ENABLED
+    private long frames;                    // frames since initialize(), counted when the timers tick
+
+    private Beeper beeper;                  // null = no sound
+    Tracer tracer;                          // null = not traced, can only be set if Tracer.ENABLED
 
-    public boolean[][] gfx;  // 64 x 32
-    public boolean[] key;    // 16 keys (0x0 - 0xF)
-    public boolean drawFlag = false;
+    private QuirkProfile quirks = QuirkProfile.CLASSIC;
+    boolean displayWait;                    // a DXYN waits for the display (QuirkProfile.waitsForDisplay()), engines
+                                            // execute nothing more until the timers tick
+    private EngineType engineType = EngineType.INTERPRETER;
+    private Engine engine = new Interpreter(this);
+    private Debugger debugger;              // null = not debugged
+    private Engine debugEngine;             // runs frames while the debugger is armed
+    private int frameCycle = -1;            // instructions of the frame the debugger stopped in, -1 = between frames
 
-    public int emulationSpeed = 1;
 
+    public Chip8()
+    {
+        this(new HeapMemory());
+    }
+
+    // e.g. memory allocated from a MemoryArena when many machines share one JVM
+    public Chip8(Memory memory)
+    {
+        this.memory = memory;
+    }
 
     public void initialize()
+    {
+        initialize(new Rng());
+    }
+
+    // same seed, ROM and keys on the same frames give exactly the same run
+    public void initialize(long seed)
+    {
+        initialize(new Rng(seed));
+    }
+
+    private void initialize(Rng random)
     {
         opcode = 0x0000;                        // reset opcode
-        memory = new int[4096];                 //clear memory
+        memory.clear();                         //clear memory
 
         for(int i = 0; i < 80; i++)             //loadFile font to memory
-            memory[i + 0x50] = fontSet[i] & 0x000000FF; // font is stored in memory from 0x50 to 0xA0
+            memory.write(i + 0x50, fontSet[i]); // font is stored in memory from 0x50 to 0xA0
 
         V = new int[16];                        //clear registers
         pc = 0x200 & 0x00000FFF;                // program counter start value = 0x200
-        gfx = new boolean[64][32];              // reset gfx
+        gfx = new long[HEIGHT];                 // reset gfx
+        dirtyRows = -1;
 
         delayTimer = 0x0;                       // reset timers
         soundTimer = 0x0;
 
         stack = new int[16];                    // clear stack
         sp = -1;                                // stack pointer initial value = -1
-        random = new Random();                  // initialize random
-        key = new boolean[16];                  // clear key
+        this.random = random;                   // initialize random
+        keys = 0;                               // clear keys
+        displayWait = false;
+        frameCycle = -1;
+        frames = 0;
+        engine.reset();                         // memory changed - drop anything cached by the engine
+    }
+
+    public EngineType getEngineType()
+    {
+        return engineType;
+    }
+
+    public void setEngine(EngineType type)
+    {
+        engineType = type;
+        engine = type.create(this);
+    }
+
+    public QuirkProfile getQuirks()
+    {
+        return quirks;
+    }
+
+    // dialect of the ROM, applies from the next instruction on
+    public void setQuirks(QuirkProfile quirks)
+    {
+        this.quirks = quirks;
+        engine.reset();                         // decoded code was specialized for the old profile
+    }
+
+    public void setBeeper(Beeper beeper)
+    {
+        this.beeper = beeper;
+    }
+
+    // from the next frame on 'debugger' may stop the machine, see Debugger; null = no debugger
+    public void setDebugger(Debugger debugger)
+    {
+        this.debugger = debugger;
+        debugEngine = debugger != null ? new DebugEngine(this, debugger) : null;
+        frameCycle = -1;
+    }
+
+    // every instruction executed from now on is recorded by 'tracer', null stops tracing
+    public void setTracer(Tracer tracer)
+    {
+        this.tracer = tracer;
     }
 
     public void loadFile(String filePath) throws IOException
     {
         // read binary file:
         Path path = Paths.get(filePath);
-        byte[] rom = Files.readAllBytes(path);
+        long size = Files.size(path);
+        if(size > MAX_ROM_SIZE)
+            throw new IOException(path.getFileName() + " has " + size + " bytes, a ROM can't be bigger than " + MAX_ROM_SIZE);
+        loadRom(Files.readAllBytes(path));
+    }
 
+    public void loadRom(byte[] rom)
+    {
+        checkRomSize(rom.length);
         // load ROM to memory:
-        for(int i = 0; i < rom.length; i++)
-            memory[i + 0x200] = rom[i] & 0x000000FF;    // ROM starts at 0x200
+        memory.load(ROM_START, rom, 0, rom.length);
+        engine.reset();
+    }
+
+    // same for the bytes between position and limit of 'rom', e.g. a slice of a RomLibrary mapping
+    public void loadRom(ByteBuffer rom)
+    {
+        checkRomSize(rom.remaining());
+        memory.load(ROM_START, rom);
+        engine.reset();
+    }
+
+    private static void checkRomSize(int size)
+    {
+        if(size > MAX_ROM_SIZE)
+            throw new IllegalArgumentException("ROM has " + size + " bytes, it can't be bigger than " + MAX_ROM_SIZE);
+    }
+
+    // executes 'cycles' instructions and then ticks timers once, i.e. one 1/60 s frame
+    public void runFrame(int cycles)
+    {
+        if(debugger != null)
+        {
+            debugFrame(cycles);
+            return;
+        }
+        engine.execute(cycles);
+        tickTimers();
+    }
+
+    // a frame the debugger may stop in the middle of, the next call then runs the rest of it
+    private void debugFrame(int cycles)
+    {
+        int done = Math.max(frameCycle, 0);
+        done += (debugger.isArmed() ? debugEngine : engine).execute(cycles - done);
+        if(done < cycles)
+        {
+            frameCycle = done;
+            return;
+        }
+        frameCycle = -1;
+        tickTimers();
+    }
+
+    // frames run since initialize(), e.g. to number captured frames; keeps counting on after SaveState.read()
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    // true if a debugger stopped the machine before the current frame ended
+    public boolean isInFrame()
+    {
+        return frameCycle >= 0;
     }
 
     public void cycle()
     {
-        drawFlag = false;
+        engine.execute(1);
+    }
+
+    // reference implementation of a single instruction, used by the INTERPRETER engine;
+    // returns the length of the idle loop the instruction closed (see idleLoopLength()), 0 if none.
+    // Quirks are resolved while decoding, the profile maps the opcode to the handler of its variant
+    // (see QuirkProfile.handler()), so no instruction checks them while it executes.
+    int interpret()
+    {
         //fetch opcode:
-        opcode = ((memory[pc] << 8) | (memory[pc + 1] & 0x000000FF)) & 0x0000FFFF;
+        opcode = fetch(pc);
+        if(Metrics.ENABLED)
+            executed[opcode >>> 12]++;
         //decode and execute:
-        switch(opcode & 0xF000)
+        switch(quirks.handler(opcode))
         {
-            case 0x0000:
-                switch(opcode & 0x000F)
-                {
-                    case 0x0000:                             // 0x0000 - clear display
-                        for(boolean[] row : gfx)
-                            Arrays.fill(row, false);    // set all elements to false
-                        pc += 2;
-                        drawFlag = true;
-                        break;
-                    case 0x000E:                            // 0x000E - return from subroutine
-                        pc = stack[sp];                     // get pc from stack
-                        sp--;
-                        pc += 2;                            // next opcode!!!!!!
-                        break;
-                }
+            case PredecodedEngine.CLS:                      // 0x00E0 - clear display
+                clearScreen();
+                pc += 2;
                 break;
 
-            case 0x1000:                                    // 0x1NNN - jump to NNN
-                pc = opcode & 0x0FFF;
+            case PredecodedEngine.RET:                      // 0x00EE - return from subroutine
+                pc = stack[sp];                             // get pc from stack
+                sp--;
+                pc += 2;                                    // next opcode!!!!!!
                 break;
 
-            case 0x2000:                                    // 0x2NNN - call subroutine at NNN
+            case PredecodedEngine.JP:                       // 0x1NNN - jump to NNN
+                int loop = idleLoopLength(pc, opcode & 0x0FFF);
+                pc = opcode & 0x0FFF;
+                return loop;
+
+            case PredecodedEngine.CALL:                     // 0x2NNN - call subroutine at NNN
                 sp++;
                 stack[sp] = pc;                             // save current pc value on stack
                 pc = opcode & 0x0FFF;                       // jump to address NNN
                 break;
 
-            case 0x3000:                                    // 0x3XNN skip next instruction if V[X] == NN
+            case PredecodedEngine.SE_NN:                    // 0x3XNN skip next instruction if V[X] == NN
                 if(V[(opcode & 0x0F00) >> 8] == (opcode & 0x00FF))
                     pc += 4;                                // skip next instruction
                 else
                     pc += 2;                                // don't skip
                 break;
 
-            case 0x4000:                                    // 0x4XNN skip next instruction if V[X] != NN
+            case PredecodedEngine.SNE_NN:                   // 0x4XNN skip next instruction if V[X] != NN
                 if(V[(opcode & 0x0F00) >> 8] != (opcode & 0x00FF))
                     pc += 4;                                // skip next
                 else
                     pc += 2;                                // don't skip
                 break;
 
-            case 0x5000:                                    // 0x5XY0 - skip next if V[X] == V[Y]
+            case PredecodedEngine.SE_VY:                    // 0x5XY0 - skip next if V[X] == V[Y]
                 if(V[(opcode & 0x0F00) >> 8] == V[(opcode & 0x00F0) >> 4])
                     pc += 4;                                // skip
                 else
                     pc += 2;                                // don't
                 break;
 
-            case 0x6000:                                    // 0x6XNN - set register V[X] to value NN
+            case PredecodedEngine.LD_NN:                    // 0x6XNN - set register V[X] to value NN
                 V[(opcode & 0x0F00) >> 8] = (opcode & 0x000000FF);
                 pc += 2;
                 break;
 
-            case 0x7000:                                    // 0x7XNN - add value NN to register V[X]
+            case PredecodedEngine.ADD_NN:                   // 0x7XNN - add value NN to register V[X]
                 // this one is a little tricky because Java has no unsigned type. You need to check and
                 // simulate overflow by yourself - if value is bigger than 255 it starts counting from 0
                 // for example 250 + 17 => 11 (250 + 17 - 256)
@@ -152,227 +303,454 @@ public class Chip8
                 pc += 2;
                 break;
 
-            case 0x8000:
-                switch(opcode & 0x000F)
+            case PredecodedEngine.LD_VY:                    // 0x8XY0 - set register V[X] to value V[Y]
+                V[(opcode & 0x0F00) >> 8] = V[(opcode & 0x00F0) >> 4];
+                pc += 2;
+                break;
+
+            case PredecodedEngine.OR:                       // 0x8XY1 - set register V[X] to V[X] OR V[Y]
+                V[(opcode & 0x0F00) >> 8] |= (V[(opcode & 0x00F0) >> 4]);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.AND:                      // 0x8XY2 - set register V[X] to V[X] AND V[Y]
+                V[(opcode & 0x0F00) >> 8] &= (V[(opcode & 0x00F0) >> 4]);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.XOR:                      // 0x8XY2 - set register V[X] to V[X] XOR V[Y]
+                V[(opcode & 0x0F00) >> 8] ^= (V[(opcode & 0x00F0) >> 4]);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.ADD_VY:                   // 0x8XY4 - V[X] += V[Y]
+                if(V[(opcode & 0x00F0) >> 4] > (0xFF - V[(opcode & 0x0F00) >> 8]))
+                {
+                    V[0xF] = 1;                             // if there is a carry - set flag to 1
+                    V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x00F0) >> 4] + V[(opcode & 0x0F00) >> 8] - 256);
+                }
+                else {
+                    V[0xF] = 0;                             // no carry
+                    V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x00F0) >> 4] + V[(opcode & 0x0F00) >> 8]);
+                }
+                pc += 2;
+                break;
+
+            case PredecodedEngine.SUB:                      // 0x8XY5 - V[X] -= V[Y]
+                if(V[(opcode & 0x0F00) >> 8] < V[(opcode & 0x00F0) >> 4])
+                {
+                    V[0xF] = 0;                             // if there is a borrow - set flag to 0
+                    V[(opcode & 0x0F00) >> 8] = (256 - (V[(opcode & 0x00F0) >> 4] - V[(opcode & 0x0F00) >> 8]));
+                }
+                else {
+                    V[0xF] = 1;                             // no borrow
+                    V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x0F00) >> 8] - V[(opcode & 0x00F0) >> 4]);
+                }
+                pc += 2;
+                break;
+
+            case PredecodedEngine.SHR:                      // 0x8XY6 - stores least significant bit of V[X] in V[F]
+                V[0xF] = (V[(opcode & 0x0F00) >> 8] & 0x1);
+                V[(opcode & 0x0F00) >> 8] >>= 1;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.SUBN:                     // 0x8XY7 - V[X] = V[Y] - V[X]
+                if(V[(opcode & 0x0F00) >> 8] > V[(opcode & 0x00F0) >> 4])
+                {
+                    V[0xF] = 0;                             // borrow - set flag to 0
+                    V[(opcode & 0x0F00) >> 8] = (256 - (V[(opcode & 0x0F00) >> 8] - V[(opcode & 0x00F0) >> 4]));
+                }
+                else
                 {
-                    case 0x0000:                            // 0x8XY0 - set register V[X] to value V[Y]
-                        V[(opcode & 0x0F00) >> 8] = V[(opcode & 0x00F0) >> 4];
-                        pc += 2;
-                        break;
-
-                    case 0x0001:                            // 0x8XY1 - set register V[X] to V[X] OR V[Y]
-                        V[(opcode & 0x0F00) >> 8] |= (V[(opcode & 0x00F0) >> 4]);
-                        pc += 2;
-                        break;
-
-                    case 0x0002:                            // 0x8XY2 - set register V[X] to V[X] AND V[Y]
-                        V[(opcode & 0x0F00) >> 8] &= (V[(opcode & 0x00F0) >> 4]);
-                        pc += 2;
-                        break;
-
-                    case 0x0003:                            // 0x8XY2 - set register V[X] to V[X] XOR V[Y]
-                        V[(opcode & 0x0F00) >> 8] ^= (V[(opcode & 0x00F0) >> 4]);
-                        pc += 2;
-                        break;
-
-                    case 0x0004:                            // 0x8XY4 - V[X] += V[Y]
-                        if(V[(opcode & 0x00F0) >> 4] > (0xFF - V[(opcode & 0x0F00) >> 8]))
-                        {
-                            V[0xF] = 1;                     // if there is a carry - set flag to 1
-                            V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x00F0) >> 4] + V[(opcode & 0x0F00) >> 8] - 256);
-                        }
-                        else {
-                            V[0xF] = 0;                     // no carry
-                            V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x00F0) >> 4] + V[(opcode & 0x0F00) >> 8]);
-                        }
-                        pc += 2;
-                        break;
-
-                    case 0x0005:                            // 0x8XY5 - V[X] -= V[Y]
-                        if(V[(opcode & 0x0F00) >> 8] < V[(opcode & 0x00F0) >> 4])
-                        {
-                            V[0xF] = 0;                     // if there is a borrow - set flag to 0
-                            V[(opcode & 0x0F00) >> 8] = (256 - (V[(opcode & 0x00F0) >> 4] - V[(opcode & 0x0F00) >> 8]));
-                        }
-                        else {
-                            V[0xF] = 1;                     // no borrow
-                            V[(opcode & 0x0F00) >> 8] = (V[(opcode & 0x0F00) >> 8] - V[(opcode & 0x00F0) >> 4]);
-                        }
-                        pc += 2;
-                        break;
-
-                    case 0x0006:                            // 0x8XY6 - stores least significant bit of V[X] in V[F]
-                        V[0xF] = (V[(opcode & 0x0F00) >> 8] & 0x1);
-                        V[(opcode & 0x0F00) >> 8] >>= 1;
-                        pc += 2;
-                        break;
-
-                    case 0x0007:                            // 0x8XY7 - V[X] = V[Y] - V[X]
-                        if(V[(opcode & 0x0F00) >> 8] > V[(opcode & 0x00F0) >> 4])
-                        {
-                            V[0xF] = 0;                     // borrow - set flag to 0
-                            V[(opcode & 0x0F00) >> 8] = (256 - (V[(opcode & 0x0F00) >> 8] - V[(opcode & 0x00F0) >> 4]));
-                        }
-                        else
-                        {
-                            V[0xF] = 1;                     // no borrow
-                            V[(opcode & 0x0F00) >> 8] = ((V[(opcode & 0x00F0) >> 4] - V[(opcode & 0x0F00) >> 8]));
-                        }
-                        pc += 2;
-                        break;
-
-                    case 0x000E:                            // 0x8XYE - stores most significant bit of V[X] in V[F]
-                        V[0xF] = (V[(opcode & 0x0F00) >> 8] >> 7);
-                        V[(opcode & 0x0F00) >> 8] <<= 1;
-                        pc += 2;
-                        break;
+                    V[0xF] = 1;                             // no borrow
+                    V[(opcode & 0x0F00) >> 8] = ((V[(opcode & 0x00F0) >> 4] - V[(opcode & 0x0F00) >> 8]));
                 }
+                pc += 2;
+                break;
+
+            case PredecodedEngine.SHL:                      // 0x8XYE - stores most significant bit of V[X] in V[F]
+                V[0xF] = (V[(opcode & 0x0F00) >> 8] >> 7);
+                V[(opcode & 0x0F00) >> 8] <<= 1;
+                pc += 2;
                 break;
 
-            case 0x9000:                                    // 0x9XY0 - skip next if V[X] not equals V[Y]
+            case PredecodedEngine.SNE_VY:                   // 0x9XY0 - skip next if V[X] not equals V[Y]
                 if(V[(opcode & 0x00F0) >> 4] != V[(opcode & 0x0F00) >> 8])
                     pc += 4;
                 else
                     pc += 2;
                 break;
 
-            case 0xA000:                                    // 0xANNN - register I = NNN
+            case PredecodedEngine.LD_I:                     // 0xANNN - register I = NNN
                 I = (opcode & 0x00000FFF);
                 pc += 2;
                 break;
 
-            case 0xB000:                                    // 0xBNNN - jump to address V[0] + NNN
+            case PredecodedEngine.JP_V0:                    // 0xBNNN - jump to address V[0] + NNN
                 pc = V[0x0] + (opcode & 0x0FFF);
                 break;
 
-            case 0xC000:                                    // 0xCXNN - V[X] = random() & NN
+            case PredecodedEngine.RND:                      // 0xCXNN - V[X] = random() & NN
                 V[(opcode & 0x0F00) >> 8] = (random.nextInt(256) & (opcode & 0x00FF));
                 pc += 2;
                 break;
 
-            case 0xD000:                                    // 0xDXYN - display
-                int x0 = V[(opcode & 0x0F00) >> 8] & 0x000000FF;    // x0 = X
-                int y0 = V[(opcode & 0x00F0) >> 4] & 0x000000FF;    // y0 = Y
-                int height = (opcode & 0x0000000F);                 // height = N
-                int spriteRow;
+            case PredecodedEngine.DRW:                      // 0xDXYN - display
+                drawSprite(V[(opcode & 0x0F00) >> 8], V[(opcode & 0x00F0) >> 4], opcode & 0x0000000F);
+                pc += 2;
+                break;
 
-                V[0xF] = 0x0;                               // clear flag
-                for(int y = 0; y < height; y++)
-                {
-                    spriteRow = (memory[I + y] & 0x000000FF);
-                    for(int x = 0; x < 8; x++)
-                    {
-                        if((spriteRow & (0x00000080 >> x)) != 0)
-                        {
-                            if(gfx[(x+x0) % 64][(y+y0) % 32])
-                                V[0xF] = 1;
-                            gfx[(x+x0) % 64][(y+y0) % 32] = !gfx[(x+x0) % 64][(y+y0) % 32];
-                        }
-                    }
-                }
-                drawFlag = true;
+            case PredecodedEngine.SKP:                      // 0xEX9E - skip next if key 'V[X]' is pressed
+                if(isKeyPressed(V[(opcode & 0x0F00) >> 8]))
+                    pc += 4;
+                else
+                    pc += 2;
+                break;
+
+            case PredecodedEngine.SKNP:                     // 0xEXA1 - skip next if key 'V[X]' is not pressed
+                if(!isKeyPressed(V[(opcode & 0x0F00) >> 8]))
+                    pc += 4;
+                else
+                    pc += 2;
+                break;
+
+            case PredecodedEngine.LD_VX_DT:                 // 0xFX07 - V[X] = delayTimer
+                V[(opcode & 0x0F00) >> 8] = delayTimer & 0x000000FF;
                 pc += 2;
                 break;
 
-            case 0xE000:
-                switch(opcode & 0x00FF)
+            case PredecodedEngine.LD_VX_K:                  // 0xFX0A - wait for any key to be pressed
+                int pressed = pressedKey();
+                if(pressed >= 0)
                 {
-                    case 0x009E:                            // 0xEX9E - skip next if key 'V[X]' is pressed
-                        if(key[V[(opcode & 0x0F00) >> 8]])
-                            pc += 4;
-                        else
-                            pc += 2;
-                        break;
-
-                    case 0x00A1:                            // 0xEXA1 - skip next if key 'V[X]' is not pressed
-                        if(!key[V[(opcode & 0x0F00) >> 8]])
-                            pc += 4;
-                        else
-                            pc += 2;
-                        break;
+                    V[(opcode & 0x0F00) >> 8] = pressed;    // V[X] = i
+                    pc += 2;
                 }
+                else
+                    return 1;                               // keys can't change before the frame ends
                 break;
 
-            case 0xF000:
-                switch(opcode & 0x00FF)
-                {
-                    case 0x0007:                            // 0xFX07 - V[X] = delayTimer
-                        V[(opcode & 0x0F00) >> 8] = delayTimer & 0x000000FF;
-                        pc += 2;
-                        break;
-
-                    case 0x000A:                            // 0xFX0A - wait for any key to be pressed
-                        for(int i = 0; i < key.length; i++)                 // check all the keys
-                            if(key[i])                                      // if key 'i' is pressed
-                            {
-                                V[(opcode & 0x0F00) >> 8] = i & 0x000000FF; // V[X] = i
-                                pc += 2;
-                                break;
-                            }
-                        break;
-
-                    case 0x0015:                            // 0xFX15 - delayTimer = V[X]
-                        delayTimer = V[(opcode & 0x0F00) >> 8] & 0x000000FF;
-                        pc += 2;
-                        break;
-
-                    case 0x0018:                            // 0xFX18 - soundTimer = V[X]
-                        soundTimer = V[(opcode & 0x0F00) >> 8] & 0x000000FF;
-                        pc += 2;
-                        break;
-
-                    case 0x001E:                            // 0xFX1E - I += V[X]
-                        if(I + V[(opcode & 0x0F00) >> 8] > 0xFFF)
-                            V[0xF] = 1;
-                        else
-                            V[0xF] = 0;
-                        I += (V[(opcode & 0x0F00) >> 8]);
-                        pc += 2;
-                        break;
-
-                    case 0x0029:                            // 0xFX29 - set I register to address of font sprite of 'V[X]' character
-                        I = (V[(opcode & 0x0F00) >> 8] * 5 + 0x50);
-                        pc += 2;
-                        break;
-
-                    case 0x0033:                            // 0xFX33 - stores binary-coded decimal representation of V[X]
-                        memory[I] = (V[(opcode & 0x0F00) >> 8] / 100) & 0x000000FF;
-                        memory[I + 1] = ((V[(opcode & 0x0F00) >> 8] / 10) % 10) & 0x000000FF;
-                        memory[I + 2] = ((V[(opcode & 0x0F00) >> 8] % 100) % 10) & 0x000000FF;
-                        pc += 2;
-                        break;
-
-                    case 0x0055:                            // 0xFX55 - stores registers V[0] to V[X] in memory
-                        for(int i = 0; i <= ((opcode & 0x0F00) >> 8); i++)
-                            memory[I + i] = V[i];
-                        pc += 2;
-                        I += (((opcode & 0x0F00) >> 8) + 1);
-                        break;
-
-                    case 0x0065:                            // 0xFX65 - stores memory in registers V[0] to V[X]
-                        for(int i = 0; i <= ((opcode & 0x0F00) >> 8); i++)
-                            V[i] = (memory[I + i] & 0x00FF);
-                        pc += 2;
-                        I += (((opcode & 0x0F00) >> 8) + 1);
-                        break;
-                }
+            case PredecodedEngine.LD_DT:                    // 0xFX15 - delayTimer = V[X]
+                delayTimer = V[(opcode & 0x0F00) >> 8] & 0x000000FF;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_ST:                    // 0xFX18 - soundTimer = V[X]
+                soundTimer = V[(opcode & 0x0F00) >> 8] & 0x000000FF;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.ADD_I:                    // 0xFX1E - I += V[X]
+                if(I + V[(opcode & 0x0F00) >> 8] > 0xFFF)
+                    V[0xF] = 1;
+                else
+                    V[0xF] = 0;
+                I += (V[(opcode & 0x0F00) >> 8]);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_F:                     // 0xFX29 - set I register to address of font sprite of 'V[X]' character
+                I = (V[(opcode & 0x0F00) >> 8] * 5 + 0x50);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_B:                     // 0xFX33 - stores binary-coded decimal representation of V[X]
+                storeBcd(V[(opcode & 0x0F00) >> 8]);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.ST_REGS:                  // 0xFX55 - stores registers V[0] to V[X] in memory
+                storeRegisters((opcode & 0x0F00) >> 8);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_REGS:                  // 0xFX65 - stores memory in registers V[0] to V[X]
+                loadRegisters((opcode & 0x0F00) >> 8);
+                pc += 2;
+                break;
+
+            // variants for QuirkProfile:
+
+            case PredecodedEngine.SHR_VY:                   // 0x8XY6 - V[X] = V[Y] >> 1
+                Ops.shrVY(this, opcode & 0x0FFF);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.SHL_VY:                   // 0x8XYE - V[X] = V[Y] << 1
+                Ops.shlVY(this, opcode & 0x0FFF);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.OR_VF:                    // 0x8XY1 resetting V[F]
+                V[(opcode & 0x0F00) >> 8] |= (V[(opcode & 0x00F0) >> 4]);
+                V[0xF] = 0;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.AND_VF:                   // 0x8XY2 resetting V[F]
+                V[(opcode & 0x0F00) >> 8] &= (V[(opcode & 0x00F0) >> 4]);
+                V[0xF] = 0;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.XOR_VF:                   // 0x8XY3 resetting V[F]
+                V[(opcode & 0x0F00) >> 8] ^= (V[(opcode & 0x00F0) >> 4]);
+                V[0xF] = 0;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.JP_VX:                    // 0xBXNN - jump to address V[X] + XNN
+                pc = V[(opcode & 0x0F00) >> 8] + (opcode & 0x0FFF);
+                break;
+
+            case PredecodedEngine.DRW_CLIP:                 // 0xDXYN clipping at the edges
+                drawSpriteClipped(V[(opcode & 0x0F00) >> 8], V[(opcode & 0x00F0) >> 4], opcode & 0x0000000F);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.DRW_WAIT:                 // 0xDXYN waiting for the display
+                drawSprite(V[(opcode & 0x0F00) >> 8], V[(opcode & 0x00F0) >> 4], opcode & 0x0000000F);
+                displayWait = true;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.DRW_CLIP_WAIT:
+                drawSpriteClipped(V[(opcode & 0x0F00) >> 8], V[(opcode & 0x00F0) >> 4], opcode & 0x0000000F);
+                displayWait = true;
+                pc += 2;
+                break;
+
+            case PredecodedEngine.ST_REGS_X:                // 0xFX55 adding X to I
+                storeRegisters((opcode & 0x0F00) >> 8, (opcode & 0x0F00) >> 8);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.ST_REGS_KEEP:             // 0xFX55 leaving I alone
+                storeRegisters((opcode & 0x0F00) >> 8, 0);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_REGS_X:                // 0xFX65 adding X to I
+                loadRegisters((opcode & 0x0F00) >> 8, (opcode & 0x0F00) >> 8);
+                pc += 2;
+                break;
+
+            case PredecodedEngine.LD_REGS_KEEP:             // 0xFX65 leaving I alone
+                loadRegisters((opcode & 0x0F00) >> 8, 0);
+                pc += 2;
+                break;
+
+            default:                                        // unknown opcode - pc does not move
                 break;
         }
+        return 0;
+    }
 
-        // timers
-        if(delayTimer > 0)
-            delayTimer--;
-        if(soundTimer > 0)
+    // read-only access to the screen:
+
+    public long getRow(int y)
+    {
+        return gfx[y];
+    }
+
+    public boolean isPixelOn(int x, int y)
+    {
+        return (gfx[y] << x) < 0;               // bit 63 - x
+    }
+
+    // copies all 32 rows into 'rows'
+    public void copyScreen(long[] rows)
+    {
+        System.arraycopy(gfx, 0, rows, 0, HEIGHT);
+    }
+
+    // 64 bit hash of the screen contents, equal screens have equal hashes
+    public long getScreenHash()
+    {
+        long hash = 0;
+        for(long row : gfx)
+            hash = Long.rotateLeft((hash ^ row) * 0x9E3779B97F4A7C15L, 31);
+        return hash;
+    }
+
+    // keys, only the thread running the machine may set them (see KeyQueue):
+
+    // pressed keys, bit 'k' = key 'k'
+    public int getKeys()
+    {
+        return keys;
+    }
+
+    public void setKeys(int keys)
+    {
+        this.keys = keys & 0xFFFF;
+    }
+
+    // everything cached from the previous state is stale after SaveState.read()
+    void stateRestored()
+    {
+        engine.reset();
+        displayWait = false;
+        frameCycle = -1;
+        dirtyRows = -1;
+    }
+
+    // rows changed since the previous call, one bit per row
+    public int takeDirtyRows()
+    {
+        int rows = dirtyRows;
+        dirtyRows = 0;
+        return rows;
+    }
+
+    // operations shared by all engines:
+
+    // 16 bit opcode at 'address', reads wrap around at the end of memory
+    int fetch(int address)
+    {
+        return (memory.read(address) << 8) | memory.read(address + 1);
+    }
+
+    // Number of instructions in the loop that the jump at 'address' to 'target' closes, if every pass
+    // through the loop does exactly the same until the timers tick, 0 otherwise. Engines skip all
+    // whole passes left in the frame, which gives the same result as executing them.
+    //   1NNN to itself                                     1 instruction
+    //   FX07, 3XNN / 4XNN, 1NNN back to FX07 (polling DT)  3 instructions, if the jump will be taken again
+    int idleLoopLength(int address, int target)
+    {
+        if(target == address)
+            return 1;
+        if(target != address - 4)
+            return 0;
+
+        int read = fetch(target);
+        int test = fetch(target + 2);
+        int x = (read >>> 8) & 0xF;
+        if((read & 0xF0FF) != 0xF007 || ((test >>> 8) & 0xF) != x || V[x] != delayTimer)
+            return 0;
+        if((test & 0xF000) == 0x3000)
+            return V[x] != (test & 0xFF) ? 3 : 0;       // skips the jump once V[X] == NN
+        if((test & 0xF000) == 0x4000)
+            return V[x] == (test & 0xFF) ? 3 : 0;       // skips the jump once V[X] != NN
+        return 0;
+    }
+
+    void clearScreen()
+    {
+        Arrays.fill(gfx, 0L);
+        dirtyRows = -1;                         // all 32 rows
+    }
+
+    // every sprite row is placed in the top byte of a long and rotated to X, so pixels past the
+    // right edge wrap around to the left; one AND finds collisions and one XOR draws the row
+    void drawSprite(int vx, int vy, int height)
+    {
+        int x0 = vx & 0x3F;                     // x0 = X % 64
+        int y0 = vy & 0x1F;                     // y0 = Y % 32
+        int collision = 0;
+
+        for(int y = 0; y < height; y++)
         {
-            soundTimer--;
-            // TODO: make sound!
+            long spriteRow = Long.rotateRight((long) memory.read(I + y) << 56, x0);
+            int row = (y + y0) & 0x1F;
+            if((gfx[row] & spriteRow) != 0)
+                collision = 1;
+            gfx[row] ^= spriteRow;
+            dirtyRows |= 1 << row;
+        }
+        V[0xF] = collision;
+    }
+
+    // same, but pixels past the right and bottom edges are dropped instead of wrapping around
+    void drawSpriteClipped(int vx, int vy, int height)
+    {
+        int x0 = vx & 0x3F;
+        int y0 = vy & 0x1F;
+        int collision = 0;
+
+        for(int y = 0; y < height && y + y0 < HEIGHT; y++)
+        {
+            long spriteRow = ((long) memory.read(I + y) << 56) >>> x0;
+            int row = y + y0;
+            if((gfx[row] & spriteRow) != 0)
+                collision = 1;
+            gfx[row] ^= spriteRow;
+            dirtyRows |= 1 << row;
         }
+        V[0xF] = collision;
+    }
+
+    // true if running more frames can't change anything before the keys change: the program waits
+    // for a key (FX0A) or jumps to itself, and both timers have run out
+    public boolean isIdle()
+    {
+        if(delayTimer != 0 || soundTimer != 0)
+            return false;
+        int opcode = fetch(pc);
+        if((opcode & 0xF0FF) == 0xF00A)
+            return keys == 0;
+        return pc < Memory.SIZE && opcode == (0x1000 | pc);
+    }
+
+    // only the low 4 bits of V[X] select a key, there are no keys above F
+    boolean isKeyPressed(int key)
+    {
+        return (keys & (1 << (key & 0xF))) != 0;
+    }
+
+    // first pressed key or -1 if there is none
+    int pressedKey()
+    {
+        return keys == 0 ? -1 : Integer.numberOfTrailingZeros(keys);
+    }
+
+    void storeBcd(int value)
+    {
+        memory.write(I, value / 100);
+        memory.write(I + 1, (value / 10) % 10);
+        memory.write(I + 2, (value % 100) % 10);
+        engine.invalidate(I, 3);                // program may have written over its own code
+    }
+
+    void storeRegisters(int x)
+    {
+        storeRegisters(x, x + 1);
+    }
 
-        // slow down
-        try {
-            Thread.sleep(emulationSpeed);
-        }catch(InterruptedException ie){}
+    // V[0] to V[X] to memory at I, then I += 'increment' (see QuirkProfile.IndexIncrement)
+    void storeRegisters(int x, int increment)
+    {
+        for(int i = 0; i <= x; i++)
+            memory.write(I + i, V[i]);
+        engine.invalidate(I, x + 1);
+        I += increment;
+    }
+
+    void loadRegisters(int x)
+    {
+        loadRegisters(x, x + 1);
     }
 
+    void loadRegisters(int x, int increment)
+    {
+        for(int i = 0; i <= x; i++)
+            V[i] = memory.read(I + i);
+        I += increment;
+    }
 
+    // timers count down at 60 Hz, independent of how many instructions run per frame
+    public void tickTimers()
+    {
+        if(beeper != null)
+            beeper.frame(soundTimer > 0);       // buzzer sounds while the sound timer runs
+        if(delayTimer > 0)
+            delayTimer--;
+        if(soundTimer > 0)
+            soundTimer--;
+        displayWait = false;                    // the next frame starts
+        frames++;
+        if(Tracer.ENABLED && tracer != null)
+            tracer.frameEnded();
+    }
 }
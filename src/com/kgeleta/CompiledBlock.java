@@ -0,0 +1,8 @@
+package com.kgeleta;
+
+// Straight-line piece of CHIP-8 code translated to JVM bytecode by BlockCompiler.
+// run() executes all instructions of the block and leaves pc at the next instruction to execute.
+interface CompiledBlock
+{
+    void run(Chip8 c);
+}
@@ -0,0 +1,39 @@
+package com.kgeleta;
+
+// Runs a frame while a Debugger is armed: the reference interpreter, asking the debugger before every
+// instruction whether to stop. Idle loops are executed instead of skipped, so that no instruction a
+// breakpoint could be on goes unseen. Chip8 switches between this and the normal engine per frame.
+class DebugEngine implements Engine
+{
+    private final Chip8 chip8;
+    private final Debugger debugger;
+
+    DebugEngine(Chip8 chip8, Debugger debugger)
+    {
+        this.chip8 = chip8;
+        this.debugger = debugger;
+    }
+
+    // stops early when the debugger says so
+    @Override
+    public int execute(int budget)
+    {
+        for(int i = 0; i < budget && !chip8.displayWait; i++)     // a DXYN waiting for the display ends the frame
+        {
+            if(debugger.shouldStop(chip8))
+                return i;
+            int pc = chip8.pc;
+            int opcode = Tracer.ENABLED && chip8.tracer != null ? chip8.fetch(pc) : 0;
+            chip8.interpret();                  // writes invalidate the normal engine's caches
+            if(Tracer.ENABLED && chip8.tracer != null)
+                chip8.tracer.record(chip8, pc, opcode);
+        }
+        return budget;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {}
+
+    @Override
+    public void reset() {}
+}
@@ -0,0 +1,355 @@
+package com.kgeleta;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// Breakpoints, watchpoints and stepping for one Chip8 (see Chip8.setDebugger()). Breakpoints live in a
+// flag table with one byte per address. As long as nothing is set and no step is pending the debugger
+// is not armed and the machine runs on its normal engine, so an attached debugger costs nothing. Armed,
+// the machine switches to DebugEngine, which asks shouldStop() before every instruction.
+//
+// The machine stops before the instruction that hits a breakpoint, or that reads (DXYN, FX65) or writes
+// (FX33, FX55) a watched byte. Stepping counts subroutine depth by the stack pointer: step over runs
+// until a 2NNN returns, run to return until the current subroutine's 00EE has been executed.
+//
+// Breakpoints and commands come from any thread, typically the Swing event thread; they take effect at
+// the next frame of the machine, or right away when it is stopped. The thread running the machine is
+// unparked by every command, like KeyQueue does.
+public class Debugger
+{
+    static final int BREAK = 1;                 // flags per address
+    static final int READ = 2;
+    static final int WRITE = 4;
+
+    private static final int NEVER = Integer.MIN_VALUE;     // stopDepth: run until a breakpoint
+    private static final int ALWAYS = Integer.MAX_VALUE;    // stopDepth: stop before the next instruction
+
+    private final byte[] flags = new byte[Memory.SIZE];
+    private final Condition[] conditions = new Condition[Memory.SIZE];     // null = unconditional breakpoint
+    private volatile int stopDepth = NEVER;     // stop before an instruction executed at stack depth <= this
+    private volatile boolean resuming;          // the instruction the machine stopped at runs without checks
+    private volatile boolean armed;
+    private volatile boolean stopped;
+    private volatile String stopReason = "";
+    private volatile Snapshot snapshot;         // machine state when it stopped last, null = never stopped
+    private volatile Runnable listener;         // called by the machine thread after it stopped
+    private volatile Thread machineThread;
+
+    public void setMachineThread(Thread machineThread)
+    {
+        this.machineThread = machineThread;
+    }
+
+    public void setListener(Runnable listener)
+    {
+        this.listener = listener;
+    }
+
+    // breakpoints and watchpoints:
+
+    // stops before the instruction at 'address' is executed, if 'condition' holds (null = always)
+    public synchronized void setBreakpoint(int address, Condition condition)
+    {
+        flags[address & Memory.MASK] |= BREAK;
+        conditions[address & Memory.MASK] = condition;
+        update();
+    }
+
+    // stops before any instruction that reads or writes a byte from 'from' to 'to' (inclusive)
+    public synchronized void setWatchpoint(int from, int to, boolean read, boolean write)
+    {
+        for(int address = from; address <= to; address++)
+            flags[address & Memory.MASK] |= (read ? READ : 0) | (write ? WRITE : 0);
+        update();
+    }
+
+    public synchronized void removeBreakpoint(int address)
+    {
+        flags[address & Memory.MASK] &= ~BREAK;
+        conditions[address & Memory.MASK] = null;
+        update();
+    }
+
+    // stops watching the bytes from 'from' to 'to' (inclusive)
+    public synchronized void removeWatchpoint(int from, int to)
+    {
+        for(int address = from; address <= to; address++)
+            flags[address & Memory.MASK] &= BREAK;
+        update();
+    }
+
+    public synchronized void clearAll()
+    {
+        Arrays.fill(flags, (byte) 0);
+        Arrays.fill(conditions, null);
+        update();
+    }
+
+    // BREAK, READ and WRITE bits set at 'address'
+    synchronized int getFlags(int address)
+    {
+        return flags[address & Memory.MASK];
+    }
+
+    public synchronized Condition getCondition(int address)
+    {
+        return conditions[address & Memory.MASK];
+    }
+
+    // commands:
+
+    public boolean isStopped()
+    {
+        return stopped;
+    }
+
+    public String getStopReason()
+    {
+        return stopReason;
+    }
+
+    // continue until a breakpoint
+    public void resume()
+    {
+        run(NEVER);
+    }
+
+    // stop before the next instruction
+    public void requestStop()
+    {
+        stopDepth = ALWAYS;
+        update();
+        wakeUp();
+    }
+
+    public void step()
+    {
+        run(ALWAYS);
+    }
+
+    // one step, but a subroutine call runs until it returned
+    public void stepOver()
+    {
+        Snapshot state = snapshot;
+        if(state != null && (state.fetch(state.pc) & 0xF000) == 0x2000)
+            run(state.sp);
+        else
+            run(ALWAYS);
+    }
+
+    // runs until the current subroutine returned, or until a breakpoint outside of any subroutine
+    public void runToReturn()
+    {
+        Snapshot state = snapshot;
+        run(state != null ? state.sp - 1 : NEVER);
+    }
+
+    // forget a stop, e.g. because another ROM was loaded; breakpoints stay
+    public void reset()
+    {
+        resuming = false;
+        stopDepth = NEVER;
+        stopped = false;
+        update();
+        wakeUp();
+    }
+
+    private void run(int depth)
+    {
+        resuming = stopped;
+        stopDepth = depth;
+        stopped = false;
+        update();
+        wakeUp();
+    }
+
+    private synchronized void update()
+    {
+        boolean any = stopDepth != NEVER;
+        for(int address = 0; address < Memory.SIZE && !any; address++)
+            any = flags[address] != 0;
+        armed = any;
+    }
+
+    private void wakeUp()
+    {
+        Thread thread = machineThread;
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    // called by the machine:
+
+    // true = run the frame on DebugEngine
+    boolean isArmed()
+    {
+        return armed;
+    }
+
+    // called by DebugEngine before every instruction, true = don't execute it
+    boolean shouldStop(Chip8 c)
+    {
+        if(resuming)
+        {
+            resuming = false;
+            return false;
+        }
+        if(c.sp <= stopDepth)
+            return stop(c, stopDepth == ALWAYS ? "Step" : "Returned");
+
+        int pc = c.pc & Memory.MASK;
+        int flag = flags[pc];
+        if((flag & BREAK) != 0 && (conditions[pc] == null || conditions[pc].test(c)))
+            return stop(c, "Breakpoint at 0x" + hex(pc) + (conditions[pc] != null ? " (" + conditions[pc] + ")" : ""));
+
+        int opcode = c.fetch(c.pc);
+        int x = opcode >>> 8 & 0xF;
+        switch(opcode & 0xF0FF)
+        {
+            case 0xF033:    return watched(c, c.I, 3, WRITE, "LD B");
+            case 0xF055:    return watched(c, c.I, x + 1, WRITE, "LD [I]");
+            case 0xF065:    return watched(c, c.I, x + 1, READ, "LD [I]");
+        }
+        if((opcode & 0xF000) == 0xD000)
+            return watched(c, c.I, opcode & 0xF, READ, "DRW");
+        return false;
+    }
+
+    private boolean watched(Chip8 c, int from, int length, int access, String instruction)
+    {
+        for(int i = 0; i < length; i++)
+        {
+            int address = (from + i) & Memory.MASK;
+            if((flags[address] & access) != 0)
+                return stop(c, (access == READ ? "Read" : "Write") + " of 0x" + hex(address) + " by " + instruction);
+        }
+        return false;
+    }
+
+    private boolean stop(Chip8 c, String reason)
+    {
+        snapshot = new Snapshot(c);
+        stopReason = reason;
+        stopDepth = NEVER;
+        update();
+        stopped = true;
+        Runnable listener = this.listener;
+        if(listener != null)
+            listener.run();
+        return true;
+    }
+
+    Snapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    private static String hex(int address)
+    {
+        return String.format("%03X", address);
+    }
+
+    // machine state when it stopped, read by whoever shows it
+    static class Snapshot
+    {
+        final int pc;
+        final int[] V;
+        final int I;
+        final int sp;
+        final int[] stack;
+        final int delayTimer;
+        final int soundTimer;
+        final byte[] memory = new byte[Memory.SIZE];
+
+        Snapshot(Chip8 c)
+        {
+            pc = c.pc;
+            V = c.V.clone();
+            I = c.I;
+            sp = c.sp;
+            stack = c.stack.clone();
+            delayTimer = c.delayTimer;
+            soundTimer = c.soundTimer;
+            c.memory.store(0, memory, 0, Memory.SIZE);
+        }
+
+        int fetch(int address)
+        {
+            return (memory[address & Memory.MASK] & 0xFF) << 8 | memory[(address + 1) & Memory.MASK] & 0xFF;
+        }
+    }
+
+    // condition of a breakpoint: register, comparison and value, e.g. "V3 == 5", "I >= 0x300"
+    public static class Condition
+    {
+        private static final String[] REGISTERS = {"V0", "V1", "V2", "V3", "V4", "V5", "V6", "V7",
+                                                   "V8", "V9", "VA", "VB", "VC", "VD", "VE", "VF", "I", "DT", "ST", "SP"};
+        private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+
+        private final int register;             // index in REGISTERS
+        private final int operator;             // index in OPERATORS
+        private final int value;
+
+        private Condition(int register, int operator, int value)
+        {
+            this.register = register;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        // numbers like Integer.decode(), e.g. 12 or 0x0C
+        public static Condition parse(String text)
+        {
+            String[] parts = text.trim().split("\\s+");
+            if(parts.length != 3)
+                throw new IllegalArgumentException("Condition should look like \"V3 == 5\", not \"" + text.trim() + "\"");
+            int register = indexOf(REGISTERS, parts[0].toUpperCase());
+            int operator = indexOf(OPERATORS, parts[1]);
+            if(register < 0)
+                throw new IllegalArgumentException("Unknown register " + parts[0]);
+            if(operator < 0)
+                throw new IllegalArgumentException("Unknown comparison " + parts[1]);
+            try {
+                return new Condition(register, operator, Integer.decode(parts[2]));
+            }catch(NumberFormatException nfe) {
+                throw new IllegalArgumentException("Not a number: " + parts[2]);
+            }
+        }
+
+        boolean test(Chip8 c)
+        {
+            int actual;
+            switch(register)
+            {
+                case 16:    actual = c.I;                   break;
+                case 17:    actual = c.delayTimer;          break;
+                case 18:    actual = c.soundTimer;          break;
+                case 19:    actual = c.sp + 1;              break;      // stack depth
+                default:    actual = c.V[register] & 0xFF;  break;
+            }
+            switch(operator)
+            {
+                case 0:     return actual == value;
+                case 1:     return actual != value;
+                case 2:     return actual < value;
+                case 3:     return actual <= value;
+                case 4:     return actual > value;
+                default:    return actual >= value;
+            }
+        }
+
+        private static int indexOf(String[] names, String name)
+        {
+            for(int i = 0; i < names.length; i++)
+                if(names[i].equals(name))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        public String toString()
+        {
+            return REGISTERS[register] + " " + OPERATORS[operator] + " " + value;
+        }
+    }
+}
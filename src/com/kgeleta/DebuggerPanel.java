@@ -0,0 +1,254 @@
+package com.kgeleta;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+// Disassembly, registers, breakpoints and stepping buttons for a Debugger. Shows the state of the
+// machine when it stopped last; double clicking an instruction toggles a breakpoint on it.
+@SuppressWarnings("serial")
+public class DebuggerPanel extends JPanel
+{
+    private final Debugger debugger;
+    private final JLabel status = new JLabel();
+    private final Disassembly disassembly = new Disassembly();
+    private final JList<Integer> code = new JList<>(disassembly);
+    private final JTextArea registers = new JTextArea(12, 22);
+    private final DefaultListModel<String> pointsModel = new DefaultListModel<>();
+    private final JList<String> points = new JList<>(pointsModel);
+    private final List<int[]> pointRanges = new ArrayList<>();     // from, to and BREAK or watch flags of each line in 'points'
+    private final List<JButton> stepButtons = new ArrayList<>();   // only work while the machine is stopped
+
+    public DebuggerPanel(Debugger debugger)
+    {
+        super(new BorderLayout(8, 8));
+        this.debugger = debugger;
+        setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+        code.setFont(font);
+        code.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        code.setCellRenderer(new DefaultListCellRenderer()
+        {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focus)
+            {
+                return super.getListCellRendererComponent(list, disassembly.line((Integer) value), index, selected, focus);
+            }
+        });
+        code.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                int index = code.locationToIndex(e.getPoint());
+                if(e.getClickCount() == 2 && index >= 0)
+                    toggleBreakpoint(disassembly.getElementAt(index));
+            }
+        });
+        JScrollPane codeScroll = new JScrollPane(code);
+        codeScroll.setPreferredSize(new Dimension(300, 420));
+
+        registers.setFont(font);
+        registers.setEditable(false);
+        points.setFont(font);
+        JPanel right = new JPanel(new BorderLayout(0, 8));
+        right.add(new JScrollPane(registers), BorderLayout.NORTH);
+        right.add(new JScrollPane(points), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new GridLayout(0, 3, 4, 4));
+        buttons.add(button("Continue", debugger::resume, true));
+        buttons.add(button("Step", debugger::step, true));
+        buttons.add(button("Step over", debugger::stepOver, true));
+        buttons.add(button("Run to return", debugger::runToReturn, true));
+        buttons.add(button("Stop", debugger::requestStop, false));
+        buttons.add(button("Breakpoint...", this::addBreakpoint, false));
+        buttons.add(button("Watch...", this::addWatchpoint, false));
+        buttons.add(button("Remove", this::removeSelected, false));
+        buttons.add(button("Remove all", debugger::clearAll, false));
+
+        add(status, BorderLayout.NORTH);
+        add(codeScroll, BorderLayout.CENTER);
+        add(right, BorderLayout.EAST);
+        add(buttons, BorderLayout.SOUTH);
+
+        debugger.setListener(() -> SwingUtilities.invokeLater(this::refresh));
+        refresh();
+    }
+
+    private JButton button(String text, Runnable action, boolean step)
+    {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> {
+            action.run();
+            refresh();
+        });
+        if(step)
+            stepButtons.add(button);
+        return button;
+    }
+
+    // shows the current stop, or that the machine runs
+    public void refresh()
+    {
+        boolean stopped = debugger.isStopped();
+        status.setText(stopped ? "Stopped: " + debugger.getStopReason() : "Running");
+        for(JButton button : stepButtons)
+            button.setEnabled(stopped);
+
+        Debugger.Snapshot state = debugger.getSnapshot();
+        disassembly.show(state);
+        if(state != null)
+        {
+            int index = disassembly.indexOf(state.pc);
+            code.setSelectedIndex(index);
+            code.ensureIndexIsVisible(Math.min(index + 8, disassembly.getSize() - 1));
+            code.ensureIndexIsVisible(Math.max(index - 8, 0));
+            registers.setText(registerText(state));
+        }
+        else
+            registers.setText("Stop the machine to see its state");
+        registers.setEnabled(stopped);
+        listPoints();
+    }
+
+    private static String registerText(Debugger.Snapshot state)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int x = 0; x < 16; x++)
+            text.append(String.format("V%X=%02X%s", x, state.V[x] & 0xFF, x % 4 == 3 ? "\n" : "  "));
+        text.append(String.format("%nPC=%03X  I=%03X%nDT=%02X  ST=%02X%n%nStack:", state.pc, state.I, state.delayTimer, state.soundTimer));
+        for(int i = state.sp; i >= 0; i--)
+            text.append(String.format(" %03X", state.stack[i]));
+        return text.toString();
+    }
+
+    // breakpoints one per line, watched bytes as ranges
+    private void listPoints()
+    {
+        pointsModel.clear();
+        pointRanges.clear();
+        for(int address = 0; address < Memory.SIZE; address++)
+        {
+            int flags = debugger.getFlags(address);
+            if((flags & Debugger.BREAK) != 0)
+            {
+                Debugger.Condition condition = debugger.getCondition(address);
+                pointsModel.addElement(String.format("break %03X", address) + (condition != null ? " if " + condition : ""));
+                pointRanges.add(new int[] {address, address, Debugger.BREAK});
+            }
+        }
+        for(int address = 0; address < Memory.SIZE; )
+        {
+            int access = debugger.getFlags(address) & (Debugger.READ | Debugger.WRITE);
+            int end = address;
+            while(end + 1 < Memory.SIZE && (debugger.getFlags(end + 1) & (Debugger.READ | Debugger.WRITE)) == access)
+                end++;
+            if(access != 0)
+            {
+                pointsModel.addElement(String.format("watch %03X-%03X %s%s", address, end,
+                        (access & Debugger.READ) != 0 ? "r" : "", (access & Debugger.WRITE) != 0 ? "w" : ""));
+                pointRanges.add(new int[] {address, end, access});
+            }
+            address = end + 1;
+        }
+    }
+
+    private void toggleBreakpoint(int address)
+    {
+        if((debugger.getFlags(address) & Debugger.BREAK) != 0)
+            debugger.removeBreakpoint(address);
+        else
+            debugger.setBreakpoint(address, null);
+        refresh();
+    }
+
+    private void addBreakpoint()
+    {
+        String input = JOptionPane.showInputDialog(this, "Address and optional condition, e.g. 0x2A4 or 0x2A4 if V3 == 5:");
+        if(input == null)
+            return;
+        try {
+            String[] parts = input.split("\\s+if\\s+", 2);
+            int address = Integer.decode(parts[0].trim());
+            debugger.setBreakpoint(address, parts.length > 1 ? Debugger.Condition.parse(parts[1]) : null);
+        }catch(IllegalArgumentException iae) {
+            JOptionPane.showMessageDialog(this, iae.getMessage(), "Wrong breakpoint", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void addWatchpoint()
+    {
+        String input = JOptionPane.showInputDialog(this, "Address or range and r, w or rw, e.g. 0x300-0x30F w:");
+        if(input == null)
+            return;
+        try {
+            String[] parts = input.trim().split("\\s+");
+            String access = parts.length > 1 ? parts[1].toLowerCase() : "rw";
+            String[] range = parts[0].split("-");
+            int from = Integer.decode(range[0]);
+            int to = range.length > 1 ? Integer.decode(range[1]) : from;
+            if(parts.length > 2 || !access.matches("r|w|rw|wr") || from < 0 || to < from || to > Memory.MASK)
+                throw new IllegalArgumentException("Use an address or range from 0x000 to 0xFFF, then r, w or rw");
+            debugger.setWatchpoint(from, to, access.contains("r"), access.contains("w"));
+        }catch(IllegalArgumentException iae) {
+            JOptionPane.showMessageDialog(this, iae.getMessage(), "Wrong watchpoint", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void removeSelected()
+    {
+        int index = points.getSelectedIndex();
+        if(index < 0)
+            return;
+        int[] range = pointRanges.get(index);
+        if(range[2] == Debugger.BREAK)
+            debugger.removeBreakpoint(range[0]);
+        else
+            debugger.removeWatchpoint(range[0], range[1]);
+    }
+
+    // every instruction of memory as the machine saw it when it stopped, aligned to its pc
+    @SuppressWarnings("serial")
+    private class Disassembly extends AbstractListModel<Integer>
+    {
+        private Debugger.Snapshot state;
+        private int base;                       // 0 or 1, instructions start at odd addresses if pc is odd
+
+        void show(Debugger.Snapshot state)
+        {
+            this.state = state;
+            base = state != null ? state.pc & 1 : 0;
+            fireContentsChanged(this, 0, getSize() - 1);
+        }
+
+        int indexOf(int address)
+        {
+            return ((address & Memory.MASK) - base) / 2;
+        }
+
+        String line(int address)
+        {
+            String marker = (debugger.getFlags(address) & Debugger.BREAK) != 0 ? "*" : " ";
+            if(state == null)
+                return String.format("%s %03X", marker, address);
+            int opcode = state.fetch(address);
+            return String.format("%s %03X  %04X  %s", marker, address, opcode, Disassembler.disassemble(opcode));
+        }
+
+        @Override
+        public int getSize()
+        {
+            return Memory.SIZE / 2;             // with an odd base the last instruction wraps around
+        }
+
+        @Override
+        public Integer getElementAt(int index)
+        {
+            return base + index * 2;
+        }
+    }
+}
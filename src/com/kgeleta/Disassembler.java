@@ -0,0 +1,61 @@
+package com.kgeleta;
+
+// Mnemonics in the usual CHIP-8 assembler syntax, e.g. 6A08 = "LD VA, 0x08". Opcodes are classified by
+// PredecodedEngine.handler(), so whatever an engine treats as unknown shows up as data ("DW 0x0123").
+public final class Disassembler
+{
+    private Disassembler() {}
+
+    public static String disassemble(int opcode)
+    {
+        opcode &= 0xFFFF;
+        String x = "V" + hex(opcode >>> 8 & 0xF, 1);
+        String y = "V" + hex(opcode >>> 4 & 0xF, 1);
+        String nn = "0x" + hex(opcode & 0xFF, 2);
+        String nnn = "0x" + hex(opcode & 0xFFF, 3);
+        switch(PredecodedEngine.handler(opcode))
+        {
+            case PredecodedEngine.CLS:      return "CLS";
+            case PredecodedEngine.RET:      return "RET";
+            case PredecodedEngine.JP:       return "JP " + nnn;
+            case PredecodedEngine.CALL:     return "CALL " + nnn;
+            case PredecodedEngine.SE_NN:    return "SE " + x + ", " + nn;
+            case PredecodedEngine.SNE_NN:   return "SNE " + x + ", " + nn;
+            case PredecodedEngine.SE_VY:    return "SE " + x + ", " + y;
+            case PredecodedEngine.LD_NN:    return "LD " + x + ", " + nn;
+            case PredecodedEngine.ADD_NN:   return "ADD " + x + ", " + nn;
+            case PredecodedEngine.LD_VY:    return "LD " + x + ", " + y;
+            case PredecodedEngine.OR:       return "OR " + x + ", " + y;
+            case PredecodedEngine.AND:      return "AND " + x + ", " + y;
+            case PredecodedEngine.XOR:      return "XOR " + x + ", " + y;
+            case PredecodedEngine.ADD_VY:   return "ADD " + x + ", " + y;
+            case PredecodedEngine.SUB:      return "SUB " + x + ", " + y;
+            case PredecodedEngine.SHR:      return "SHR " + x;
+            case PredecodedEngine.SUBN:     return "SUBN " + x + ", " + y;
+            case PredecodedEngine.SHL:      return "SHL " + x;
+            case PredecodedEngine.SNE_VY:   return "SNE " + x + ", " + y;
+            case PredecodedEngine.LD_I:     return "LD I, " + nnn;
+            case PredecodedEngine.JP_V0:    return "JP V0, " + nnn;
+            case PredecodedEngine.RND:      return "RND " + x + ", " + nn;
+            case PredecodedEngine.DRW:      return "DRW " + x + ", " + y + ", " + (opcode & 0xF);
+            case PredecodedEngine.SKP:      return "SKP " + x;
+            case PredecodedEngine.SKNP:     return "SKNP " + x;
+            case PredecodedEngine.LD_VX_DT: return "LD " + x + ", DT";
+            case PredecodedEngine.LD_VX_K:  return "LD " + x + ", K";
+            case PredecodedEngine.LD_DT:    return "LD DT, " + x;
+            case PredecodedEngine.LD_ST:    return "LD ST, " + x;
+            case PredecodedEngine.ADD_I:    return "ADD I, " + x;
+            case PredecodedEngine.LD_F:     return "LD F, " + x;
+            case PredecodedEngine.LD_B:     return "LD B, " + x;
+            case PredecodedEngine.ST_REGS:  return "LD [I], " + x;
+            case PredecodedEngine.LD_REGS:  return "LD " + x + ", [I]";
+            default:                        return "DW 0x" + hex(opcode, 4);
+        }
+    }
+
+    private static String hex(int value, int digits)
+    {
+        String text = Integer.toHexString(value).toUpperCase();
+        return "0".repeat(Math.max(0, digits - text.length())) + text;
+    }
+}
@@ -0,0 +1,97 @@
+package com.kgeleta;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Shows the CHIP-8 screen. The 64 x 32 framebuffer lives in an image that is updated only in rows
+// that changed since the previous frame. Painting is a single scaled drawImage into Swing's back
+// buffer. The image is RGB rather than 1 bit per pixel because scaling RGB is several times cheaper.
+@SuppressWarnings("serial")
+public class DisplayPanel extends JPanel
+{
+    private static final int ON = 0xFFFFFF;
+    private static final int OFF = 0x000000;
+
+    private final int[] pixels;                 // backing store of 'image', 64 pixels per row
+    private final BufferedImage image;
+    private Metrics metrics;                    // null = render times are not measured
+
+    public DisplayPanel(int pixelSize)
+    {
+        image = new BufferedImage(Chip8.WIDTH, Chip8.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        setBackground(Color.BLACK);
+        setDoubleBuffered(true);
+        setPixelSize(pixelSize);
+    }
+
+    public void setPixelSize(int pixelSize)
+    {
+        setPreferredSize(new Dimension(Chip8.WIDTH * pixelSize, Chip8.HEIGHT * pixelSize));
+    }
+
+    public void setMetrics(Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    // called by the emulation thread once per frame, repaints only if some row changed
+    public void present(Chip8 chip8)
+    {
+        int dirtyRows = chip8.takeDirtyRows();
+        if(dirtyRows == 0)
+            return;
+
+        synchronized(image)
+        {
+            for(int y = 0; y < Chip8.HEIGHT; y++)
+                if((dirtyRows & (1 << y)) != 0)
+                    setRow(y, chip8.getRow(y));
+        }
+        repaint();                              // RepaintManager coalesces requests that pile up on the EDT
+    }
+
+    // same for a screen that doesn't come from a local machine, e.g. SpectatorClient
+    public void present(long[] rows, int dirtyRows)
+    {
+        if(dirtyRows == 0)
+            return;
+
+        synchronized(image)
+        {
+            for(int y = 0; y < Chip8.HEIGHT; y++)
+                if((dirtyRows & (1 << y)) != 0)
+                    setRow(y, rows[y]);
+        }
+        repaint();
+    }
+
+    private void setRow(int y, long row)
+    {
+        for(int x = 0, offset = y * Chip8.WIDTH; x < Chip8.WIDTH; x++, row <<= 1)
+            pixels[offset + x] = row < 0 ? ON : OFF;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        super.paintComponent(g);                // black background
+
+        // largest 2:1 area that fits in the panel, centered
+        int width = Math.min(getWidth(), getHeight() * 2);
+        int height = width / 2;
+        int x = (getWidth() - width) / 2;
+        int y = (getHeight() - height) / 2;
+
+        synchronized(image)
+        {
+            g.drawImage(image, x, y, width, height, null);
+        }
+        if(Metrics.ENABLED && metrics != null)
+            metrics.frameRendered(start);
+    }
+}
@@ -0,0 +1,171 @@
+package com.kgeleta;
+
+import java.util.Arrays;
+
+// Dynamic recompiler. Cold code runs on the predecoded engine while every visited address gets a
+// heat counter. Once an address gets hot, the basic block starting there (up to the next jump,
+// call, return, skip or code-modifying store) is translated to a hidden class and cached by pc.
+// Blocks are only entered when the remaining budget covers all their instructions, so the number
+// of executed instructions per frame stays exactly the same as with the other engines.
+// Quirks are resolved when decoding, like in the predecoded engine; a DXYN that waits for the
+// display (QuirkProfile.waitsForDisplay()) ends its block, and Chip8.displayWait the frame.
+class DynarecEngine implements Engine
+{
+    static final int HOT_THRESHOLD = 32;
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    private static final BlockCompiler compiler = new BlockCompiler();
+
+    private final Chip8 chip8;
+    private final PredecodedEngine interpreter;
+
+    private final CompiledBlock[] blocks = new CompiledBlock[Memory.SIZE];    // translated blocks by start address
+    private final int[] blockLength = new int[Memory.SIZE];            // number of instructions in a block
+    private final int[] blockEnd = new int[Memory.SIZE];               // first address after a block
+    private final int[] coverage = new int[Memory.SIZE];               // number of blocks covering an address
+    private final short[] heat = new short[Memory.SIZE];
+    private final int[] blockExit = new int[Memory.SIZE];              // address of a final 1NNN or FX0A, -1 if none
+    private final byte[][] blockFamilies = new byte[Memory.SIZE][];   // opcode digits of a block, for Metrics
+    private final int[] scratch = new int[MAX_BLOCK_LENGTH];
+
+    DynarecEngine(Chip8 chip8)
+    {
+        this.chip8 = chip8;
+        this.interpreter = new PredecodedEngine(chip8);
+    }
+
+    @Override
+    public int execute(int budget)
+    {
+        final Chip8 c = chip8;
+        int remaining = budget;
+        while(remaining > 0 && !c.displayWait)
+        {
+            int pc = c.pc;
+            if((pc & ~Memory.MASK) == 0)                // pc outside of memory (BNNN past the end) is left to the interpreter
+            {
+                CompiledBlock block = blocks[pc];
+                int length = blockLength[pc];
+                if(block != null && length <= remaining)
+                {
+                    block.run(c);
+                    if(Metrics.ENABLED)
+                        countBlock(pc);
+                    remaining -= length;
+                    if(blockExit[pc] >= 0 && (!Tracer.ENABLED || c.tracer == null))
+                    {
+                        int skipped = idlePasses(blockExit[pc], remaining);
+                        if(Metrics.ENABLED)
+                            c.fastForwarded += skipped;
+                        remaining -= skipped;
+                    }
+                    continue;
+                }
+
+                if(block == null && ++heat[pc] == HOT_THRESHOLD && translate(pc))
+                    continue;
+            }
+
+            interpreter.execute(1);
+            remaining--;
+        }
+        return budget;
+    }
+
+    private boolean translate(int start)
+    {
+        int length = 0;
+        int address = start;
+        while(length < MAX_BLOCK_LENGTH && address + 1 < Memory.SIZE)
+        {
+            int d = PredecodedEngine.decode(chip8.fetch(address), chip8.getQuirks());
+            int handler = d >>> 16;
+            if(!BlockCompiler.isSupported(handler))
+                break;                                  // unknown opcode - leave it to the interpreter
+            scratch[length++] = d;
+            address += 2;
+            if(BlockCompiler.endsBlock(handler))
+                break;
+        }
+        if(length == 0)
+        {
+            heat[start] = Short.MIN_VALUE;              // nothing to translate here, don't try again soon
+            return false;
+        }
+
+        blocks[start] = compiler.compile(start, scratch, length);
+        int last = scratch[length - 1] >>> 16;
+        blockExit[start] = last == PredecodedEngine.JP || last == PredecodedEngine.LD_VX_K ? address - 2 : -1;
+        if(Metrics.ENABLED)
+        {
+            blockFamilies[start] = new byte[length];
+            for(int i = 0; i < length; i++)
+                blockFamilies[start][i] = (byte) ((scratch[i] >>> 12) & 0xF);
+        }
+        blockLength[start] = length;
+        blockEnd[start] = address;
+        for(int i = start; i < address; i++)
+            coverage[i]++;
+        return true;
+    }
+
+    // instructions of an idle loop ending at 'exit' that can be skipped in the rest of the frame
+    private int idlePasses(int exit, int remaining)
+    {
+        final Chip8 c = chip8;
+        if(c.pc == exit)
+            return remaining;                           // FX0A without a key, keys can't change before the frame ends
+        int loop = c.idleLoopLength(exit, c.pc);
+        return loop == 0 ? 0 : remaining / loop * loop;
+    }
+
+    // every instruction of a block runs when the block does
+    private void countBlock(int start)
+    {
+        long[] executed = chip8.executed;
+        for(byte family : blockFamilies[start])
+            executed[family]++;
+    }
+
+    @Override
+    public void invalidate(int address, int length)
+    {
+        interpreter.invalidate(address, length);
+
+        // an instruction starting one byte before the written range is affected as well
+        boolean translated = false;
+        for(int i = address - 1; i < address + length; i++)
+            translated |= coverage[i & Memory.MASK] != 0;
+        if(!translated)
+            return;
+
+        for(int i = address - 1; i < address + length; i++)
+            dropBlocksCovering(i & Memory.MASK);
+    }
+
+    private void dropBlocksCovering(int address)
+    {
+        for(int start = Math.max(0, address - 2 * MAX_BLOCK_LENGTH + 1); start <= address; start++)
+        {
+            if(blocks[start] != null && blockEnd[start] > address)
+            {
+                for(int i = start; i < blockEnd[start]; i++)
+                    coverage[i]--;
+                blocks[start] = null;
+                blockLength[start] = 0;
+                heat[start] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        interpreter.reset();
+        Arrays.fill(blocks, null);
+        Arrays.fill(blockFamilies, null);
+        Arrays.fill(blockLength, 0);
+        Arrays.fill(coverage, 0);
+        Arrays.fill(heat, (short) 0);
+    }
+}
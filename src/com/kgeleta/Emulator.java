@@ -1,44 +1,85 @@
 package com.kgeleta;
 
+import javax.sound.sampled.LineUnavailableException;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 public class Emulator extends JFrame implements KeyListener, ActionListener, ItemListener
 {
     private final String title = "CHIP-8 Emulator";
+    private String fileTitle = title;                       // title without the turbo speed
 
-    private final int offsetX = 10;
-    private final int offsetY = 60;
-
-    private final int smallX = 660;
-    private final int smallY = 400;
     private final int smallPixelSize = 10;
-
-    private final int mediumX = 990;
-    private final int mediumY = 560;
     private final int mediumPixelSize = 15;
-
-    private final int bigX = 1300;
-    private final int bigY = 720;
     private final int bigPixelSize = 20;
 
-    private int pixelSize = smallPixelSize;
-
     private AtomicBoolean pause = new AtomicBoolean(true);
     private AtomicBoolean fileLoaded = new AtomicBoolean(false);
+    private AtomicBoolean rewinding = new AtomicBoolean(false);    // rewind key is held down
+    private AtomicBoolean clearHistory = new AtomicBoolean(false); // new ROM or state - old history is useless
     private Chip8 chip8 = new Chip8();
-    private final char[] keyMap = {'x','1','2','3','q','w','e','a','s','d','z','c','4','r','f','v'};
-                                //  0   1   2   3   4   5   6   7   8   9   A   B   C   D   E   F
+    private FrameScheduler scheduler = new FrameScheduler();
+    private DisplayPanel display = new DisplayPanel(smallPixelSize);
+    private RewindBuffer history = new RewindBuffer(4 * 1024 * 1024);
+    private Metrics metrics = new Metrics();
+    private KeyQueue keyInput = new KeyQueue();             // key events from the EDT, applied between frames
+    private byte[] rom;                                     // ROM loaded last
+    private volatile InputRecording recording;              // null = input is not being recorded
+    private CheckboxMenuItem recordItem;
+    private volatile Thread emulationThread;               // parks while there is nothing to emulate
+    private final Queue<FutureTask<Void>> machineTasks = new ConcurrentLinkedQueue<>();     // see onEmulationThread()
+    private Beeper beeper = new Beeper(new SampleRing(16 * 1024));
+    private AudioPlayer audio;                              // null = no audio device
+    private boolean turboKey;                               // turbo key is held down
+    private boolean turboItem;                              // turbo is switched on in the menu
+    private RomLibrary library;                             // null = no library, e.g. the home directory is read only
+    private RomLibrary.Entry romEntry;                      // library entry of the ROM loaded last, null = not from the library
+    private SpectatorServer.Stream spectators;              // null = not streamed, see -Dchip8.spectators
+    private FrameCapture capture;                           // null = not captured, see -Dchip8.capture
+    private long captureStart;                              // System.nanoTime() of the first captured frame
+    private Debugger debugger = new Debugger();             // attached to the machine once the debugger is opened
+    private JDialog debuggerDialog;
+    private static final int[] keyMap = {KeyEvent.VK_X, KeyEvent.VK_1, KeyEvent.VK_2, KeyEvent.VK_3,      // 0 1 2 3
+                                         KeyEvent.VK_Q, KeyEvent.VK_W, KeyEvent.VK_E, KeyEvent.VK_A,      // 4 5 6 7
+                                         KeyEvent.VK_S, KeyEvent.VK_D, KeyEvent.VK_Z, KeyEvent.VK_C,      // 8 9 A B
+                                         KeyEvent.VK_4, KeyEvent.VK_R, KeyEvent.VK_F, KeyEvent.VK_V};     // C D E F
+    private static final byte[] keyTable = new byte[256];   // key code -> CHIP-8 key, -1 = not mapped
+
+    static
+    {
+        Arrays.fill(keyTable, (byte) -1);
+        for(int i = 0; i < keyMap.length; i++)
+            keyTable[keyMap[i]] = (byte) i;
+    }
 
     public Emulator()
     {
         super();
         try {
-            UIManager.setLookAndFeel("com.sun.java.swing.plaf.windows.WindowsLookAndFeel");
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());   // Windows look on Windows only
 
         } catch (Exception e) { System.err.println("Error: " + e.getMessage()); }
 
@@ -49,13 +90,27 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
         MenuItem open = new MenuItem("Open ROM...");
         open.addActionListener(this);
         open.setShortcut(new MenuShortcut(KeyEvent.getExtendedKeyCodeForChar('o'), false));
+        MenuItem saveState = new MenuItem("Save state...");
+        saveState.addActionListener(this);
+        saveState.setShortcut(new MenuShortcut(KeyEvent.getExtendedKeyCodeForChar('s'), false));
+        MenuItem loadState = new MenuItem("Load state...");
+        loadState.addActionListener(this);
+        loadState.setShortcut(new MenuShortcut(KeyEvent.getExtendedKeyCodeForChar('l'), false));
         MenuItem exit = new MenuItem("Exit");
         exit.addActionListener(this);
         CheckboxMenuItem pauseItem = new CheckboxMenuItem("Pause");
         pauseItem.setShortcut(new MenuShortcut(KeyEvent.getExtendedKeyCodeForChar('p'), false));
         pauseItem.addItemListener(this);
+        recordItem = new CheckboxMenuItem("Record input");
+        recordItem.addItemListener(this);
+        MenuItem verify = new MenuItem("Verify recording...");
+        verify.addActionListener(this);
 
         menuFile.add(open);
+        menuFile.add(saveState);
+        menuFile.add(loadState);
+        menuFile.add(recordItem);
+        menuFile.add(verify);
         menuFile.add(pauseItem);
         menuFile.add(exit);
 
@@ -64,7 +119,29 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
         MenuItem speed = new MenuItem("Emulation speed");
         speed.addActionListener(this);
 
+//        execution engine
+        Menu menuEngine = new Menu("Engine");
+        for(EngineType type : EngineType.values())
+        {
+            MenuItem engineItem = new MenuItem(type.getDisplayName());
+            engineItem.setActionCommand("Engine:" + type.name());
+            engineItem.addActionListener(this);
+            menuEngine.add(engineItem);
+        }
+
+//        quirk profile, remembered per ROM in the library
+        Menu menuQuirks = new Menu("Quirks");
+        for(QuirkProfile profile : QuirkProfile.values())
+        {
+            MenuItem quirksItem = new MenuItem(profile.getDisplayName());
+            quirksItem.setActionCommand("Quirks:" + profile.name());
+            quirksItem.addActionListener(this);
+            menuQuirks.add(quirksItem);
+        }
+
 //        sound on/off
+        CheckboxMenuItem sound = new CheckboxMenuItem("Sound", true);
+        sound.addItemListener(this);
 
 //        screen size
         Menu menuScreenSize = new Menu("Screen size");
@@ -85,54 +162,243 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
 
         menuSettings.add(menuScreenSize);
         menuSettings.add(speed);
+        menuSettings.add(menuEngine);
+        menuSettings.add(menuQuirks);
+        menuSettings.add(sound);
+        CheckboxMenuItem turbo = new CheckboxMenuItem("Turbo");
+        turbo.addItemListener(this);
+        menuSettings.add(turbo);
+
 
+        Menu menuDebug = new Menu("Debug");
+        MenuItem openDebugger = new MenuItem("Debugger...");
+        openDebugger.addActionListener(this);
+        openDebugger.setShortcut(new MenuShortcut(KeyEvent.getExtendedKeyCodeForChar('d'), false));
+        menuDebug.add(openDebugger);
 
         menuBar.add(menuFile);
         menuBar.add(menuSettings);
+        menuBar.add(menuDebug);
 
         setMenuBar(menuBar);
 
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        setSize(smallX,smallY);
+        setContentPane(display);
+        pack();
         setTitle(title);
-        setResizable(false);
         setVisible(true);
+        setFocusTraversalKeysEnabled(false);    // Tab is the turbo key
         addKeyListener(this);
+        new Timer(500, e -> showSpeed()).start();
 
         chip8.initialize();
+        try {
+            audio = new AudioPlayer(beeper.getOutput());
+            chip8.setBeeper(beeper);
+        }catch(LineUnavailableException lue) {
+            System.err.println("Sound disabled: " + lue.getMessage());
+            sound.setEnabled(false);
+            sound.setState(false);
+        }
+        if(Metrics.ENABLED)
+        {
+            metrics.watch(chip8);
+            scheduler.setMetrics(metrics);
+            display.setMetrics(metrics);
+            keyInput.setMetrics(metrics);
+            metrics.register();
+        }
+        try {
+            library = RomLibrary.openDefault();
+        }catch(IOException ioe) {
+            System.err.println("ROM library disabled: " + ioe.getMessage());
+        }
+        String spectatorPort = System.getProperty("chip8.spectators");
+        if(spectatorPort != null)
+        {
+            try {
+                InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                        spectatorPort.isEmpty() ? SpectatorServer.DEFAULT_PORT : Integer.parseInt(spectatorPort));
+                spectators = new SpectatorServer(address).openStream();
+            }catch(IOException | IllegalArgumentException e) {
+                System.err.println("Spectators disabled: " + e.getMessage());
+            }
+        }
+        String captureFile = System.getProperty("chip8.capture");
+        if(captureFile != null)
+        {
+            try {
+                capture = new FrameCapture(FrameCapture.open(Paths.get(captureFile), Chip8.WIDTH * smallPixelSize, Chip8.HEIGHT * smallPixelSize), 64);
+                captureStart = System.nanoTime();
+                Runtime.getRuntime().addShutdownHook(new Thread(this::closeCapture));   // the GIF trailer is written on close
+            }catch(IOException | IllegalArgumentException e) {
+                System.err.println("Capture disabled: " + e.getMessage());
+            }
+        }
 
     }
 
-    @Override
-    public void paint(Graphics g)
+    // resizes the window so that a CHIP-8 pixel is 'pixelSize' screen pixels, any other size is fine too
+    private void setPixelSize(int pixelSize)
     {
-        // clear screen with black background
-        g.setColor(Color.BLACK);
-        g.fillRect(0, 0, getWidth(), getHeight());
-
-        g.setColor(Color.WHITE);
-        for(int x = 0; x < 64; x++)
-            for(int y = 0; y < 32; y++)
-            {
-                if(chip8.gfx[x][y])
-                    g.fillRect(pixelSize*x + offsetX,pixelSize*y + offsetY,pixelSize,pixelSize);
-            }
+        display.setPixelSize(pixelSize);
+        pack();
     }
 
     // emulation loop:
 
     public void emulateLoop()
     {
+        emulationThread = Thread.currentThread();
+        keyInput.setConsumer(emulationThread);
+        debugger.setMachineThread(emulationThread);
+        if(spectators != null)
+            spectators.getKeyInput().setConsumer(emulationThread);
         while(true)
         {
-            if(!pause.get() & fileLoaded.get())
+            for(FutureTask<Void> task; (task = machineTasks.poll()) != null; )
+                task.run();
+            if(clearHistory.getAndSet(false))
+                history.clear();
+
+            // keys only change between frames, so that runs can be replayed
+            int keys = keyInput.poll();
+            if(spectators != null)
+                keys |= spectators.getKeyInput().poll();
+
+            if(pause.get() || !fileLoaded.get() || debugger.isStopped())
+            {
+                idle();
+                continue;
+            }
+
+            InputRecording recording = this.recording;
+            if(rewinding.get())
+            {
+                // go back one frame, keys are whatever the user holds now, not what was held back then
+                if(history.stepBack(chip8) && recording != null)
+                    recording.truncate(recording.getFrames() - 1);
+                chip8.setKeys(keys);
+            }
+            else
+            {
+                if(!chip8.isInFrame())
+                    chip8.setKeys(keys);            // also when the debugger stopped in the middle of a frame
+                if(chip8.isIdle() && !debugger.isArmed())
+                {
+                    // frames would change nothing until a key is pressed, they don't even need to be recorded
+                    idle();
+                    continue;
+                }
+
+                // emulate single frame:
+                int cycles = scheduler.runFrame(chip8);
+                if(!chip8.isInFrame())
+                {
+                    history.record(chip8);
+                    if(recording != null)
+                        recording.frameExecuted(chip8.getKeys(), cycles, chip8);
+                }
+            }
+            // draw output once per frame (in turbo mode only some frames), only rows that changed
+            if(scheduler.shouldPresent())
             {
-                // emulate single cycle:
-                chip8.cycle();
-                // draw output
-                if (chip8.drawFlag)
-                    repaint();
+                display.present(chip8);
+                if(spectators != null)
+                    spectators.publish(chip8);
+                if(capture != null)                         // by wall-clock frames, so pauses and idle waits last
+                    capture.offer(chip8, (System.nanoTime() - captureStart) / FrameScheduler.FRAME_NANOS);
             }
+            scheduler.sync();
+        }
+    }
+
+    private void closeCapture()
+    {
+        try {
+            capture.close();
+            System.err.println("Captured " + capture.getWritten() + " frames, " + capture.getDropped() + " dropped");
+        }catch(IOException ioe) {
+            System.err.println("Cannot write capture: " + ioe.getMessage());
+        }
+    }
+
+    private void showTitle(String fileName)
+    {
+        fileTitle = title + ": " + fileName;
+        setTitle(fileTitle);
+    }
+
+    // achieved speed in the title bar while in turbo mode
+    private void showSpeed()
+    {
+        if(scheduler.isTurbo())
+            setTitle(String.format("%s - turbo %.1fx", fileTitle, scheduler.getSpeed()));
+        else if(!getTitle().equals(fileTitle))
+            setTitle(fileTitle);
+    }
+
+    private void updateTurbo()
+    {
+        scheduler.setTurbo(turboKey || turboItem);
+        wakeUp();
+    }
+
+    // parks the emulation thread until wakeUp() or a key event
+    private void idle()
+    {
+        LockSupport.park(this);
+        scheduler.reset();                      // don't try to catch up with the time spent parked
+    }
+
+    private void wakeUp()
+    {
+        Thread thread = emulationThread;
+        if(thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    // something that changes the machine and may fail
+    private interface MachineTask
+    {
+        void run() throws IOException;
+    }
+
+    // Runs 'task' on the emulation thread between two frames and waits until it is done. Everything that
+    // touches the machine from the EDT goes through here; pausing alone doesn't stop a frame that runs.
+    private void tryOnEmulationThread(MachineTask task) throws IOException
+    {
+        Thread thread = emulationThread;
+        if(thread == null || thread == Thread.currentThread())
+        {
+            task.run();                         // no frames run yet, or already on that thread
+            return;
+        }
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            task.run();
+            return null;
+        });
+        machineTasks.offer(future);
+        LockSupport.unpark(thread);
+        try {
+            future.get();
+        }catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }catch(ExecutionException ee) {
+            if(ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            if(ee.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ee.getCause();
+            throw new IllegalStateException(ee.getCause());
+        }
+    }
+
+    private void onEmulationThread(Runnable task)
+    {
+        try {
+            tryOnEmulationThread(task::run);
+        }catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);        // a Runnable can't throw it
         }
     }
 
@@ -141,10 +407,19 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
     @Override
     public void keyPressed(KeyEvent e)
     {
-        for(int i = 0; i < keyMap.length; i++)
-            if(e.getKeyChar() == keyMap[i])
-                chip8.key[i] = true;
-
+        if(e.getKeyCode() == KeyEvent.VK_BACK_SPACE)
+        {
+            rewinding.set(true);
+            wakeUp();
+        }
+        if(e.getKeyCode() == KeyEvent.VK_TAB && !turboKey)
+        {
+            turboKey = true;
+            updateTurbo();
+        }
+        int key = chip8Key(e);
+        if(key >= 0)
+            keyInput.offer(key, true);
     }
 
     @Override
@@ -153,9 +428,23 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
     @Override
     public void keyReleased(KeyEvent e)
     {
-        for(int i = 0; i < keyMap.length; i++)
-            if(e.getKeyChar() == keyMap[i])
-                chip8.key[i] = false;
+        if(e.getKeyCode() == KeyEvent.VK_BACK_SPACE)
+            rewinding.set(false);
+        if(e.getKeyCode() == KeyEvent.VK_TAB)
+        {
+            turboKey = false;
+            updateTurbo();
+        }
+        int key = chip8Key(e);
+        if(key >= 0)
+            keyInput.offer(key, false);
+    }
+
+    // CHIP-8 key mapped to the key of 'e', -1 if none
+    static int chip8Key(KeyEvent e)
+    {
+        int code = e.getKeyCode();
+        return code >= 0 && code < keyTable.length ? keyTable[code] : -1;
     }
 
     // itemListener
@@ -163,7 +452,83 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
     @Override
     public void itemStateChanged(ItemEvent e) {
         if(e.getItem().equals("Pause"))
+        {
             pause.set(!pause.get());
+            wakeUp();
+        }
+        if(e.getItem().equals("Turbo"))
+        {
+            turboItem = e.getStateChange() == ItemEvent.SELECTED;
+            updateTurbo();
+        }
+        if(e.getItem().equals("Sound"))
+            beeper.setEnabled(e.getStateChange() == ItemEvent.SELECTED);
+        if(e.getItem().equals("Record input"))
+        {
+            if(e.getStateChange() == ItemEvent.SELECTED)
+                startRecording();
+            else
+                stopRecording();
+        }
+    }
+
+    // restarts the ROM with a known seed, from now on the session can be replayed
+    private void startRecording()
+    {
+        if(rom == null)
+        {
+            recordItem.setState(false);
+            return;
+        }
+        long seed = System.nanoTime();
+        onEmulationThread(() -> {
+            chip8.initialize(seed);
+            chip8.loadRom(rom);
+            debugger.reset();
+            recording = new InputRecording(seed, rom, scheduler.getCyclesPerFrame(), chip8.getQuirks());
+            clearHistory.set(true);
+        });
+        pause.set(false);
+        wakeUp();
+    }
+
+    private void stopRecording()
+    {
+        InputRecording finished = recording;
+        onEmulationThread(() -> recording = null);          // the last frame is recorded once this returns
+        recordItem.setState(false);
+        if(finished == null)
+            return;
+
+        JFileChooser chooser = recordingChooser();
+        if(chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        String path = chooser.getSelectedFile().getAbsolutePath();
+        try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(path.endsWith(".c8r") ? path : path + ".c8r")))) {
+            finished.write(out);
+        }catch(IOException ioe) {
+            JOptionPane.showMessageDialog(this, ioe.getMessage(), "Cannot save recording", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // replays a recording without showing it and checks that the screen is the same as it was
+    private void verifyRecording()
+    {
+        JFileChooser chooser = recordingChooser();
+        if(chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(chooser.getSelectedFile().toPath()))) {
+            long start = System.nanoTime();
+            Replay replay = new Replay(InputRecording.read(in), chip8.getEngineType());
+            replay.runTo(Integer.MAX_VALUE);
+            String time = String.format("%d frames replayed in %.3f s", replay.getFrame(), (System.nanoTime() - start) / 1e9);
+            if(replay.getFirstMismatch() < 0)
+                JOptionPane.showMessageDialog(this, time + ", the screen matches the recording.", "Recording verified", JOptionPane.INFORMATION_MESSAGE);
+            else
+                JOptionPane.showMessageDialog(this, time + ", the screen differs from frame " + replay.getFirstMismatch() + " on.", "Recording differs", JOptionPane.WARNING_MESSAGE);
+        }catch(IOException ioe) {
+            JOptionPane.showMessageDialog(this, ioe.getMessage(), "Cannot read recording", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
 
@@ -173,6 +538,14 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
     public void actionPerformed(ActionEvent e)
     {
         pause.set(true);
+        if(e.getActionCommand().startsWith("Engine:"))
+        {
+            EngineType engine = EngineType.valueOf(e.getActionCommand().substring("Engine:".length()));
+            onEmulationThread(() -> chip8.setEngine(engine));
+        }
+        if(e.getActionCommand().startsWith("Quirks:"))
+            setQuirks(QuirkProfile.valueOf(e.getActionCommand().substring("Quirks:".length())));
+
         switch(e.getActionCommand())
         {
             case "Open ROM...":
@@ -181,53 +554,258 @@ public class Emulator extends JFrame implements KeyListener, ActionListener, Ite
                         "CHIP-8 ROMs", "c8", "ch8");
                 chooser.setFileFilter(filter);
                 chooser.setAcceptAllFileFilterUsed(false);
+                RomLibrary.Entry[] picked = new RomLibrary.Entry[1];
+                if(library != null)
+                    chooser.setAccessory(libraryPanel(chooser, picked));
                 int returnVal = chooser.showOpenDialog(this);
                 if(returnVal == JFileChooser.APPROVE_OPTION)
                 {
-                    chip8.initialize();
                     try {
-                        chip8.loadFile(chooser.getSelectedFile().getAbsolutePath());
-                        setTitle(title + ": " + chooser.getSelectedFile().getName());
-                    }catch(IOException ioe) {System.err.println("Wrong file path!");}
-                    fileLoaded.set(true);
+                        if(picked[0] != null)
+                            openRom(picked[0]);
+                        else if(library != null)
+                            openRom(library.add(chooser.getSelectedFile().toPath()));
+                        else
+                        {
+                            byte[] image = Files.readAllBytes(chooser.getSelectedFile().toPath());
+                            startRom(image, chooser.getSelectedFile().getName(), () -> chip8.loadRom(image));
+                        }
+                    }catch(IOException | IllegalArgumentException ex) {
+                        JOptionPane.showMessageDialog(this, ex.getMessage(), "Cannot open ROM", JOptionPane.ERROR_MESSAGE);
+                    }
                 }
                 break;
 
+            case "Save state...":
+                if(!fileLoaded.get())
+                    break;
+                JFileChooser saveChooser = stateChooser();
+                if(saveChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION)
+                {
+                    try(SnapshotFile snapshot = new SnapshotFile(stateFile(saveChooser), 1)) {
+                        onEmulationThread(() -> snapshot.save(0, chip8));
+                        snapshot.force();
+                    }catch(IOException ioe) {
+                        JOptionPane.showMessageDialog(this, ioe.getMessage(), "Cannot save state", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+                break;
+
+            case "Load state...":
+                JFileChooser loadChooser = stateChooser();
+                if(loadChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+                {
+                    stopRecording();                // a recording can't continue from another state
+                    try(SnapshotFile snapshot = new SnapshotFile(stateFile(loadChooser), 1)) {
+                        tryOnEmulationThread(() -> {
+                            snapshot.load(0, chip8);
+                            clearHistory.set(true);
+                        });
+                        rom = null;                 // the ROM in memory is no longer known, so it can't be recorded
+                        romEntry = null;
+                        fileLoaded.set(true);
+                        showTitle(loadChooser.getSelectedFile().getName());
+                    }catch(IOException ioe) {
+                        JOptionPane.showMessageDialog(this, ioe.getMessage(), "Cannot load state", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+                break;
+
+            case "Verify recording...":
+                verifyRecording();
+                break;
+
+            case "Debugger...":
+                openDebugger();
+                break;
+
             case "Exit":
                 System.exit(0);
                 break;
 
             case "Small":
-                setSize(smallX,smallY);
-                pixelSize = smallPixelSize;
+                setPixelSize(smallPixelSize);
                 break;
 
             case "Medium":
-                setSize(mediumX,mediumY);
-                pixelSize = mediumPixelSize;
+                setPixelSize(mediumPixelSize);
                 break;
 
             case "Big":
-                setSize(bigX,bigY);
-                pixelSize = bigPixelSize;
+                setPixelSize(bigPixelSize);
                 break;
 
             case "Emulation speed":
-                String speedStr = JOptionPane.showInputDialog(this,"Number of milliseconds for single emulation cycle: ", chip8.emulationSpeed);
+                String speedStr = JOptionPane.showInputDialog(this,"Instructions per frame (60 frames per second), or target speed e.g. 700Hz: ", scheduler.getCyclesPerFrame());
+                if(speedStr == null)
+                    break;
                 try
                 {
-                    int speedInt = Integer.parseInt(speedStr);
-                    if(speedInt < 0 || speedInt > 5000)
-                        JOptionPane.showMessageDialog(this, "Value should be in range 0 to 5000", "Wrong value", JOptionPane.WARNING_MESSAGE);
+                    speedStr = speedStr.trim().toLowerCase();
+                    if(speedStr.endsWith("hz"))
+                        scheduler.setInstructionsPerSecond(Integer.parseInt(speedStr.substring(0, speedStr.length() - 2).trim()));
                     else
-                        chip8.emulationSpeed = speedInt;
+                        scheduler.setCyclesPerFrame(Integer.parseInt(speedStr));
                 } catch (NumberFormatException nfe)
                 {
                     JOptionPane.showMessageDialog(this, "Wrong format!", "Format error", JOptionPane.ERROR_MESSAGE);
+                } catch (IllegalArgumentException iae)
+                {
+                    JOptionPane.showMessageDialog(this, iae.getMessage(), "Wrong value", JOptionPane.WARNING_MESSAGE);
                 }
                 break;
         }
         pause.set(false);
+        wakeUp();
+    }
+
+    // the debugger stays attached once opened, closing the window removes breakpoints and lets the machine run
+    private void openDebugger()
+    {
+        if(debuggerDialog == null)
+        {
+            onEmulationThread(() -> chip8.setDebugger(debugger));
+            DebuggerPanel panel = new DebuggerPanel(debugger);
+            debuggerDialog = new JDialog(this, "Debugger", false);
+            debuggerDialog.setContentPane(panel);
+            debuggerDialog.pack();
+            debuggerDialog.setLocation(getX() + getWidth(), getY());
+            debuggerDialog.addWindowListener(new WindowAdapter()
+            {
+                @Override
+                public void windowClosing(WindowEvent e)
+                {
+                    debugger.clearAll();
+                    debugger.resume();
+                }
+            });
+        }
+        debuggerDialog.setVisible(true);
+    }
+
+    // ROMs of the library next to the files of the Open ROM dialog, recently opened ones first
+    private JComponent libraryPanel(JFileChooser chooser, RomLibrary.Entry[] picked)
+    {
+        DefaultListModel<RomLibrary.Entry> model = new DefaultListModel<>();
+        fillLibraryList(model);
+        JList<RomLibrary.Entry> list = new JList<>(model);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent e)
+            {
+                if(e.getClickCount() == 2 && list.getSelectedValue() != null)
+                {
+                    picked[0] = list.getSelectedValue();
+                    chooser.approveSelection();
+                }
+            }
+        });
+
+        JButton scan = new JButton("Add folder...");
+        scan.addActionListener(e -> {
+            JFileChooser folderChooser = new JFileChooser();
+            folderChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+            folderChooser.setFileFilter(new FileNameExtensionFilter("Folders, ROMs and zip archives", "c8", "ch8", "zip"));
+            if(folderChooser.showOpenDialog(chooser) != JFileChooser.APPROVE_OPTION)
+                return;
+            try {
+                int added = library.scan(folderChooser.getSelectedFile().toPath());
+                library.save();
+                fillLibraryList(model);
+                JOptionPane.showMessageDialog(chooser, added + " new ROMs, " + library.size() + " in the library.", "ROM library", JOptionPane.INFORMATION_MESSAGE);
+            }catch(IOException ioe) {
+                JOptionPane.showMessageDialog(chooser, ioe.getMessage(), "Cannot add ROMs", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        JPanel panel = new JPanel(new BorderLayout(0, 4));
+        panel.setBorder(BorderFactory.createEmptyBorder(0, 8, 0, 0));
+        panel.add(new JLabel("Library (double click to open):"), BorderLayout.NORTH);
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setPreferredSize(new Dimension(200, 0));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(scan, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    private void fillLibraryList(DefaultListModel<RomLibrary.Entry> model)
+    {
+        List<RomLibrary.Entry> recent = library.getRecent(10);
+        List<RomLibrary.Entry> others = new ArrayList<>(library.getEntries());
+        others.removeAll(recent);
+        others.sort(Comparator.comparing(RomLibrary.Entry::getTitle, String.CASE_INSENSITIVE_ORDER));
+        model.clear();
+        model.addAll(recent);
+        model.addAll(others);
+    }
+
+    private void openRom(RomLibrary.Entry entry) throws IOException
+    {
+        QuirkProfile quirks = QuirkProfile.forName(entry.getQuirks());
+        startRom(library.readBytes(entry), entry.getTitle(), () -> {
+            chip8.setQuirks(quirks);
+            library.load(entry, chip8);         // one copy straight from the mapped library
+        });
+        romEntry = entry;
+        library.touch(entry);
+        library.save();
+    }
+
+    // restarts the machine for 'image', which 'load' puts into memory
+    private void startRom(byte[] image, String name, MachineTask load) throws IOException
+    {
+        if(image.length > Chip8.MAX_ROM_SIZE)
+            throw new IllegalArgumentException(name + " has " + image.length + " bytes, a ROM can't be bigger than " + Chip8.MAX_ROM_SIZE);
+        stopRecording();
+        tryOnEmulationThread(() -> {
+            chip8.initialize();
+            debugger.reset();                   // breakpoints stay for the new ROM
+            load.run();
+            clearHistory.set(true);
+        });
+        rom = image;
+        romEntry = null;
+        showTitle(name);
+        fileLoaded.set(true);
+    }
+
+    // for the running ROM, and from now on whenever it is opened from the library
+    private void setQuirks(QuirkProfile profile)
+    {
+        stopRecording();                        // a recording replays with the dialect it was started with
+        onEmulationThread(() -> chip8.setQuirks(profile));
+        if(romEntry == null)
+            return;
+        library.setQuirks(romEntry, profile.name());
+        try {
+            library.save();
+        }catch(IOException ioe) {
+            JOptionPane.showMessageDialog(this, ioe.getMessage(), "Cannot save ROM library", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private JFileChooser stateChooser()
+    {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("CHIP-8 save states", "c8s"));
+        chooser.setAcceptAllFileFilterUsed(false);
+        return chooser;
+    }
+
+    private JFileChooser recordingChooser()
+    {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("CHIP-8 input recordings", "c8r"));
+        chooser.setAcceptAllFileFilterUsed(false);
+        return chooser;
+    }
+
+    private Path stateFile(JFileChooser chooser)
+    {
+        String path = chooser.getSelectedFile().getAbsolutePath();
+        return Paths.get(path.endsWith(".c8s") ? path : path + ".c8s");
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,15 @@
+package com.kgeleta;
+
+// Executes instructions of a single Chip8. Engines may cache anything derived from memory,
+// Chip8 tells them when memory changes underneath.
+interface Engine
+{
+    // executes up to 'budget' instructions and returns how many were executed
+    int execute(int budget);
+
+    // program wrote 'length' bytes starting at 'address'
+    void invalidate(int address, int length);
+
+    // whole memory was replaced (initialize, ROM load)
+    void reset();
+}
@@ -0,0 +1,30 @@
+package com.kgeleta;
+
+import java.util.function.Function;
+
+// Execution engines that can be selected at runtime with Chip8.setEngine()
+public enum EngineType
+{
+    INTERPRETER("Interpreter", Interpreter::new),
+    PREDECODED("Predecoded", PredecodedEngine::new),
+    DYNAREC("Dynamic recompiler", DynarecEngine::new);
+
+    private final String displayName;
+    private final Function<Chip8, Engine> factory;
+
+    EngineType(String displayName, Function<Chip8, Engine> factory)
+    {
+        this.displayName = displayName;
+        this.factory = factory;
+    }
+
+    public String getDisplayName()
+    {
+        return displayName;
+    }
+
+    Engine create(Chip8 chip8)
+    {
+        return factory.apply(chip8);
+    }
+}
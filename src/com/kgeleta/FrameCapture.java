@@ -0,0 +1,313 @@
+package com.kgeleta;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Screenshots and clips of a running machine, encoded on a thread of their own. The thread running the
+// machine calls offer() for every frame it presents, which copies the 32 rows of the screen into one of
+// a fixed number of preallocated buffers and hands it over through a ring with one writer and one
+// reader, like SampleRing. When the encoder falls behind and no buffer is free the frame is dropped and
+// counted; offer() never blocks or allocates.
+//
+// Every frame carries the number of the 60 Hz frame it was shown in, the machine's frame count or
+// wall-clock frames, so a Sink knows how much time passed between the frames it gets: frames dropped
+// here or never offered while the machine stood still only make the frame before stay longer. Numbers
+// never decrease, a frame with the same number as the one before replaces it.
+public class FrameCapture implements Closeable
+{
+    private static final long PARK_NANOS = FrameScheduler.FRAME_NANOS;    // in case an unpark was missed
+
+    private final Sink sink;
+    private final long[][] frames;                          // buffer of ring position p at p & mask
+    private final long[] frameNumbers;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();       // next frame to encode, written by the encoder
+    private final AtomicLong tail = new AtomicLong();       // next frame to fill, written by offer()
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private long offered;                                   // offer() only
+    private long lastFrame = Long.MIN_VALUE;                // offer() only
+    private volatile long written;
+    private volatile boolean waiting;                       // the encoder is parked
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    // where frames go, called on the encoder thread only
+    public interface Sink extends Closeable
+    {
+        // 'rows' as returned by Chip8.getRow(), only valid during the call
+        void write(long[] rows, long frame) throws IOException;
+    }
+
+    // 'capacity' frames can wait for the encoder, has to be a power of two
+    public FrameCapture(Sink sink, int capacity)
+    {
+        if(capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity should be a power of two, not " + capacity);
+        this.sink = sink;
+        frames = new long[capacity][Chip8.HEIGHT];
+        frameNumbers = new long[capacity];
+        mask = capacity - 1;
+
+        thread = new Thread(this::encode, "CHIP-8 capture");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // a Sink chosen by the extension of 'path': ".gif" an animated GIF, ".png" one numbered file per
+    // frame, anything else raw frames of 'width' x 'height' bytes, 0 = black and 255 = white, e.g. for
+    //   ffmpeg -f rawvideo -pix_fmt gray -s 640x320 -r 60 -i clip.raw clip.mp4
+    public static Sink open(Path path, int width, int height) throws IOException
+    {
+        if(width < 1 || height < 1 || width > 0x8000 || height > 0x8000)
+            throw new IllegalArgumentException("Image size " + width + "x" + height + " out of range 1 to 32768");
+        String name = path.getFileName().toString().toLowerCase();
+        if(name.endsWith(".gif"))
+            return new GifSink(new BufferedOutputStream(Files.newOutputStream(path)), width, height);
+        if(name.endsWith(".png"))
+            return new PngSink(path, width, height);
+        return new RawSink(new BufferedOutputStream(Files.newOutputStream(path)), width, height);
+    }
+
+    // frames offered so far, dropped ones included; thread running the machine only
+    public long getOffered()
+    {
+        return offered;
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getWritten()
+    {
+        return written;
+    }
+
+    // called after a frame was presented, numbered by Chip8.getFrames(); false if it was dropped
+    public boolean offer(Chip8 chip8)
+    {
+        return offer(chip8, chip8.getFrames());
+    }
+
+    // same for the screen shown in 'frame', e.g. counted by wall-clock time if the machine doesn't run
+    // frames while it waits for a key
+    public boolean offer(Chip8 chip8, long frame)
+    {
+        if(frame < lastFrame)
+            throw new IllegalArgumentException("Frame " + frame + " offered after frame " + lastFrame);
+        lastFrame = frame;
+        offered++;
+        long t = tail.get();
+        if(t - head.get() == frames.length || failure != null)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) t & mask;
+        long[] rows = frames[slot];
+        for(int y = 0; y < Chip8.HEIGHT; y++)
+            rows[y] = chip8.getRow(y);
+        frameNumbers[slot] = frame;
+        tail.lazySet(t + 1);                                // publishes the rows copied above
+        if(waiting)
+            LockSupport.unpark(thread);
+        return true;
+    }
+
+    private void encode()
+    {
+        try {
+            while(true)
+            {
+                long h = head.get();
+                if(h == tail.get())
+                {
+                    if(!running)
+                        return;
+                    waiting = true;
+                    if(h == tail.get() && running)
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    waiting = false;
+                    continue;
+                }
+                int slot = (int) h & mask;
+                sink.write(frames[slot], frameNumbers[slot]);
+                head.lazySet(h + 1);                        // lets offer() reuse the buffer
+                written++;
+            }
+        }catch(IOException ioe) {
+            failure = ioe;                                  // drop everything from now on, close() reports it
+        }
+    }
+
+    // encodes the frames still waiting, then closes the sink
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        }catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sink.close();
+        } finally {
+            if(failure != null)
+                throw failure;
+        }
+    }
+
+    // nearest neighbour scaling of a screen to one byte per pixel, 'off' or 'on'
+    static void scale(long[] rows, int width, int height, byte[] target, byte off, byte on)
+    {
+        for(int y = 0; y < height; y++)
+        {
+            int screenY = y * Chip8.HEIGHT / height;
+            if(y > 0 && screenY == (y - 1) * Chip8.HEIGHT / height)
+            {
+                System.arraycopy(target, (y - 1) * width, target, y * width, width);
+                continue;
+            }
+            long row = rows[screenY];
+            for(int x = 0, i = y * width; x < width; x++, i++)
+                target[i] = (row << (x * Chip8.WIDTH / width)) < 0 ? on : off;
+        }
+    }
+
+    // frames that look the same as the one before only make it stay longer, frames coming less than
+    // MIN_DELAY after the last one replace it - most players show shorter delays much slower
+    private static class GifSink implements Sink
+    {
+        private static final int MIN_DELAY = 2;             // hundredths of a second
+
+        private final OutputStream out;
+        private final GifEncoder encoder;
+        private final long[] pending = new long[Chip8.HEIGHT];
+        private long pendingFrame = -1;                     // -1 = nothing pending
+        private long lastFrame;
+
+        GifSink(OutputStream out, int width, int height) throws IOException
+        {
+            this.out = out;
+            encoder = new GifEncoder(out, width, height);
+        }
+
+        @Override
+        public void write(long[] rows, long frame) throws IOException
+        {
+            lastFrame = frame;
+            if(pendingFrame >= 0)
+            {
+                if(Arrays.equals(rows, pending))
+                    return;
+                if(centis(frame) - centis(pendingFrame) < MIN_DELAY)
+                {
+                    System.arraycopy(rows, 0, pending, 0, Chip8.HEIGHT);
+                    return;
+                }
+                encoder.addFrame(pending, centis(frame) - centis(pendingFrame));
+            }
+            System.arraycopy(rows, 0, pending, 0, Chip8.HEIGHT);
+            pendingFrame = frame;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                if(pendingFrame >= 0)
+                    encoder.addFrame(pending, Math.max(MIN_DELAY, centis(lastFrame + 1) - centis(pendingFrame)));
+                encoder.finish();
+            } finally {
+                out.close();
+            }
+        }
+
+        // time from the first frame to the start of 'frame'
+        private static int centis(long frame)
+        {
+            return (int) (frame * 100 / FrameScheduler.FRAME_RATE);
+        }
+    }
+
+    // name.png -> name-000000.png, name-000001.png, ... numbered by frame
+    private static class PngSink implements Sink
+    {
+        private final PngEncoder encoder = new PngEncoder();
+        private final Path directory;
+        private final String prefix;
+        private final int width;
+        private final int height;
+
+        PngSink(Path path, int width, int height)
+        {
+            String name = path.getFileName().toString();
+            directory = path.toAbsolutePath().getParent();
+            prefix = name.substring(0, name.length() - ".png".length());
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void write(long[] rows, long frame) throws IOException
+        {
+            Path file = directory.resolve(String.format("%s-%06d.png", prefix, frame));
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                encoder.encode(rows, width, height, out);
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // one image per frame at FRAME_RATE: a frame that stayed on screen is repeated, of frames with the
+    // same number the last one is written. The newest frame waits in 'pixels' until the next number comes
+    private static class RawSink implements Sink
+    {
+        private final OutputStream out;
+        private final int width;
+        private final int height;
+        private final byte[] pixels;
+        private long pending = -1;                          // number of the frame in 'pixels', -1 = none yet
+
+        RawSink(OutputStream out, int width, int height)
+        {
+            this.out = out;
+            this.width = width;
+            this.height = height;
+            pixels = new byte[width * height];
+        }
+
+        @Override
+        public void write(long[] rows, long frame) throws IOException
+        {
+            for(; pending >= 0 && pending < frame; pending++)
+                out.write(pixels);                          // the previous frame, as long as it was shown
+            scale(rows, width, height, pixels, (byte) 0, (byte) 0xFF);
+            pending = frame;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                if(pending >= 0)
+                    out.write(pixels);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.kgeleta;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Drives a Chip8 in 60 Hz frames: a configurable number of instructions is executed in a tight loop,
+// then the timers tick once. Frames are paced against absolute deadlines, so oversleeping in one frame
+// is compensated in the next one instead of accumulating as drift.
+//
+// In turbo mode frames run back to back without any pacing. Every frame still has the same number of
+// instructions per timer tick, so games just run faster. Only some frames are shown: every Nth one,
+// or by default as many as fit in 60 per second of wall-clock time.
+public class FrameScheduler
+{
+    public static final int FRAME_RATE = 60;                        // timers always tick at 60 Hz
+    public static final long FRAME_NANOS = 1_000_000_000L / FRAME_RATE;
+    public static final int DEFAULT_CYCLES_PER_FRAME = 10;
+    public static final int MAX_CYCLES_PER_FRAME = 100_000;
+
+    private static final long MAX_LAG = 5 * FRAME_NANOS;            // after a longer stall start over instead of catching up
+    private static final long SPEED_INTERVAL = 500_000_000L;        // achieved speed is averaged over half a second
+
+    private volatile int cyclesPerFrame = DEFAULT_CYCLES_PER_FRAME;
+    private long deadline;                                          // System.nanoTime() of the next frame start
+    private Metrics metrics;                                        // null = frames are not measured
+
+    private volatile boolean turbo;
+    private volatile int frameSkip;                                 // turbo: show every Nth frame, 0 = by wall-clock time
+    private long lastPresent;
+    private int framesSincePresent;
+
+    private volatile double speed = 1;                              // emulated time / wall-clock time
+    private long speedStart;
+    private int speedFrames;
+
+    public int getCyclesPerFrame()
+    {
+        return cyclesPerFrame;
+    }
+
+    public void setCyclesPerFrame(int cyclesPerFrame)
+    {
+        if(cyclesPerFrame < 1 || cyclesPerFrame > MAX_CYCLES_PER_FRAME)
+            throw new IllegalArgumentException("Cycles per frame should be in range 1 to " + MAX_CYCLES_PER_FRAME);
+        this.cyclesPerFrame = cyclesPerFrame;
+    }
+
+    public int getInstructionsPerSecond()
+    {
+        return cyclesPerFrame * FRAME_RATE;
+    }
+
+    // target speed in Hz is rounded to the nearest whole number of cycles per frame
+    public void setInstructionsPerSecond(int hz)
+    {
+        setCyclesPerFrame(Math.max(1, Math.round(hz / (float) FRAME_RATE)));
+    }
+
+    public boolean isTurbo()
+    {
+        return turbo;
+    }
+
+    public void setTurbo(boolean turbo)
+    {
+        this.turbo = turbo;
+    }
+
+    public int getFrameSkip()
+    {
+        return frameSkip;
+    }
+
+    // in turbo mode only every 'frameSkip'th frame is shown, 0 = at most FRAME_RATE frames per second
+    public void setFrameSkip(int frameSkip)
+    {
+        if(frameSkip < 0)
+            throw new IllegalArgumentException("Frame skip should not be negative");
+        this.frameSkip = frameSkip;
+    }
+
+    // how many times faster than real time the emulation ran recently, about 1 unless in turbo mode
+    public double getSpeed()
+    {
+        return speed;
+    }
+
+    public void setMetrics(Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    // returns the number of cycles the frame had
+    public int runFrame(Chip8 chip8)
+    {
+        int cycles = cyclesPerFrame;
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        chip8.runFrame(cycles);
+        if(Metrics.ENABLED && metrics != null)
+            metrics.frameExecuted(start, cycles, cycles * FRAME_RATE);
+
+        speedFrames++;
+        long now = System.nanoTime();
+        if(speedStart == 0)
+            speedStart = now;
+        else if(now - speedStart >= SPEED_INTERVAL)
+        {
+            speed = speedFrames * (double) FRAME_NANOS / (now - speedStart);
+            speedStart = now;
+            speedFrames = 0;
+        }
+        return cycles;
+    }
+
+    // true if the frame that just ran should be shown
+    public boolean shouldPresent()
+    {
+        if(!turbo)
+            return true;
+        framesSincePresent++;
+        long now = System.nanoTime();
+        int skip = frameSkip;
+        if(skip > 0 ? framesSincePresent < skip : now - lastPresent < FRAME_NANOS)
+            return false;
+        lastPresent = now;
+        framesSincePresent = 0;
+        return true;
+    }
+
+    // parks the calling thread until the next frame is due
+    public void sync()
+    {
+        if(turbo)
+        {
+            deadline = 0;                                           // pacing starts over once turbo ends
+            return;
+        }
+        long now = System.nanoTime();
+        if(deadline == 0 || now - deadline > MAX_LAG)
+            deadline = now;
+        deadline += FRAME_NANOS;
+
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+
+    // forget the current deadline, e.g. after the emulation was paused
+    public void reset()
+    {
+        deadline = 0;
+        speedStart = 0;
+        speedFrames = 0;
+    }
+}
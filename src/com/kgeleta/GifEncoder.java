@@ -0,0 +1,144 @@
+package com.kgeleta;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Writes CHIP-8 screens as a black and white animated GIF that loops forever, scaled to any size with
+// nearest neighbour sampling. Every frame is a full image with a two colour palette, LZW compressed.
+// Like PngEncoder it needs nothing of AWT and reuses its buffers, so one instance per output.
+public class GifEncoder
+{
+    private static final int MIN_CODE_SIZE = 2;             // smallest the format allows, even for two colours
+    private static final int CLEAR = 1 << MIN_CODE_SIZE;
+    private static final int END = CLEAR + 1;
+    private static final int MAX_CODE = 4095;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final byte[] pixels;                            // colour index of every pixel of the frame
+    private final int[] children = new int[(MAX_CODE + 1) * 2];    // LZW string + pixel -> its code, 0 = none
+    private final byte[] block = new byte[256];             // data sub-block being filled, length first
+    private int blockLength;
+    private int bits;                                       // bits not written yet, lowest first
+    private int bitCount;
+
+    public GifEncoder(OutputStream out, int width, int height) throws IOException
+    {
+        if(width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF)
+            throw new IllegalArgumentException("Image size " + width + "x" + height + " out of range 1 to 65535");
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        pixels = new byte[width * height];
+
+        out.write(new byte[] {'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(width);
+        writeShort(height);
+        out.write(0x80);                                    // global palette of 2 entries
+        out.write(0);                                       // background colour
+        out.write(0);                                       // pixel aspect ratio
+        out.write(new byte[] {0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});    // black, white
+        out.write(new byte[] {0x21, (byte) 0xFF, 11, 'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0', 3, 1, 0, 0, 0});
+    }
+
+    // 'rows' as returned by Chip8.getRow(), shown for 'delay' hundredths of a second
+    public void addFrame(long[] rows, int delay) throws IOException
+    {
+        FrameCapture.scale(rows, width, height, pixels, (byte) 0, (byte) 1);
+
+        out.write(new byte[] {0x21, (byte) 0xF9, 4, 0x04});    // graphic control: keep the frame when the next one comes
+        writeShort(Math.max(0, Math.min(0xFFFF, delay)));
+        out.write(new byte[] {0, 0});
+        out.write(0x2C);                                    // image descriptor
+        writeShort(0);
+        writeShort(0);
+        writeShort(width);
+        writeShort(height);
+        out.write(0);                                       // global palette, not interlaced
+        out.write(MIN_CODE_SIZE);
+        compress();
+        out.write(0);                                       // end of the image data
+    }
+
+    // writes the trailer, the stream itself stays open
+    public void finish() throws IOException
+    {
+        out.write(0x3B);
+        out.flush();
+    }
+
+    private void compress() throws IOException
+    {
+        Arrays.fill(children, 0);
+        int codeSize = MIN_CODE_SIZE + 1;
+        int lastCode = END;
+        blockLength = 0;
+        bits = 0;
+        bitCount = 0;
+        writeCode(CLEAR, codeSize);
+
+        int prefix = pixels[0];
+        for(int i = 1; i < pixels.length; i++)
+        {
+            int pixel = pixels[i];
+            int child = children[prefix * 2 + pixel];
+            if(child != 0)
+            {
+                prefix = child;
+                continue;
+            }
+            writeCode(prefix, codeSize);
+            children[prefix * 2 + pixel] = ++lastCode;
+            if(lastCode >= 1 << codeSize)
+                codeSize++;
+            if(lastCode == MAX_CODE)
+            {
+                writeCode(CLEAR, codeSize);         // table is full, start over
+                Arrays.fill(children, 0);
+                codeSize = MIN_CODE_SIZE + 1;
+                lastCode = END;
+            }
+            prefix = pixel;
+        }
+        writeCode(prefix, codeSize);
+        writeCode(END, codeSize);
+        if(bitCount > 0)
+            writeByte(bits);
+        if(blockLength > 0)
+        {
+            block[0] = (byte) blockLength;
+            out.write(block, 0, 1 + blockLength);
+        }
+    }
+
+    private void writeCode(int code, int codeSize) throws IOException
+    {
+        bits |= code << bitCount;
+        bitCount += codeSize;
+        while(bitCount >= 8)
+        {
+            writeByte(bits);
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(int value) throws IOException
+    {
+        block[++blockLength] = (byte) value;
+        if(blockLength == 255)
+        {
+            block[0] = (byte) blockLength;
+            out.write(block, 0, 256);
+            blockLength = 0;
+        }
+    }
+
+    private void writeShort(int value) throws IOException
+    {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+}
@@ -0,0 +1,232 @@
+package com.kgeleta;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Runs a ROM from the command line for a fixed number of frames or instructions and prints the hash of
+// the final screen and timing. Touches no AWT, Swing or sound class, so it needs no display and starts
+// as fast as the JVM does - see the pom.xml for a class data sharing archive that cuts startup further.
+//
+//   java -cp out com.kgeleta.Headless game.ch8 [--frames 600 | --cycles 6000] [--png screen.png] [--text]
+//   java -cp out com.kgeleta.Headless game.ch8 --engine dynarec --trace dynarec.c8t     (see TraceReader)
+//   java -cp out com.kgeleta.Headless game.ch8 --quirks vip                             (see QuirkProfile)
+//   java -cp out com.kgeleta.Headless game.ch8 --capture clip.gif --capture-size 320x160 (see FrameCapture)
+//   java -cp out com.kgeleta.Headless game.ch8 --frames 36000 --spectators 8088         (see SpectatorClient)
+public class Headless
+{
+    private static final String USAGE = "Usage: Headless <rom> [--frames N | --cycles N] [--cycles-per-frame N] [--engine NAME]\n"
+            + "                [--quirks NAME] [--seed N] [--png FILE] [--scale N] [--text] [--trace FILE]\n"
+            + "                [--capture FILE] [--capture-size WxH] [--spectators PORT]";
+    private static final int MAX_CAPTURE_BUFFER = 4096;    // frames, 1 MB
+
+    public static void main(String[] args)
+    {
+        long mainStarted = System.nanoTime();
+        if(args.length == 0)
+            fail(USAGE, 2);
+
+        int frames = 600;
+        long cycles = -1;                                   // -1 = run 'frames' frames
+        int cyclesPerFrame = FrameScheduler.DEFAULT_CYCLES_PER_FRAME;
+        EngineType engine = EngineType.PREDECODED;
+        QuirkProfile quirks = QuirkProfile.CLASSIC;
+        long seed = 0;
+        String png = null;
+        int scale = 10;
+        boolean text = false;
+        String trace = null;
+        String capture = null;
+        int captureWidth = -1;                              // -1 = screen size times 'scale'
+        int captureHeight = -1;
+        int spectatorPort = -1;                             // -1 = not streamed, 0 = any free port
+        try {
+            for(int i = 1; i < args.length; i++)
+            {
+                switch(args[i])
+                {
+                    case "--frames":            frames = Integer.parseInt(args[++i]);  break;
+                    case "--cycles":            cycles = Long.parseLong(args[++i]);  break;
+                    case "--cycles-per-frame":  cyclesPerFrame = Integer.parseInt(args[++i]);  break;
+                    case "--engine":            engine = EngineType.valueOf(args[++i].toUpperCase());  break;
+                    case "--quirks":            quirks = QuirkProfile.valueOf(args[++i].toUpperCase());  break;
+                    case "--seed":              seed = Long.parseLong(args[++i]);  break;
+                    case "--png":               png = args[++i];  break;
+                    case "--scale":             scale = Integer.parseInt(args[++i]);  break;
+                    case "--text":              text = true;  break;
+                    case "--trace":             trace = args[++i];  break;
+                    case "--capture":           capture = args[++i];  break;
+                    case "--capture-size":
+                        String[] size = args[++i].toLowerCase().split("x");
+                        if(size.length != 2)
+                            throw new IllegalArgumentException("size should look like 640x320, not " + args[i]);
+                        captureWidth = Integer.parseInt(size[0]);
+                        captureHeight = Integer.parseInt(size[1]);
+                        break;
+                    case "--spectators":        spectatorPort = Integer.parseInt(args[++i]);  break;
+                    default:                    fail("Unknown option " + args[i] + "\n" + USAGE, 2);
+                }
+            }
+        }catch(ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            fail("Wrong arguments: " + e.getMessage() + "\n" + USAGE, 2);
+        }
+        if(frames < 0 || cycles < -1 || cyclesPerFrame < 1 || cyclesPerFrame > FrameScheduler.MAX_CYCLES_PER_FRAME || scale < 1
+                || spectatorPort < -1 || spectatorPort > 0xFFFF)
+            fail("Argument out of range\n" + USAGE, 2);
+
+        if(trace != null)
+            System.setProperty("chip8.trace", "true");     // Tracer isn't loaded yet, so its ENABLED will be true
+        Chip8 chip8 = new Chip8();
+        chip8.setEngine(engine);
+        chip8.setQuirks(quirks);
+        chip8.initialize(seed);
+        Tracer tracer = null;
+        try {
+            chip8.loadFile(args[0]);
+            if(trace != null)
+            {
+                tracer = new Tracer(Paths.get(trace));
+                chip8.setTracer(tracer);
+            }
+        }catch(IOException ioe) {
+            fail("Cannot open " + ioe.getMessage(), 1);
+        }
+        FrameCapture frameCapture = null;
+        if(capture != null)
+        {
+            // room for the whole run if it is short, so that a clip from CI has no gaps
+            long expected = cycles >= 0 ? cycles / cyclesPerFrame : frames;
+            int capacity = 2;
+            while(capacity < Math.min(expected, MAX_CAPTURE_BUFFER))
+                capacity *= 2;
+            try {
+                frameCapture = new FrameCapture(FrameCapture.open(Paths.get(capture),
+                        captureWidth > 0 ? captureWidth : Chip8.WIDTH * scale,
+                        captureHeight > 0 ? captureHeight : Chip8.HEIGHT * scale), capacity);
+            }catch(IllegalArgumentException iae) {
+                fail("Wrong arguments: " + iae.getMessage() + "\n" + USAGE, 2);
+            }catch(IOException ioe) {
+                fail("Cannot write " + capture + ": " + ioe.getMessage(), 1);
+            }
+        }
+
+        // spectators watch and play in real time, so frames are paced then
+        SpectatorServer spectators = null;
+        SpectatorServer.Stream stream = null;
+        FrameScheduler pacing = null;
+        if(spectatorPort >= 0)
+        {
+            try {
+                spectators = new SpectatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), spectatorPort));
+                stream = spectators.openStream();
+                pacing = new FrameScheduler();
+                System.err.println("Spectators can connect to port " + spectators.getAddress().getPort());
+            }catch(IOException ioe) {
+                fail("Cannot open spectator port " + spectatorPort + ": " + ioe.getMessage(), 1);
+            }
+        }
+
+        // frames of 'cyclesPerFrame' instructions, timers tick after each; the rest of 'cycles' without a tick
+        long start = System.nanoTime();
+        long executed;
+        if(cycles >= 0)
+        {
+            long fullFrames = cycles / cyclesPerFrame;
+            for(long frame = 0; frame < fullFrames; frame++)
+                runFrame(chip8, cyclesPerFrame, frameCapture, stream, pacing);
+            for(long i = fullFrames * cyclesPerFrame; i < cycles; i++)
+                chip8.cycle();
+            frames = (int) Math.min(Integer.MAX_VALUE, fullFrames);
+            executed = cycles;
+        }
+        else
+        {
+            for(int frame = 0; frame < frames; frame++)
+                runFrame(chip8, cyclesPerFrame, frameCapture, stream, pacing);
+            executed = (long) frames * cyclesPerFrame;
+        }
+        long elapsed = System.nanoTime() - start;
+        if(tracer != null)
+        {
+            try {
+                tracer.close();
+            }catch(IOException ioe) {
+                fail("Cannot write trace: " + ioe.getMessage(), 1);
+            }
+        }
+        if(frameCapture != null)
+        {
+            try {
+                frameCapture.close();
+            }catch(IOException ioe) {
+                fail("Cannot write " + capture + ": " + ioe.getMessage(), 1);
+            }
+        }
+        if(spectators != null)
+        {
+            try {
+                spectators.close();
+            }catch(IOException ignored) {}
+        }
+
+        System.out.printf("hash %016x%n", chip8.getScreenHash());
+        if(text)
+            System.out.print(textDump(chip8));
+        if(png != null)
+        {
+            long[] rows = new long[Chip8.HEIGHT];
+            for(int y = 0; y < Chip8.HEIGHT; y++)
+                rows[y] = chip8.getRow(y);
+            try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(png)))) {
+                new PngEncoder().encode(rows, Chip8.WIDTH * scale, Chip8.HEIGHT * scale, out);
+            }catch(IOException ioe) {
+                fail("Cannot write " + png + ": " + ioe.getMessage(), 1);
+            }
+        }
+
+        System.out.printf("frames %d, instructions %d, run %.3f ms, %.2f MIPS, main %.3f ms%n",
+                frames, executed, elapsed / 1e6, executed * 1e3 / Math.max(1, elapsed), (System.nanoTime() - mainStarted) / 1e6);
+        if(frameCapture != null)
+            System.out.printf("capture %d frames, %d dropped%n", frameCapture.getWritten(), frameCapture.getDropped());
+    }
+
+    // 'stream' null = nobody watches, 'pacing' is only needed if somebody does
+    private static void runFrame(Chip8 chip8, int cycles, FrameCapture capture, SpectatorServer.Stream stream, FrameScheduler pacing)
+    {
+        if(stream != null)
+            chip8.setKeys(stream.getKeyInput().poll());    // keys only change between frames
+        chip8.runFrame(cycles);
+        if(capture != null)
+            capture.offer(chip8);
+        if(stream != null)
+        {
+            stream.publish(chip8);
+            pacing.sync();
+        }
+    }
+
+    // the screen as 32 lines of '#' and '.'
+    static String textDump(Chip8 chip8)
+    {
+        StringBuilder dump = new StringBuilder((Chip8.WIDTH + 1) * Chip8.HEIGHT);
+        for(int y = 0; y < Chip8.HEIGHT; y++)
+        {
+            long row = chip8.getRow(y);
+            for(int x = 0; x < Chip8.WIDTH; x++, row <<= 1)
+                dump.append(row < 0 ? '#' : '.');
+            dump.append('\n');
+        }
+        return dump.toString();
+    }
+
+    // 2 = wrong arguments, 1 = anything else
+    private static void fail(String message, int status)
+    {
+        System.err.println(message);
+        System.exit(status);
+    }
+}
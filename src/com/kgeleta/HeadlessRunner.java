@@ -0,0 +1,272 @@
+package com.kgeleta;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs many independent Chip8 machines without any GUI. Machines are stepped on a work-stealing
+// pool, every machine gets the same cycle budget per run() call, so throughput scales with cores.
+// Nothing is paced - timers tick once per 'cyclesPerFrame' instructions, as if frames came back to back.
+// A frame may span run() calls, every machine remembers how far into its frame it got.
+public class HeadlessRunner implements AutoCloseable
+{
+    private final ForkJoinPool pool;
+    private final List<Chip8> machines = new ArrayList<>();
+    private final List<State> states = new ArrayList<>();              // of each machine
+    private int cyclesPerFrame = FrameScheduler.DEFAULT_CYCLES_PER_FRAME;
+    private EngineType engineType = EngineType.PREDECODED;
+    private MemoryArena arena;                  // null = every machine has its own heap memory
+
+    public HeadlessRunner()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public HeadlessRunner(int parallelism)
+    {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public Chip8 add(byte[] rom)
+    {
+        Chip8 chip8 = newMachine();
+        chip8.loadRom(rom);
+        machines.add(chip8);
+        states.add(new State());
+        return chip8;
+    }
+
+    // same for a ROM in a buffer, e.g. RomLibrary.read()
+    public Chip8 add(ByteBuffer rom)
+    {
+        Chip8 chip8 = newMachine();
+        chip8.loadRom(rom);
+        machines.add(chip8);
+        states.add(new State());
+        return chip8;
+    }
+
+    // every full frame 'machine' runs from now on is offered to 'capture' (null = none), which the caller closes
+    public void capture(Chip8 machine, FrameCapture capture)
+    {
+        state(machine).capture = capture;
+    }
+
+    // every full frame 'machine' runs from now on is published to 'stream' (null = none), and the keys of
+    // its spectators are the keys of the machine, e.g. to watch or play a machine of a batch job
+    public void publish(Chip8 machine, SpectatorServer.Stream stream)
+    {
+        state(machine).stream = stream;
+    }
+
+    private State state(Chip8 machine)
+    {
+        int index = machines.indexOf(machine);
+        if(index < 0)
+            throw new IllegalArgumentException("Not a machine of this runner");
+        return states.get(index);
+    }
+
+    private Chip8 newMachine()
+    {
+        Chip8 chip8 = arena == null ? new Chip8() : new Chip8(arena.allocate());
+        chip8.setEngine(engineType);
+        chip8.initialize();
+        return chip8;
+    }
+
+    public List<Chip8> getMachines()
+    {
+        return Collections.unmodifiableList(machines);
+    }
+
+    // RAM of machines added from now on comes from one off-heap block with room for 'machines' machines
+    public void useOffHeapMemory(int machines)
+    {
+        arena = new MemoryArena(machines);
+    }
+
+    public EngineType getEngineType()
+    {
+        return engineType;
+    }
+
+    // engine used by machines added from now on
+    public void setEngineType(EngineType engineType)
+    {
+        this.engineType = engineType;
+    }
+
+    public int getCyclesPerFrame()
+    {
+        return cyclesPerFrame;
+    }
+
+    public void setCyclesPerFrame(int cyclesPerFrame)
+    {
+        if(cyclesPerFrame < 1 || cyclesPerFrame > FrameScheduler.MAX_CYCLES_PER_FRAME)
+            throw new IllegalArgumentException("Cycles per frame should be in range 1 to " + FrameScheduler.MAX_CYCLES_PER_FRAME);
+        this.cyclesPerFrame = cyclesPerFrame;
+    }
+
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    // executes 'cyclesPerMachine' instructions on every machine and blocks until all are done
+    public Result run(long cyclesPerMachine)
+    {
+        LongAdder executed = new LongAdder();
+        RuntimeException[] failures = new RuntimeException[machines.size()];
+
+        long start = System.nanoTime();
+        pool.invoke(new Batch(0, machines.size(), cyclesPerMachine, executed, failures));
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(failures, executed.sum(), elapsed);
+    }
+
+    @Override
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    // what a machine carries from one run() to the next
+    private static class State
+    {
+        FrameCapture capture;                   // null = not captured
+        SpectatorServer.Stream stream;          // null = not published
+        int frameCycles;                        // instructions run in the current frame
+    }
+
+    // splits the machine list in halves until a single machine is left, idle workers steal the rest
+    @SuppressWarnings("serial")                 // never serialized
+    private class Batch extends RecursiveAction
+    {
+        private final int from;
+        private final int to;
+        private final long cycles;
+        private final LongAdder executed;
+        private final RuntimeException[] failures;
+
+        Batch(int from, int to, long cycles, LongAdder executed, RuntimeException[] failures)
+        {
+            this.from = from;
+            this.to = to;
+            this.cycles = cycles;
+            this.executed = executed;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(to - from > 1)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Batch(from, middle, cycles, executed, failures),
+                          new Batch(middle, to, cycles, executed, failures));
+                return;
+            }
+            if(from == to)
+                return;
+
+            Chip8 chip8 = machines.get(from);
+            State state = states.get(from);
+            long done = 0;
+            try {
+                while(done < cycles)
+                {
+                    if(state.frameCycles == 0 && state.stream != null)
+                        chip8.setKeys(state.stream.getKeyInput().poll());   // keys only change between frames
+                    if(state.frameCycles == 0 && cycles - done >= cyclesPerFrame)
+                    {
+                        chip8.runFrame(cyclesPerFrame);
+                        done += cyclesPerFrame;
+                    }
+                    else
+                    {
+                        chip8.cycle();                  // frame split between run() calls
+                        done++;
+                        if(++state.frameCycles < cyclesPerFrame)
+                            continue;
+                        state.frameCycles = 0;
+                        chip8.tickTimers();
+                    }
+                    if(state.capture != null)
+                        state.capture.offer(chip8);
+                    if(state.stream != null)
+                        state.stream.publish(chip8);
+                }
+            }catch(RuntimeException re) {
+                failures[from] = re;                    // broken ROM - stop this machine, keep the others going
+            }
+            executed.add(done);
+        }
+    }
+
+    public static class Result
+    {
+        private final RuntimeException[] failures;      // by machine, null = no failure
+        private final int failed;
+        private final long instructions;
+        private final long nanos;
+
+        Result(RuntimeException[] failures, long instructions, long nanos)
+        {
+            this.failures = failures;
+            this.instructions = instructions;
+            this.nanos = nanos;
+
+            int count = 0;
+            for(RuntimeException failure : failures)
+                if(failure != null)
+                    count++;
+            failed = count;
+        }
+
+        public int getMachines()
+        {
+            return failures.length;
+        }
+
+        public int getFailed()
+        {
+            return failed;
+        }
+
+        // what stopped the machine with index 'machine' in getMachines() during the run, null if it ran to the end
+        public RuntimeException getFailure(int machine)
+        {
+            return failures[machine];
+        }
+
+        public long getInstructions()
+        {
+            return instructions;
+        }
+
+        public long getNanos()
+        {
+            return nanos;
+        }
+
+        public double getInstructionsPerSecond()
+        {
+            return nanos == 0 ? 0 : instructions * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d machines (%d failed), %d instructions in %.3f ms, %.0f instructions/s",
+                    failures.length, failed, instructions, nanos / 1e6, getInstructionsPerSecond());
+        }
+    }
+}
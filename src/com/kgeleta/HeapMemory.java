@@ -0,0 +1,58 @@
+package com.kgeleta;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Memory backed by a plain byte array on the Java heap
+public class HeapMemory implements Memory
+{
+    private final byte[] data = new byte[SIZE];
+
+    @Override
+    public int read(int address)
+    {
+        return data[address & MASK] & 0xFF;
+    }
+
+    @Override
+    public void write(int address, int value)
+    {
+        data[address & MASK] = (byte) value;
+    }
+
+    @Override
+    public void load(int address, byte[] source, int offset, int length)
+    {
+        System.arraycopy(source, offset, data, address, length);
+    }
+
+    @Override
+    public void load(int address, ByteBuffer source)
+    {
+        source.get(source.position(), data, address, source.remaining());
+    }
+
+    @Override
+    public void store(int address, byte[] target, int offset, int length)
+    {
+        System.arraycopy(data, address, target, offset, length);
+    }
+
+    @Override
+    public void copyTo(ByteBuffer target)
+    {
+        target.put(data);
+    }
+
+    @Override
+    public void copyFrom(ByteBuffer source)
+    {
+        source.get(data);
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(data, (byte) 0);
+    }
+}
@@ -0,0 +1,262 @@
+package com.kgeleta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// Everything needed to reproduce a session exactly: random seed, ROM, quirk profile and the frames on
+// which the pressed keys or the emulation speed changed. Keys are only applied at frame boundaries, so
+// with those a machine goes through exactly the same states again. Every CHECKPOINT_INTERVAL frames
+// the screen hash is stored as well, replaying verifies against it (see Replay).
+//
+// File: magic "C8RP", version, seed, initial cycles per frame, quirk profile name (since version 2,
+// version 1 files are CLASSIC), ROM length, ROM, number of frames, number of events, events as
+// (frame delta varint, kind byte, value varint), number of checkpoints, checkpoint hashes.
+public class InputRecording
+{
+    public static final int MAGIC = 0x43385250;             // "C8RP"
+    public static final int VERSION = 2;
+    public static final int CHECKPOINT_INTERVAL = 60;       // one per second of emulated time
+
+    static final int KEYS = 0;                              // value = pressed keys, bit 'k' = key 'k'
+    static final int SPEED = 1;                             // value = cycles per frame
+
+    private final long seed;
+    private final byte[] rom;
+    private final int cyclesPerFrame;
+    private final QuirkProfile quirks;
+
+    // event = frame << 32 | kind << 24 | value, in frame order
+    private long[] events = new long[64];
+    private int eventCount;
+    private long[] checkpoints = new long[64];              // screen hash after frame (i + 1) * CHECKPOINT_INTERVAL
+    private int checkpointCount;
+    private int frames;                                     // frames recorded so far
+
+    private int lastKeys;
+    private int lastCyclesPerFrame;
+
+    // the machine has to be initialized with 'seed' and have only 'rom' loaded
+    public InputRecording(long seed, byte[] rom, int cyclesPerFrame)
+    {
+        this(seed, rom, cyclesPerFrame, QuirkProfile.CLASSIC);
+    }
+
+    public InputRecording(long seed, byte[] rom, int cyclesPerFrame, QuirkProfile quirks)
+    {
+        this.seed = seed;
+        this.rom = rom.clone();
+        this.cyclesPerFrame = cyclesPerFrame;
+        this.quirks = quirks;
+        lastCyclesPerFrame = cyclesPerFrame;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public byte[] getRom()
+    {
+        return rom.clone();
+    }
+
+    public int getCyclesPerFrame()
+    {
+        return cyclesPerFrame;
+    }
+
+    public QuirkProfile getQuirks()
+    {
+        return quirks;
+    }
+
+    public synchronized int getFrames()
+    {
+        return frames;
+    }
+
+    // call after every frame with the keys that were pressed and the number of cycles it had
+    public synchronized void frameExecuted(int keys, int cyclesPerFrame, Chip8 chip8)
+    {
+        if(keys != lastKeys)
+            addEvent(KEYS, keys);
+        if(cyclesPerFrame != lastCyclesPerFrame)
+            addEvent(SPEED, cyclesPerFrame);
+        lastKeys = keys;
+        lastCyclesPerFrame = cyclesPerFrame;
+
+        frames++;
+        if(frames % CHECKPOINT_INTERVAL == 0)
+        {
+            if(checkpointCount == checkpoints.length)
+                checkpoints = Arrays.copyOf(checkpoints, 2 * checkpointCount);
+            checkpoints[checkpointCount++] = chip8.getScreenHash();
+        }
+    }
+
+    // forgets frames from 'frame' on, e.g. when the machine was rewound to the state before 'frame'
+    public synchronized void truncate(int frame)
+    {
+        if(frame >= frames)
+            return;
+        frames = Math.max(0, frame);
+        while(eventCount > 0 && eventFrame(events[eventCount - 1]) >= frames)
+            eventCount--;
+        checkpointCount = frames / CHECKPOINT_INTERVAL;
+
+        lastKeys = 0;
+        lastCyclesPerFrame = cyclesPerFrame;
+        for(int i = 0; i < eventCount; i++)
+        {
+            if(eventKind(events[i]) == KEYS)
+                lastKeys = eventValue(events[i]);
+            else
+                lastCyclesPerFrame = eventValue(events[i]);
+        }
+    }
+
+    private void addEvent(int kind, int value)
+    {
+        if(eventCount == events.length)
+            events = Arrays.copyOf(events, 2 * eventCount);
+        events[eventCount++] = (long) frames << 32 | kind << 24 | value;
+    }
+
+    // access for Replay:
+
+    synchronized int getEventCount()
+    {
+        return eventCount;
+    }
+
+    synchronized long getEvent(int index)
+    {
+        return events[index];
+    }
+
+    static int eventFrame(long event)
+    {
+        return (int) (event >>> 32);
+    }
+
+    static int eventKind(long event)
+    {
+        return (int) (event >>> 24) & 0xFF;
+    }
+
+    static int eventValue(long event)
+    {
+        return (int) event & 0xFFFFFF;
+    }
+
+    synchronized int getCheckpointCount()
+    {
+        return checkpointCount;
+    }
+
+    synchronized long getCheckpoint(int index)
+    {
+        return checkpoints[index];
+    }
+
+    // file format:
+
+    public synchronized void write(OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+        out.writeInt(cyclesPerFrame);
+        out.writeUTF(quirks.name());
+        out.writeInt(rom.length);
+        out.write(rom);
+        out.writeInt(frames);
+        out.writeInt(eventCount);
+        int previousFrame = 0;
+        for(int i = 0; i < eventCount; i++)
+        {
+            writeVarint(out, eventFrame(events[i]) - previousFrame);
+            out.writeByte(eventKind(events[i]));
+            writeVarint(out, eventValue(events[i]));
+            previousFrame = eventFrame(events[i]);
+        }
+        out.writeInt(checkpointCount);
+        for(int i = 0; i < checkpointCount; i++)
+            out.writeLong(checkpoints[i]);
+        out.flush();
+    }
+
+    public static InputRecording read(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(stream);
+        if(in.readInt() != MAGIC)
+            throw new IOException("Not a CHIP-8 input recording");
+        int version = in.readShort();
+        if(version != 1 && version != VERSION)
+            throw new IOException("Unsupported input recording version " + version);
+        long seed = in.readLong();
+        int cyclesPerFrame = in.readInt();
+        if(cyclesPerFrame < 1 || cyclesPerFrame > FrameScheduler.MAX_CYCLES_PER_FRAME)
+            throw new IOException("Corrupted input recording: " + cyclesPerFrame + " cycles per frame");
+        QuirkProfile quirks = version >= 2 ? QuirkProfile.forName(in.readUTF()) : QuirkProfile.CLASSIC;
+        int romLength = in.readInt();
+        if(romLength < 0 || romLength > Chip8.MAX_ROM_SIZE)
+            throw new IOException("Corrupted input recording: ROM of " + romLength + " bytes");
+        byte[] rom = new byte[romLength];
+        in.readFully(rom);
+
+        InputRecording recording = new InputRecording(seed, rom, cyclesPerFrame, quirks);
+        int frames = in.readInt();
+        int eventCount = in.readInt();
+        if(frames < 0 || eventCount < 0)
+            throw new IOException("Corrupted input recording");
+        int frame = 0;
+        for(int i = 0; i < eventCount; i++)
+        {
+            frame += readVarint(in);
+            int kind = in.readUnsignedByte();
+            int value = readVarint(in);
+            if(frame < 0 || frame > frames || (kind != KEYS && kind != SPEED) || value < 0 || value > 0xFFFFFF)
+                throw new IOException("Corrupted input recording: event " + i);
+            recording.frames = frame;
+            recording.addEvent(kind, value);
+        }
+        recording.frames = frames;
+        int checkpointCount = in.readInt();
+        if(checkpointCount < 0 || checkpointCount > frames / CHECKPOINT_INTERVAL)
+            throw new IOException("Corrupted input recording: " + checkpointCount + " checkpoints");
+        recording.checkpoints = new long[Math.max(1, checkpointCount)];
+        for(int i = 0; i < checkpointCount; i++)
+            recording.checkpoints[i] = in.readLong();
+        recording.checkpointCount = checkpointCount;
+        return recording;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException
+    {
+        while(value >= 0x80)
+        {
+            out.writeByte(value | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if(b < 0x80)
+                return value;
+        }
+        throw new IOException("Corrupted input recording: varint too long");
+    }
+}
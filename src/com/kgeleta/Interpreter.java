@@ -0,0 +1,44 @@
+package com.kgeleta;
+
+// Fetch - decode - execute of every instruction, see Chip8.interpret()
+class Interpreter implements Engine
+{
+    private final Chip8 chip8;
+
+    Interpreter(Chip8 chip8)
+    {
+        this.chip8 = chip8;
+    }
+
+    @Override
+    public int execute(int budget)
+    {
+        // a DXYN waiting for the display ends the frame
+        for(int i = 0; i < budget && !chip8.displayWait; i++)
+        {
+            if(Tracer.ENABLED && chip8.tracer != null)
+            {
+                int pc = chip8.pc;
+                int opcode = chip8.fetch(pc);
+                chip8.interpret();              // idle loops aren't skipped while tracing
+                chip8.tracer.record(chip8, pc, opcode);
+                continue;
+            }
+            int loop = chip8.interpret();
+            if(loop != 0)
+            {
+                int skipped = (budget - 1 - i) / loop * loop;   // idle loop - skip the passes left in this frame
+                if(Metrics.ENABLED)
+                    chip8.fastForwarded += skipped;
+                i += skipped;
+            }
+        }
+        return budget;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {}
+
+    @Override
+    public void reset() {}
+}
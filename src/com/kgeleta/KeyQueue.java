@@ -0,0 +1,111 @@
+package com.kgeleta;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Key events on their way from one producer thread (e.g. the Swing event thread, a network client) to
+// the thread running the machine. The queue is a fixed ring with one writer and one reader, so neither
+// side ever locks or allocates. The emulation thread calls poll() between frames and gets the keys to
+// use for the next frame; the result is also published for anybody else who wants to know the keys.
+//
+// A key pressed and released before the next poll() is still seen by the machine for one frame, the
+// release is applied on the poll after that. A consumer that parks while the machine waits for a key
+// is unparked by every key event.
+public class KeyQueue
+{
+    public static final int CAPACITY = 256;                 // power of two
+
+    private final long[] times = new long[CAPACITY];        // System.nanoTime() of the event
+    private final byte[] events = new byte[CAPACITY];       // key in the low 4 bits, PRESSED if pressed
+    private final AtomicLong head = new AtomicLong();       // next event to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong();       // next free slot, written by the producer
+
+    private static final int PRESSED = 0x10;
+
+    // producer side
+    private int producerKeys;                               // keys as the producer last reported them
+    private final AtomicInteger overflowKeys = new AtomicInteger(-1);   // keys to resync to after a full queue
+
+    // consumer side
+    private int keys;
+    private final AtomicInteger published = new AtomicInteger();
+    private Metrics metrics;                                // null = input latency is not measured
+    private volatile Thread consumer;                       // unparked on new events, may be null
+
+    public void setMetrics(Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public void setConsumer(Thread consumer)
+    {
+        this.consumer = consumer;
+    }
+
+    // producer: key 'key' (0x0 - 0xF) went down or up, repeated reports of the same state are ignored
+    public void offer(int key, boolean pressed)
+    {
+        int bit = 1 << (key & 0xF);
+        int next = pressed ? producerKeys | bit : producerKeys & ~bit;
+        if(next == producerKeys)
+            return;
+        producerKeys = next;
+
+        long t = tail.get();
+        if(t - head.get() == CAPACITY || overflowKeys.get() >= 0)
+        {
+            overflowKeys.set(next);                         // consumer is stalled, it will jump straight to these keys
+        }
+        else
+        {
+            int slot = (int) t & (CAPACITY - 1);
+            times[slot] = System.nanoTime();
+            events[slot] = (byte) ((key & 0xF) | (pressed ? PRESSED : 0));
+            tail.lazySet(t + 1);                            // publishes the slot written above
+        }
+
+        Thread waiting = consumer;
+        if(waiting != null)
+            LockSupport.unpark(waiting);
+    }
+
+    // consumer: applies queued events and returns the keys pressed now, bit 'k' = key 'k'
+    public int poll()
+    {
+        long h = head.get();
+        long t = tail.get();
+        int pressedNow = 0;                                 // keys that went down during this poll
+        for(; h < t; h++)
+        {
+            int slot = (int) h & (CAPACITY - 1);
+            int event = events[slot];
+            int bit = 1 << (event & 0xF);
+            if((event & PRESSED) != 0)
+            {
+                keys |= bit;
+                pressedNow |= bit;
+            }
+            else if((pressedNow & bit) != 0)
+                break;                                      // let the machine see the press for a frame first
+            else
+                keys &= ~bit;
+            if(Metrics.ENABLED && metrics != null)
+                metrics.inputApplied(times[slot]);
+        }
+        head.lazySet(h);
+
+        int overflow = overflowKeys.get();
+        if(overflow >= 0 && h == t && overflowKeys.compareAndSet(overflow, -1))
+            keys = overflow;
+
+        published.lazySet(keys);
+        return keys;
+    }
+
+    // keys as of the last poll(), from any thread
+    public int getKeys()
+    {
+        return published.get();
+    }
+}
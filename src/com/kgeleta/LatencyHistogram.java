@@ -0,0 +1,74 @@
+package com.kgeleta;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histogram of durations in nanoseconds with fixed relative precision, in the style of HdrHistogram:
+// every power of two is split into SUB_BUCKETS linear buckets, so any recorded value is reported
+// within about 3 % of its real value. Recording is a few shifts and one atomic increment and never
+// allocates; values above MAX_VALUE (about 18 minutes) are counted as MAX_VALUE.
+public class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+    public void record(long nanos)
+    {
+        counts.incrementAndGet(index(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    public long getCount()
+    {
+        long total = 0;
+        for(int i = 0; i < counts.length(); i++)
+            total += counts.get(i);
+        return total;
+    }
+
+    // smallest recorded value such that 'percentile' % of all values are not greater, 0 when empty
+    public long getPercentile(double percentile)
+    {
+        long total = getCount();
+        if(total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < counts.length(); i++)
+        {
+            seen += counts.get(i);
+            if(seen >= rank)
+                return highestValue(i);
+        }
+        return MAX_VALUE;
+    }
+
+    public long getMax()
+    {
+        for(int i = counts.length() - 1; i >= 0; i--)
+            if(counts.get(i) != 0)
+                return highestValue(i);
+        return 0;
+    }
+
+    public void reset()
+    {
+        for(int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+    }
+
+    // values below 2 * SUB_BUCKETS have a bucket each, above that a bucket is 2^exponent values wide
+    private static int index(long value)
+    {
+        int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+    }
+
+    private static long highestValue(int index)
+    {
+        int exponent = Math.max(0, index / SUB_BUCKETS - 1);
+        long lowest = (long) (index - exponent * SUB_BUCKETS) << exponent;
+        return lowest + (1L << exponent) - 1;
+    }
+}
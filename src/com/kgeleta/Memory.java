@@ -0,0 +1,34 @@
+package com.kgeleta;
+
+import java.nio.ByteBuffer;
+
+// 4 KB of CHIP-8 RAM. Addresses wrap around at 4 KB like the 12 bit address bus does, so
+// I-relative accesses past the end of memory can never throw.
+public interface Memory
+{
+    int SIZE = 4096;
+    int MASK = SIZE - 1;
+
+    // unsigned byte at 'address'
+    int read(int address);
+
+    // stores the lowest 8 bits of 'value'
+    void write(int address, int value);
+
+    // bulk copy from 'source' to memory, the range must fit in memory
+    void load(int address, byte[] source, int offset, int length);
+
+    // bulk copy of the bytes between position and limit of 'source', which doesn't move
+    void load(int address, ByteBuffer source);
+
+    // bulk copy from memory to 'target', the range must fit in memory
+    void store(int address, byte[] target, int offset, int length);
+
+    // copies all 4 KB to 'target' at its position and advances it
+    void copyTo(ByteBuffer target);
+
+    // replaces all 4 KB with bytes from 'source' at its position and advances it
+    void copyFrom(ByteBuffer source);
+
+    void clear();
+}
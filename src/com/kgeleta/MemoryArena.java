@@ -0,0 +1,101 @@
+package com.kgeleta;
+
+import java.nio.ByteBuffer;
+
+// One off-heap block holding the RAM of many machines back to back. Nothing of it is visible to the
+// garbage collector except a single direct buffer object per machine.
+public class MemoryArena
+{
+    private final ByteBuffer block;
+    private final int capacity;
+    private int allocated;
+
+    public MemoryArena(int machines)
+    {
+        if(machines < 1 || (long) machines * Memory.SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Number of machines should be in range 1 to " + Integer.MAX_VALUE / Memory.SIZE);
+        block = ByteBuffer.allocateDirect(machines * Memory.SIZE);
+        capacity = machines;
+    }
+
+    public synchronized Memory allocate()
+    {
+        if(allocated == capacity)
+            throw new IllegalStateException("Memory arena is full (" + capacity + " machines)");
+        ByteBuffer slice = block.slice(allocated * Memory.SIZE, Memory.SIZE);
+        allocated++;
+        return new OffHeapMemory(slice);
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized int getAllocated()
+    {
+        return allocated;
+    }
+
+    // 4 KB slice of the arena
+    private static class OffHeapMemory implements Memory
+    {
+        private final ByteBuffer data;
+
+        OffHeapMemory(ByteBuffer data)
+        {
+            this.data = data;
+        }
+
+        @Override
+        public int read(int address)
+        {
+            return data.get(address & MASK) & 0xFF;
+        }
+
+        @Override
+        public void write(int address, int value)
+        {
+            data.put(address & MASK, (byte) value);
+        }
+
+        @Override
+        public void load(int address, byte[] source, int offset, int length)
+        {
+            data.put(address, source, offset, length);
+        }
+
+        @Override
+        public void load(int address, ByteBuffer source)
+        {
+            data.put(address, source, source.position(), source.remaining());
+        }
+
+        @Override
+        public void store(int address, byte[] target, int offset, int length)
+        {
+            data.get(address, target, offset, length);
+        }
+
+        @Override
+        public void copyTo(ByteBuffer target)
+        {
+            target.put(target.position(), data, 0, SIZE);
+            target.position(target.position() + SIZE);
+        }
+
+        @Override
+        public void copyFrom(ByteBuffer source)
+        {
+            data.put(0, source, source.position(), SIZE);
+            source.position(source.position() + SIZE);
+        }
+
+        @Override
+        public void clear()
+        {
+            for(int i = 0; i < SIZE; i += 8)
+                data.putLong(i, 0L);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.kgeleta;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Timespan;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Runtime statistics of the emulator, published as an MXBean and as JFR events.
+//
+// Instruction counters live in every Chip8 (Chip8.executed) and are only written by the thread running
+// that machine, so counting is a plain array increment with no sharing between threads; readers sum the
+// counters of all watched machines. All counting is guarded by ENABLED, which is a compile time constant
+// for the JIT: unless the JVM is started with -Dchip8.metrics=true the guarded code is removed entirely.
+public class Metrics implements MetricsMXBean
+{
+    public static final boolean ENABLED = Boolean.getBoolean("chip8.metrics");
+
+    private static final String[] FAMILIES = {
+            "0NNN", "1NNN", "2NNN", "3XNN", "4XNN", "5XY0", "6XNN", "7XNN",
+            "8XYN", "9XY0", "ANNN", "BNNN", "CXNN", "DXYN", "EXNN", "FXNN"};
+    private static final long SAMPLE_NANOS = 1_000_000_000L;
+
+    private final List<Chip8> machines = new CopyOnWriteArrayList<>();
+    private final long[] baseline = new long[16];               // counts at the last reset()
+    private long fastForwardedBaseline;
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram renderTimes = new LatencyHistogram();
+    private final LatencyHistogram inputLatencies = new LatencyHistogram();
+
+    private volatile long frames;                               // only the emulation thread writes these
+    private volatile double instructionsPerSecond;
+    private volatile double framesPerSecond;
+    private volatile int targetInstructionsPerSecond;
+
+    private long sampleStart;                                   // state of the current one second sample
+    private long sampleInstructions;
+    private long sampleFrames;
+
+    public void watch(Chip8 chip8)
+    {
+        machines.add(chip8);
+    }
+
+    // makes the statistics visible to JMX clients and JFR recordings
+    public void register()
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("com.kgeleta:type=Metrics"));
+        }catch(JMException jme) {
+            System.err.println("Cannot register metrics: " + jme.getMessage());
+        }
+        FlightRecorder.addPeriodicEvent(ThroughputEvent.class, () -> {
+            ThroughputEvent event = new ThroughputEvent();
+            event.instructionsPerSecond = instructionsPerSecond;
+            event.framesPerSecond = framesPerSecond;
+            event.targetInstructionsPerSecond = targetInstructionsPerSecond;
+            event.commit();
+        });
+    }
+
+    // called by the emulation thread after every frame, 'start' is System.nanoTime() before the frame
+    public void frameExecuted(long start, int cycles, int targetInstructionsPerSecond)
+    {
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        frameTimes.record(elapsed);
+        frames++;
+        this.targetInstructionsPerSecond = targetInstructionsPerSecond;
+
+        FrameEvent event = new FrameEvent();
+        if(event.shouldCommit())
+        {
+            event.cycles = cycles;
+            event.emulationTime = elapsed;
+            event.commit();
+        }
+
+        if(sampleStart == 0)
+            sampleStart = now;
+        if(now - sampleStart >= SAMPLE_NANOS)
+        {
+            long instructions = getInstructions() + getFastForwardedInstructions();
+            double seconds = (now - sampleStart) / 1e9;
+            instructionsPerSecond = (instructions - sampleInstructions) / seconds;
+            framesPerSecond = (frames - sampleFrames) / seconds;
+            sampleStart = now;
+            sampleInstructions = instructions;
+            sampleFrames = frames;
+        }
+    }
+
+    // called by whoever paints the screen, 'start' is System.nanoTime() before painting
+    public void frameRendered(long start)
+    {
+        long elapsed = System.nanoTime() - start;
+        renderTimes.record(elapsed);
+
+        RenderEvent event = new RenderEvent();
+        if(event.shouldCommit())
+        {
+            event.renderTime = elapsed;
+            event.commit();
+        }
+    }
+
+    // called by the emulation thread when a key event that happened at 'time' reaches the machine
+    public void inputApplied(long time)
+    {
+        inputLatencies.record(System.nanoTime() - time);
+    }
+
+    @Override
+    public long getInstructions()
+    {
+        long total = 0;
+        for(long count : counts())
+            total += count;
+        return total;
+    }
+
+    @Override
+    public synchronized long getFastForwardedInstructions()
+    {
+        long total = -fastForwardedBaseline;
+        for(Chip8 chip8 : machines)
+            total += chip8.fastForwarded;
+        return total;
+    }
+
+    @Override
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    @Override
+    public double getInstructionsPerSecond()
+    {
+        return instructionsPerSecond;
+    }
+
+    @Override
+    public double getFramesPerSecond()
+    {
+        return framesPerSecond;
+    }
+
+    @Override
+    public int getTargetInstructionsPerSecond()
+    {
+        return targetInstructionsPerSecond;
+    }
+
+    @Override
+    public Map<String, Long> getOpcodeCounts()
+    {
+        long[] counts = counts();
+        Map<String, Long> result = new LinkedHashMap<>();
+        for(int i = 0; i < FAMILIES.length; i++)
+            result.put(FAMILIES[i], counts[i]);
+        return result;
+    }
+
+    @Override
+    public double getFrameTimeMedian()
+    {
+        return frameTimes.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getFrameTime99thPercentile()
+    {
+        return frameTimes.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getFrameTimeMax()
+    {
+        return frameTimes.getMax() / 1e3;
+    }
+
+    @Override
+    public double getRenderTimeMedian()
+    {
+        return renderTimes.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getRenderTime99thPercentile()
+    {
+        return renderTimes.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getRenderTimeMax()
+    {
+        return renderTimes.getMax() / 1e3;
+    }
+
+    @Override
+    public double getInputLatencyMedian()
+    {
+        return inputLatencies.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getInputLatency99thPercentile()
+    {
+        return inputLatencies.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getInputLatencyMax()
+    {
+        return inputLatencies.getMax() / 1e3;
+    }
+
+    // counters in the machines are never written by other threads, so resetting only moves the baseline
+    @Override
+    public synchronized void reset()
+    {
+        long[] counts = counts();
+        for(int i = 0; i < counts.length; i++)
+            baseline[i] += counts[i];
+        fastForwardedBaseline += getFastForwardedInstructions();
+        frameTimes.reset();
+        renderTimes.reset();
+        inputLatencies.reset();
+    }
+
+    private synchronized long[] counts()
+    {
+        long[] counts = new long[16];
+        for(Chip8 chip8 : machines)
+            for(int i = 0; i < counts.length; i++)
+                counts[i] += chip8.executed[i];
+        for(int i = 0; i < counts.length; i++)
+            counts[i] -= baseline[i];
+        return counts;
+    }
+
+    @Name("com.kgeleta.Frame")
+    @Label("Emulated Frame")
+    @Category("CHIP-8")
+    @Description("Instructions of one 1/60 s frame were executed")
+    static class FrameEvent extends Event
+    {
+        @Label("Cycles")
+        int cycles;
+
+        @Label("Emulation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long emulationTime;
+    }
+
+    @Name("com.kgeleta.Render")
+    @Label("Rendered Frame")
+    @Category("CHIP-8")
+    static class RenderEvent extends Event
+    {
+        @Label("Render Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long renderTime;
+    }
+
+    @Name("com.kgeleta.Throughput")
+    @Label("Emulation Throughput")
+    @Category("CHIP-8")
+    @Period("1 s")
+    static class ThroughputEvent extends Event
+    {
+        @Label("Instructions per Second")
+        double instructionsPerSecond;
+
+        @Label("Frames per Second")
+        double framesPerSecond;
+
+        @Label("Target Instructions per Second")
+        int targetInstructionsPerSecond;
+    }
+}
@@ -0,0 +1,47 @@
+package com.kgeleta;
+
+import java.util.Map;
+
+// Management interface of Metrics, visible in JConsole / VisualVM as com.kgeleta:type=Metrics.
+// Times are in microseconds, rates are averages over the last second.
+public interface MetricsMXBean
+{
+    // executed instructions
+    long getInstructions();
+
+    // instructions of idle loop passes the engines skipped instead of executing them
+    long getFastForwardedInstructions();
+
+    long getFrames();
+
+    // emulated instructions: executed and fast-forwarded ones, comparable to the target
+    double getInstructionsPerSecond();
+
+    double getFramesPerSecond();
+
+    int getTargetInstructionsPerSecond();
+
+    // executed instructions by the first hex digit of the opcode, e.g. "DXYN" -> 1234
+    Map<String, Long> getOpcodeCounts();
+
+    double getFrameTimeMedian();
+
+    double getFrameTime99thPercentile();
+
+    double getFrameTimeMax();
+
+    double getRenderTimeMedian();
+
+    double getRenderTime99thPercentile();
+
+    double getRenderTimeMax();
+
+    // from a key event to the frame that sees it
+    double getInputLatencyMedian();
+
+    double getInputLatency99thPercentile();
+
+    double getInputLatencyMax();
+
+    void reset();
+}
@@ -0,0 +1,334 @@
+package com.kgeleta;
+
+// Semantics of single instructions as small static methods taking the decoded NNN operand.
+// The predecoded engine calls them from its dispatch switch and the dynamic recompiler emits
+// direct calls to them, so both get one copy of the arithmetic. Methods in the first group never
+// touch pc, the caller advances it. Control flow methods in the second group update c.pc themselves
+// and expect it to point at the instruction being executed.
+final class Ops
+{
+    private Ops() {}
+
+    static int x(int nnn)
+    {
+        return nnn >>> 8;
+    }
+
+    static int y(int nnn)
+    {
+        return (nnn >>> 4) & 0xF;
+    }
+
+    // straight-line instructions:
+
+    static void cls(Chip8 c, int nnn)
+    {
+        c.clearScreen();
+    }
+
+    static void ldNN(Chip8 c, int nnn)                  // 6XNN
+    {
+        c.V[x(nnn)] = nnn & 0xFF;
+    }
+
+    static void addNN(Chip8 c, int nnn)                 // 7XNN
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        if(V[x] > (0xFF - (nnn & 0xFF)))
+            V[x] = (V[x] + (nnn & 0xFF) - 256) & 0x000000FF;
+        else
+            V[x] += (nnn & 0xFF);
+    }
+
+    static void ldVY(Chip8 c, int nnn)                  // 8XY0
+    {
+        c.V[x(nnn)] = c.V[y(nnn)];
+    }
+
+    static void or(Chip8 c, int nnn)                    // 8XY1
+    {
+        c.V[x(nnn)] |= c.V[y(nnn)];
+    }
+
+    static void and(Chip8 c, int nnn)                   // 8XY2
+    {
+        c.V[x(nnn)] &= c.V[y(nnn)];
+    }
+
+    static void xor(Chip8 c, int nnn)                   // 8XY3
+    {
+        c.V[x(nnn)] ^= c.V[y(nnn)];
+    }
+
+    // V[F] is written before V[X] is computed, exactly like Chip8.interpret() does
+    static void addVY(Chip8 c, int nnn)                 // 8XY4
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        int y = y(nnn);
+        if(V[y] > (0xFF - V[x]))
+        {
+            V[0xF] = 1;
+            V[x] = (V[y] + V[x] - 256);
+        }
+        else {
+            V[0xF] = 0;
+            V[x] = (V[y] + V[x]);
+        }
+    }
+
+    static void sub(Chip8 c, int nnn)                   // 8XY5
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        int y = y(nnn);
+        if(V[x] < V[y])
+        {
+            V[0xF] = 0;
+            V[x] = (256 - (V[y] - V[x]));
+        }
+        else {
+            V[0xF] = 1;
+            V[x] = (V[x] - V[y]);
+        }
+    }
+
+    static void shr(Chip8 c, int nnn)                   // 8XY6
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        V[0xF] = (V[x] & 0x1);
+        V[x] >>= 1;
+    }
+
+    static void subn(Chip8 c, int nnn)                  // 8XY7
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        int y = y(nnn);
+        if(V[x] > V[y])
+        {
+            V[0xF] = 0;
+            V[x] = (256 - (V[x] - V[y]));
+        }
+        else {
+            V[0xF] = 1;
+            V[x] = (V[y] - V[x]);
+        }
+    }
+
+    static void shl(Chip8 c, int nnn)                   // 8XYE
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        V[0xF] = (V[x] >> 7);
+        V[x] <<= 1;
+    }
+
+    static void ldI(Chip8 c, int nnn)                   // ANNN
+    {
+        c.I = nnn;
+    }
+
+    static void rnd(Chip8 c, int nnn)                   // CXNN
+    {
+        c.V[x(nnn)] = (c.random.nextInt(256) & (nnn & 0xFF));
+    }
+
+    static void drw(Chip8 c, int nnn)                   // DXYN
+    {
+        c.drawSprite(c.V[x(nnn)], c.V[y(nnn)], nnn & 0xF);
+    }
+
+    static void ldVxDt(Chip8 c, int nnn)                // FX07
+    {
+        c.V[x(nnn)] = c.delayTimer & 0x000000FF;
+    }
+
+    static void ldDt(Chip8 c, int nnn)                  // FX15
+    {
+        c.delayTimer = c.V[x(nnn)] & 0x000000FF;
+    }
+
+    static void ldSt(Chip8 c, int nnn)                  // FX18
+    {
+        c.soundTimer = c.V[x(nnn)] & 0x000000FF;
+    }
+
+    static void addI(Chip8 c, int nnn)                  // FX1E
+    {
+        int[] V = c.V;
+        int x = x(nnn);
+        if(c.I + V[x] > 0xFFF)
+            V[0xF] = 1;
+        else
+            V[0xF] = 0;
+        c.I += V[x];
+    }
+
+    static void ldF(Chip8 c, int nnn)                   // FX29
+    {
+        c.I = (c.V[x(nnn)] * 5 + 0x50);
+    }
+
+    static void ldB(Chip8 c, int nnn)                   // FX33
+    {
+        c.storeBcd(c.V[x(nnn)]);
+    }
+
+    static void stRegs(Chip8 c, int nnn)                // FX55
+    {
+        c.storeRegisters(x(nnn));
+    }
+
+    static void ldRegs(Chip8 c, int nnn)                // FX65
+    {
+        c.loadRegisters(x(nnn));
+    }
+
+    // variants of the above for QuirkProfile:
+
+    // V[F] is written last here, like the original interpreters do: 8FY6 leaves the shifted out bit in V[F]
+    static void shrVY(Chip8 c, int nnn)                 // 8XY6 shifting V[Y]
+    {
+        int[] V = c.V;
+        int value = V[y(nnn)] & 0xFF;
+        V[x(nnn)] = value >> 1;
+        V[0xF] = value & 0x1;
+    }
+
+    static void shlVY(Chip8 c, int nnn)                 // 8XYE shifting V[Y]
+    {
+        int[] V = c.V;
+        int value = V[y(nnn)] & 0xFF;
+        V[x(nnn)] = (value << 1) & 0xFF;
+        V[0xF] = value >> 7;
+    }
+
+    static void orVF(Chip8 c, int nnn)                  // 8XY1 resetting V[F]
+    {
+        c.V[x(nnn)] |= c.V[y(nnn)];
+        c.V[0xF] = 0;
+    }
+
+    static void andVF(Chip8 c, int nnn)                 // 8XY2 resetting V[F]
+    {
+        c.V[x(nnn)] &= c.V[y(nnn)];
+        c.V[0xF] = 0;
+    }
+
+    static void xorVF(Chip8 c, int nnn)                 // 8XY3 resetting V[F]
+    {
+        c.V[x(nnn)] ^= c.V[y(nnn)];
+        c.V[0xF] = 0;
+    }
+
+    static void drwClip(Chip8 c, int nnn)               // DXYN clipping at the edges
+    {
+        c.drawSpriteClipped(c.V[x(nnn)], c.V[y(nnn)], nnn & 0xF);
+    }
+
+    static void drwWait(Chip8 c, int nnn)               // DXYN waiting for the display, see Chip8.displayWait
+    {
+        c.drawSprite(c.V[x(nnn)], c.V[y(nnn)], nnn & 0xF);
+        c.displayWait = true;
+    }
+
+    static void drwClipWait(Chip8 c, int nnn)
+    {
+        c.drawSpriteClipped(c.V[x(nnn)], c.V[y(nnn)], nnn & 0xF);
+        c.displayWait = true;
+    }
+
+    static void stRegsX(Chip8 c, int nnn)               // FX55 adding X to I
+    {
+        c.storeRegisters(x(nnn), x(nnn));
+    }
+
+    static void stRegsKeep(Chip8 c, int nnn)            // FX55 leaving I alone
+    {
+        c.storeRegisters(x(nnn), 0);
+    }
+
+    static void ldRegsX(Chip8 c, int nnn)               // FX65 adding X to I
+    {
+        c.loadRegisters(x(nnn), x(nnn));
+    }
+
+    static void ldRegsKeep(Chip8 c, int nnn)            // FX65 leaving I alone
+    {
+        c.loadRegisters(x(nnn), 0);
+    }
+
+    // control flow:
+
+    static void ret(Chip8 c, int nnn)                   // 00EE
+    {
+        c.pc = c.stack[c.sp];
+        c.sp--;
+        c.pc += 2;
+    }
+
+    static void jp(Chip8 c, int nnn)                    // 1NNN
+    {
+        c.pc = nnn;
+    }
+
+    static void call(Chip8 c, int nnn)                  // 2NNN
+    {
+        c.sp++;
+        c.stack[c.sp] = c.pc;
+        c.pc = nnn;
+    }
+
+    static void seNN(Chip8 c, int nnn)                  // 3XNN
+    {
+        c.pc += c.V[x(nnn)] == (nnn & 0xFF) ? 4 : 2;
+    }
+
+    static void sneNN(Chip8 c, int nnn)                 // 4XNN
+    {
+        c.pc += c.V[x(nnn)] != (nnn & 0xFF) ? 4 : 2;
+    }
+
+    static void seVY(Chip8 c, int nnn)                  // 5XY0
+    {
+        c.pc += c.V[x(nnn)] == c.V[y(nnn)] ? 4 : 2;
+    }
+
+    static void sneVY(Chip8 c, int nnn)                 // 9XY0
+    {
+        c.pc += c.V[y(nnn)] != c.V[x(nnn)] ? 4 : 2;
+    }
+
+    static void jpV0(Chip8 c, int nnn)                  // BNNN
+    {
+        c.pc = c.V[0x0] + nnn;
+    }
+
+    static void jpVX(Chip8 c, int nnn)                  // BXNN
+    {
+        c.pc = c.V[x(nnn)] + nnn;
+    }
+
+    static void skp(Chip8 c, int nnn)                   // EX9E
+    {
+        c.pc += c.isKeyPressed(c.V[x(nnn)]) ? 4 : 2;
+    }
+
+    static void sknp(Chip8 c, int nnn)                  // EXA1
+    {
+        c.pc += !c.isKeyPressed(c.V[x(nnn)]) ? 4 : 2;
+    }
+
+    static void ldVxK(Chip8 c, int nnn)                 // FX0A
+    {
+        int pressed = c.pressedKey();
+        if(pressed >= 0)
+        {
+            c.V[x(nnn)] = pressed;
+            c.pc += 2;
+        }
+    }
+}
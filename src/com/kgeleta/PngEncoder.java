@@ -0,0 +1,91 @@
+package com.kgeleta;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes a CHIP-8 screen as a black and white PNG (1 bit grayscale), scaled to any size with nearest
+// neighbour sampling. Only needs java.util.zip, so using it doesn't load ImageIO or anything of AWT.
+// An encoder reuses its buffers, one instance per thread.
+public class PngEncoder
+{
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+    private byte[] raw = new byte[0];
+    private byte[] compressed = new byte[0];
+
+    // 'rows' as returned by Chip8.getRow(), the image is 'width' x 'height' pixels
+    public void encode(long[] rows, int width, int height, OutputStream out) throws IOException
+    {
+        if(width < 1 || height < 1 || width > 0x8000 || height > 0x8000)
+            throw new IllegalArgumentException("Image size " + width + "x" + height + " out of range 1 to 32768");
+
+        int stride = 1 + (width + 7) / 8;                   // filter type byte + pixels
+        if(raw.length < stride * height)
+            raw = new byte[stride * height];
+        byte[] line = new byte[stride];
+        int lastY = -1;
+        for(int y = 0; y < height; y++)
+        {
+            int screenY = y * Chip8.HEIGHT / height;
+            if(screenY != lastY)
+            {
+                long row = rows[screenY];
+                Arrays.fill(line, (byte) 0);
+                for(int x = 0; x < width; x++)
+                    if((row << (x * Chip8.WIDTH / width)) < 0)
+                        line[1 + (x >>> 3)] |= 0x80 >>> (x & 7);
+                lastY = screenY;
+            }
+            System.arraycopy(line, 0, raw, y * stride, stride);
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, stride * height);
+        deflater.finish();
+        int length = 0;
+        while(!deflater.finished())
+        {
+            if(length == compressed.length)
+                compressed = Arrays.copyOf(compressed, Math.max(1024, 2 * compressed.length));
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 1;                                      // bit depth
+        header[9] = 0;                                      // grayscale, 0 = black, 1 = white
+        chunk(out, "IHDR", header, 13);
+        chunk(out, "IDAT", compressed, length);
+        chunk(out, "IEND", header, 0);
+    }
+
+    private void chunk(OutputStream out, String type, byte[] data, int length) throws IOException
+    {
+        byte[] field = new byte[4];
+        putInt(field, 0, length);
+        out.write(field);
+        byte[] typeBytes = {(byte) type.charAt(0), (byte) type.charAt(1), (byte) type.charAt(2), (byte) type.charAt(3)};
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        crc.reset();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        putInt(field, 0, (int) crc.getValue());
+        out.write(field);
+    }
+
+    private static void putInt(byte[] target, int offset, int value)
+    {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,279 @@
+package com.kgeleta;
+
+import java.util.Arrays;
+
+// Decodes every address only once. The decoded form is a single int: handler index in the upper
+// half and the opcode in the lower half, so the NNN operand (X, Y, N and NN are all slices of it)
+// is in the lower 12 bits.
+// Execution is one switch over dense handler indexes, so the JIT turns it into a jump table.
+// Quirks of the machine's QuirkProfile are resolved when decoding, into handlers of their own.
+// Results are exactly the same as Chip8.interpret().
+class PredecodedEngine implements Engine
+{
+    // handler indexes, 0 means "not decoded yet"
+    static final int UNDECODED = 0;
+    static final int NOP = 1;           // unknown opcode - pc does not move, same as the interpreter
+    static final int CLS = 2;           // 00E0
+    static final int RET = 3;           // 00EE
+    static final int JP = 4;            // 1NNN
+    static final int CALL = 5;          // 2NNN
+    static final int SE_NN = 6;         // 3XNN
+    static final int SNE_NN = 7;        // 4XNN
+    static final int SE_VY = 8;         // 5XY0
+    static final int LD_NN = 9;         // 6XNN
+    static final int ADD_NN = 10;       // 7XNN
+    static final int LD_VY = 11;        // 8XY0
+    static final int OR = 12;           // 8XY1
+    static final int AND = 13;          // 8XY2
+    static final int XOR = 14;          // 8XY3
+    static final int ADD_VY = 15;       // 8XY4
+    static final int SUB = 16;          // 8XY5
+    static final int SHR = 17;          // 8XY6
+    static final int SUBN = 18;         // 8XY7
+    static final int SHL = 19;          // 8XYE
+    static final int SNE_VY = 20;       // 9XY0
+    static final int LD_I = 21;         // ANNN
+    static final int JP_V0 = 22;        // BNNN
+    static final int RND = 23;          // CXNN
+    static final int DRW = 24;          // DXYN
+    static final int SKP = 25;          // EX9E
+    static final int SKNP = 26;         // EXA1
+    static final int LD_VX_DT = 27;     // FX07
+    static final int LD_VX_K = 28;      // FX0A
+    static final int LD_DT = 29;        // FX15
+    static final int LD_ST = 30;        // FX18
+    static final int ADD_I = 31;        // FX1E
+    static final int LD_F = 32;         // FX29
+    static final int LD_B = 33;         // FX33
+    static final int ST_REGS = 34;      // FX55
+    static final int LD_REGS = 35;      // FX65
+    // variants for QuirkProfile, see QuirkProfile.handler()
+    static final int SHR_VY = 36;       // 8XY6 shifting V[Y]
+    static final int SHL_VY = 37;       // 8XYE shifting V[Y]
+    static final int OR_VF = 38;        // 8XY1 resetting V[F]
+    static final int AND_VF = 39;       // 8XY2 resetting V[F]
+    static final int XOR_VF = 40;       // 8XY3 resetting V[F]
+    static final int JP_VX = 41;        // BXNN
+    static final int DRW_CLIP = 42;     // DXYN clipping at the edges
+    static final int DRW_WAIT = 43;     // DXYN ending the frame
+    static final int DRW_CLIP_WAIT = 44;
+    static final int ST_REGS_X = 45;    // FX55 adding X to I
+    static final int ST_REGS_KEEP = 46; // FX55 leaving I alone
+    static final int LD_REGS_X = 47;    // FX65 adding X to I
+    static final int LD_REGS_KEEP = 48; // FX65 leaving I alone
+    static final int HANDLERS = 49;
+
+    private final Chip8 chip8;
+    private final int[] decoded = new int[Memory.SIZE];
+
+    PredecodedEngine(Chip8 chip8)
+    {
+        this.chip8 = chip8;
+    }
+
+    static int decode(int opcode, QuirkProfile quirks)
+    {
+        return (quirks.handler(opcode) << 16) | opcode;
+    }
+
+    // handler of 'opcode' without quirks, i.e. for QuirkProfile.CLASSIC
+    static int handler(int opcode)
+    {
+        switch(opcode & 0xF000)
+        {
+            case 0x0000:
+                switch(opcode & 0x000F)
+                {
+                    case 0x0000: return CLS;
+                    case 0x000E: return RET;
+                }
+                return NOP;
+            case 0x1000: return JP;
+            case 0x2000: return CALL;
+            case 0x3000: return SE_NN;
+            case 0x4000: return SNE_NN;
+            case 0x5000: return SE_VY;
+            case 0x6000: return LD_NN;
+            case 0x7000: return ADD_NN;
+            case 0x8000:
+                switch(opcode & 0x000F)
+                {
+                    case 0x0000: return LD_VY;
+                    case 0x0001: return OR;
+                    case 0x0002: return AND;
+                    case 0x0003: return XOR;
+                    case 0x0004: return ADD_VY;
+                    case 0x0005: return SUB;
+                    case 0x0006: return SHR;
+                    case 0x0007: return SUBN;
+                    case 0x000E: return SHL;
+                }
+                return NOP;
+            case 0x9000: return SNE_VY;
+            case 0xA000: return LD_I;
+            case 0xB000: return JP_V0;
+            case 0xC000: return RND;
+            case 0xD000: return DRW;
+            case 0xE000:
+                switch(opcode & 0x00FF)
+                {
+                    case 0x009E: return SKP;
+                    case 0x00A1: return SKNP;
+                }
+                return NOP;
+            default:
+                switch(opcode & 0x00FF)
+                {
+                    case 0x0007: return LD_VX_DT;
+                    case 0x000A: return LD_VX_K;
+                    case 0x0015: return LD_DT;
+                    case 0x0018: return LD_ST;
+                    case 0x001E: return ADD_I;
+                    case 0x0029: return LD_F;
+                    case 0x0033: return LD_B;
+                    case 0x0055: return ST_REGS;
+                    case 0x0065: return LD_REGS;
+                }
+                return NOP;
+        }
+    }
+
+    @Override
+    public int execute(int budget)
+    {
+        final Chip8 c = chip8;
+        final int[] V = c.V;
+        final int[] decoded = this.decoded;
+        final long[] executed = c.executed;
+        int pc = c.pc;
+        if(c.displayWait)
+            return budget;                          // waits for the display until the next frame
+
+        try {
+            for(int i = 0; i < budget; i++)
+            {
+                int address = pc;
+                int d = decoded[pc & Memory.MASK];
+                if(d == UNDECODED)
+                    d = decodeAt(pc);
+                int nnn = d & 0x0FFF;
+                if(Metrics.ENABLED)
+                    executed[(d >>> 12) & 0xF]++;
+
+                // control flow is handled here on the local pc, everything else is shared with the recompiler
+                switch(d >>> 16)
+                {
+                    case NOP:                                       break;
+                    case CLS:       Ops.cls(c, nnn);    pc += 2;    break;
+                    case RET:
+                        pc = c.stack[c.sp];
+                        c.sp--;
+                        pc += 2;
+                        break;
+                    case JP:
+                        int loop = c.idleLoopLength(pc, nnn);
+                        if(loop != 0 && (!Tracer.ENABLED || c.tracer == null))
+                        {
+                            int skipped = (budget - 1 - i) / loop * loop;   // skip the passes left in this frame
+                            if(Metrics.ENABLED)
+                                c.fastForwarded += skipped;
+                            i += skipped;
+                        }
+                        pc = nnn;
+                        break;
+                    case CALL:
+                        c.sp++;
+                        c.stack[c.sp] = pc;
+                        pc = nnn;
+                        break;
+                    case SE_NN:     pc += V[nnn >>> 8] == (nnn & 0xFF) ? 4 : 2;                 break;
+                    case SNE_NN:    pc += V[nnn >>> 8] != (nnn & 0xFF) ? 4 : 2;                 break;
+                    case SE_VY:     pc += V[nnn >>> 8] == V[(nnn >>> 4) & 0xF] ? 4 : 2;         break;
+                    case LD_NN:     Ops.ldNN(c, nnn);   pc += 2;    break;
+                    case ADD_NN:    Ops.addNN(c, nnn);  pc += 2;    break;
+                    case LD_VY:     Ops.ldVY(c, nnn);   pc += 2;    break;
+                    case OR:        Ops.or(c, nnn);     pc += 2;    break;
+                    case AND:       Ops.and(c, nnn);    pc += 2;    break;
+                    case XOR:       Ops.xor(c, nnn);    pc += 2;    break;
+                    case ADD_VY:    Ops.addVY(c, nnn);  pc += 2;    break;
+                    case SUB:       Ops.sub(c, nnn);    pc += 2;    break;
+                    case SHR:       Ops.shr(c, nnn);    pc += 2;    break;
+                    case SUBN:      Ops.subn(c, nnn);   pc += 2;    break;
+                    case SHL:       Ops.shl(c, nnn);    pc += 2;    break;
+                    case SNE_VY:    pc += V[(nnn >>> 4) & 0xF] != V[nnn >>> 8] ? 4 : 2;         break;
+                    case LD_I:      Ops.ldI(c, nnn);    pc += 2;    break;
+                    case JP_V0:     pc = V[0x0] + nnn;              break;
+                    case JP_VX:     pc = V[nnn >>> 8] + nnn;        break;
+                    case RND:       Ops.rnd(c, nnn);    pc += 2;    break;
+                    case DRW:       Ops.drw(c, nnn);    pc += 2;    break;
+                    case SKP:       pc += c.isKeyPressed(V[nnn >>> 8]) ? 4 : 2;                 break;
+                    case SKNP:      pc += !c.isKeyPressed(V[nnn >>> 8]) ? 4 : 2;                break;
+                    case LD_VX_DT:  Ops.ldVxDt(c, nnn); pc += 2;    break;
+                    case LD_VX_K:
+                        int pressed = c.pressedKey();
+                        if(pressed >= 0)
+                        {
+                            V[nnn >>> 8] = pressed;
+                            pc += 2;
+                        }
+                        else if(!Tracer.ENABLED || c.tracer == null)
+                            i = budget;             // keys can't change before the frame ends
+                        break;
+                    case LD_DT:     Ops.ldDt(c, nnn);   pc += 2;    break;
+                    case LD_ST:     Ops.ldSt(c, nnn);   pc += 2;    break;
+                    case ADD_I:     Ops.addI(c, nnn);   pc += 2;    break;
+                    case LD_F:      Ops.ldF(c, nnn);    pc += 2;    break;
+                    case LD_B:      Ops.ldB(c, nnn);    pc += 2;    break;     // invalidates overwritten code
+                    case ST_REGS:   Ops.stRegs(c, nnn); pc += 2;    break;     // invalidates overwritten code
+                    case LD_REGS:   Ops.ldRegs(c, nnn); pc += 2;    break;
+                    case SHR_VY:    Ops.shrVY(c, nnn);  pc += 2;    break;
+                    case SHL_VY:    Ops.shlVY(c, nnn);  pc += 2;    break;
+                    case OR_VF:     Ops.orVF(c, nnn);   pc += 2;    break;
+                    case AND_VF:    Ops.andVF(c, nnn);  pc += 2;    break;
+                    case XOR_VF:    Ops.xorVF(c, nnn);  pc += 2;    break;
+                    case DRW_CLIP:  Ops.drwClip(c, nnn);    pc += 2;    break;
+                    case DRW_WAIT:
+                        Ops.drwWait(c, nnn);
+                        pc += 2;
+                        i = budget;                 // waits for the display until the next frame
+                        break;
+                    case DRW_CLIP_WAIT:
+                        Ops.drwClipWait(c, nnn);
+                        pc += 2;
+                        i = budget;
+                        break;
+                    case ST_REGS_X:     Ops.stRegsX(c, nnn);    pc += 2;    break;     // invalidates overwritten code
+                    case ST_REGS_KEEP:  Ops.stRegsKeep(c, nnn); pc += 2;    break;
+                    case LD_REGS_X:     Ops.ldRegsX(c, nnn);    pc += 2;    break;
+                    case LD_REGS_KEEP:  Ops.ldRegsKeep(c, nnn); pc += 2;    break;
+                }
+                if(Tracer.ENABLED && c.tracer != null)
+                    c.tracer.record(c, address, d & 0xFFFF);
+            }
+        } finally {
+            c.pc = pc;
+        }
+        return budget;
+    }
+
+    int decodeAt(int address)
+    {
+        int d = decode(chip8.fetch(address), chip8.getQuirks());
+        decoded[address & Memory.MASK] = d;
+        return d;
+    }
+
+    @Override
+    public void invalidate(int address, int length)
+    {
+        // an instruction starting one byte before the written range is affected as well
+        for(int i = address - 1; i < address + length; i++)
+            decoded[i & Memory.MASK] = UNDECODED;  // writes wrap around at the end of memory
+    }
+
+    @Override
+    public void reset()
+    {
+        Arrays.fill(decoded, UNDECODED);
+    }
+}
@@ -0,0 +1,121 @@
+package com.kgeleta;
+
+// CHIP-8 dialects. They differ in a handful of instructions, see the fields. No engine checks any of
+// this while running: handler() maps an opcode to the variant of its handler for the profile when
+// the opcode is decoded, and changing the profile of a Chip8 drops all decoded code.
+public enum QuirkProfile
+{
+    // what this emulator has always done
+    CLASSIC("Classic", false, IndexIncrement.X_PLUS_ONE, false, false, false, false),
+    // the original interpreter of the COSMAC VIP
+    VIP("COSMAC VIP", true, IndexIncrement.X_PLUS_ONE, false, true, true, true),
+    // HP-48 calculators
+    CHIP48("CHIP-48", false, IndexIncrement.X, true, true, false, false),
+    SCHIP("SUPER-CHIP", false, IndexIncrement.NONE, true, true, false, false),
+    // Octo and XO-CHIP
+    MODERN("Modern", true, IndexIncrement.X_PLUS_ONE, false, false, false, false);
+
+    // how much FX55 / FX65 add to I
+    public enum IndexIncrement { X_PLUS_ONE, X, NONE }
+
+    private final String displayName;
+    private final boolean shiftsVY;             // 8XY6 / 8XYE: V[X] = V[Y] shifted, otherwise V[X] is shifted
+    private final IndexIncrement indexIncrement;
+    private final boolean jumpsVX;              // BXNN jumps to V[X] + XNN, otherwise BNNN to V0 + NNN
+    private final boolean clipsSprites;         // DXYN: pixels past the edges are dropped, otherwise they wrap
+    private final boolean resetsVF;             // 8XY1 / 8XY2 / 8XY3 set V[F] to 0
+    private final boolean waitsForDisplay;      // DXYN waits for the next frame, so at most one sprite per frame
+    private final int[] handlers = new int[PredecodedEngine.HANDLERS];    // base handler -> variant
+
+    QuirkProfile(String displayName, boolean shiftsVY, IndexIncrement indexIncrement, boolean jumpsVX,
+                 boolean clipsSprites, boolean resetsVF, boolean waitsForDisplay)
+    {
+        this.displayName = displayName;
+        this.shiftsVY = shiftsVY;
+        this.indexIncrement = indexIncrement;
+        this.jumpsVX = jumpsVX;
+        this.clipsSprites = clipsSprites;
+        this.resetsVF = resetsVF;
+        this.waitsForDisplay = waitsForDisplay;
+
+        for(int handler = 0; handler < handlers.length; handler++)
+            handlers[handler] = handler;
+        if(shiftsVY)
+        {
+            handlers[PredecodedEngine.SHR] = PredecodedEngine.SHR_VY;
+            handlers[PredecodedEngine.SHL] = PredecodedEngine.SHL_VY;
+        }
+        if(indexIncrement == IndexIncrement.X)
+        {
+            handlers[PredecodedEngine.ST_REGS] = PredecodedEngine.ST_REGS_X;
+            handlers[PredecodedEngine.LD_REGS] = PredecodedEngine.LD_REGS_X;
+        }
+        else if(indexIncrement == IndexIncrement.NONE)
+        {
+            handlers[PredecodedEngine.ST_REGS] = PredecodedEngine.ST_REGS_KEEP;
+            handlers[PredecodedEngine.LD_REGS] = PredecodedEngine.LD_REGS_KEEP;
+        }
+        if(jumpsVX)
+            handlers[PredecodedEngine.JP_V0] = PredecodedEngine.JP_VX;
+        if(clipsSprites)
+            handlers[PredecodedEngine.DRW] = waitsForDisplay ? PredecodedEngine.DRW_CLIP_WAIT : PredecodedEngine.DRW_CLIP;
+        else if(waitsForDisplay)
+            handlers[PredecodedEngine.DRW] = PredecodedEngine.DRW_WAIT;
+        if(resetsVF)
+        {
+            handlers[PredecodedEngine.OR] = PredecodedEngine.OR_VF;
+            handlers[PredecodedEngine.AND] = PredecodedEngine.AND_VF;
+            handlers[PredecodedEngine.XOR] = PredecodedEngine.XOR_VF;
+        }
+    }
+
+    public String getDisplayName()
+    {
+        return displayName;
+    }
+
+    public boolean shiftsVY()
+    {
+        return shiftsVY;
+    }
+
+    public IndexIncrement getIndexIncrement()
+    {
+        return indexIncrement;
+    }
+
+    public boolean jumpsVX()
+    {
+        return jumpsVX;
+    }
+
+    public boolean clipsSprites()
+    {
+        return clipsSprites;
+    }
+
+    public boolean resetsVF()
+    {
+        return resetsVF;
+    }
+
+    public boolean waitsForDisplay()
+    {
+        return waitsForDisplay;
+    }
+
+    // PredecodedEngine handler of 'opcode' in this dialect
+    int handler(int opcode)
+    {
+        return handlers[PredecodedEngine.handler(opcode)];
+    }
+
+    // by name as stored e.g. in the ROM library, CLASSIC for an empty or unknown name
+    public static QuirkProfile forName(String name)
+    {
+        for(QuirkProfile profile : values())
+            if(profile.name().equalsIgnoreCase(name))
+                return profile;
+        return CLASSIC;
+    }
+}
@@ -0,0 +1,135 @@
+package com.kgeleta;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Runs an InputRecording again on a machine without any GUI, as fast as the engine goes. Screen
+// hashes are compared with the recorded checkpoints, so a replay tells whether the emulator still
+// behaves exactly as it did when the session was recorded.
+//
+//   java -cp out com.kgeleta.Replay session.c8r [--engine PREDECODED] [--hash-at 600,1200]
+public class Replay
+{
+    private final InputRecording recording;
+    private final Chip8 chip8 = new Chip8();
+
+    private int frame;                          // frames replayed so far
+    private int nextEvent;
+    private int cyclesPerFrame;
+    private int firstMismatch = -1;
+
+    public Replay(InputRecording recording, EngineType engine)
+    {
+        this.recording = recording;
+        chip8.setEngine(engine);
+        chip8.setQuirks(recording.getQuirks());
+        chip8.initialize(recording.getSeed());
+        chip8.loadRom(recording.getRom());
+        cyclesPerFrame = recording.getCyclesPerFrame();
+    }
+
+    public Chip8 getMachine()
+    {
+        return chip8;
+    }
+
+    public int getFrame()
+    {
+        return frame;
+    }
+
+    // first frame whose screen differed from the recording, -1 if all checkpoints so far matched
+    public int getFirstMismatch()
+    {
+        return firstMismatch;
+    }
+
+    public boolean isFinished()
+    {
+        return frame >= recording.getFrames();
+    }
+
+    // replays up to and including frame number 'frame' (counted from 1), or to the end of the recording
+    public void runTo(int frame)
+    {
+        int last = Math.min(frame, recording.getFrames());
+        while(this.frame < last)
+            step();
+    }
+
+    private void step()
+    {
+        for(; nextEvent < recording.getEventCount(); nextEvent++)
+        {
+            long event = recording.getEvent(nextEvent);
+            if(InputRecording.eventFrame(event) != frame)
+                break;
+            if(InputRecording.eventKind(event) == InputRecording.KEYS)
+                chip8.setKeys(InputRecording.eventValue(event));
+            else
+                cyclesPerFrame = InputRecording.eventValue(event);
+        }
+
+        chip8.runFrame(cyclesPerFrame);
+        frame++;
+
+        if(frame % InputRecording.CHECKPOINT_INTERVAL == 0 && firstMismatch < 0)
+        {
+            int checkpoint = frame / InputRecording.CHECKPOINT_INTERVAL - 1;
+            if(checkpoint < recording.getCheckpointCount() && recording.getCheckpoint(checkpoint) != chip8.getScreenHash())
+                firstMismatch = frame;
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length == 0)
+        {
+            System.err.println("Usage: Replay <recording.c8r> [--engine NAME] [--hash-at frame,frame,...]");
+            System.exit(2);
+        }
+
+        EngineType engine = EngineType.PREDECODED;
+        int[] hashFrames = new int[0];
+        for(int i = 1; i < args.length; i++)
+        {
+            switch(args[i])
+            {
+                case "--engine":  engine = EngineType.valueOf(args[++i].toUpperCase());  break;
+                case "--hash-at": hashFrames = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).sorted().toArray();  break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        InputRecording recording;
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(args[0])))) {
+            recording = InputRecording.read(in);
+        }
+
+        long start = System.nanoTime();
+        Replay replay = new Replay(recording, engine);
+        for(int frame : hashFrames)
+        {
+            replay.runTo(frame);
+            if(replay.getFrame() == frame)
+                System.out.printf("frame %d: %016x%n", frame, replay.getMachine().getScreenHash());
+        }
+        replay.runTo(Integer.MAX_VALUE);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Replayed %d frames (%.1f s of emulated time) in %.3f s%n",
+                replay.getFrame(), replay.getFrame() / (double) FrameScheduler.FRAME_RATE, elapsed / 1e9);
+        if(replay.getFirstMismatch() >= 0)
+        {
+            System.out.println("Screen differs from the recording at frame " + replay.getFirstMismatch());
+            System.exit(1);
+        }
+        System.out.println("All " + recording.getCheckpointCount() + " checkpoints match");
+    }
+}
@@ -0,0 +1,211 @@
+package com.kgeleta;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+// History of machine states for rewinding. Only the newest state is kept in full, every older frame
+// is stored as the XOR of two consecutive SaveStates compressed with run-length encoding of zero
+// bytes, which is usually a few dozen bytes per frame. Deltas live in a fixed ring of bytes, when it
+// is full the oldest frames are forgotten. After construction nothing is allocated.
+//
+// Ring entry: [payload length, 4 bytes] [payload] [payload length, 4 bytes]
+// Payload:    repeated (zero run varint, literal count varint, literal bytes) up to SaveState.SIZE
+public class RewindBuffer
+{
+    private static final int OVERHEAD = 8;                  // length before and after each entry
+
+    private final byte[] ring;
+    private final byte[] current = new byte[SaveState.SIZE];    // newest recorded state
+    private final byte[] next = new byte[SaveState.SIZE];
+    private final byte[] staging = new byte[2 * SaveState.SIZE];// encoded delta, worst case fits easily
+    private final ByteBuffer currentBuffer = ByteBuffer.wrap(current);
+    private final ByteBuffer nextBuffer = ByteBuffer.wrap(next);
+
+    private boolean hasCurrent;
+    private int head;                                       // where the next entry is written
+    private int used;                                       // bytes occupied by entries
+    private int frames;                                     // number of entries
+
+    public RewindBuffer(int capacityBytes)
+    {
+        if(capacityBytes < staging.length + OVERHEAD)
+            throw new IllegalArgumentException("Rewind buffer should have at least " + (staging.length + OVERHEAD) + " bytes");
+        ring = new byte[capacityBytes];
+    }
+
+    // number of frames it is possible to go back
+    public int getFrames()
+    {
+        return frames;
+    }
+
+    public int getUsedBytes()
+    {
+        return used;
+    }
+
+    public void clear()
+    {
+        hasCurrent = false;
+        head = 0;
+        used = 0;
+        frames = 0;
+    }
+
+    // call once per frame
+    public void record(Chip8 chip8)
+    {
+        SaveState.write(chip8, nextBuffer.clear());
+        if(hasCurrent)
+        {
+            int length = encodeDelta();
+            while(ring.length - used < length + OVERHEAD)
+                dropOldest();
+            writeInt(head, length);
+            copyIn(head + 4, length);
+            writeInt(head + 4 + length, length);
+            head = wrap(head + length + OVERHEAD);
+            used += length + OVERHEAD;
+            frames++;
+        }
+        System.arraycopy(next, 0, current, 0, SaveState.SIZE);
+        hasCurrent = true;
+    }
+
+    // restores the machine to the state 'count' recorded frames ago (or as far as the history goes),
+    // returns how many frames it actually went back
+    public int stepBack(Chip8 chip8, int count)
+    {
+        int steps = 0;
+        for(; steps < count && frames > 0; steps++)
+        {
+            int length = readInt(head - 4);
+            int start = wrap(head - 4 - length);
+            copyOut(start, length);
+            applyDelta(length);                             // current ^ delta = previous state
+            head = wrap(start - 4);
+            used -= length + OVERHEAD;
+            frames--;
+        }
+        if(steps > 0 || hasCurrent)
+        {
+            try {
+                SaveState.read(chip8, currentBuffer.clear());
+            }catch(IOException ioe) {
+                throw new UncheckedIOException(ioe);        // we wrote it ourselves, cannot happen
+            }
+        }
+        return steps;
+    }
+
+    public boolean stepBack(Chip8 chip8)
+    {
+        return stepBack(chip8, 1) == 1;
+    }
+
+    // XOR of 'current' and 'next', run-length encoded into 'staging'
+    private int encodeDelta()
+    {
+        int out = 0;
+        int position = 0;
+        while(position < SaveState.SIZE)
+        {
+            int zeros = position;
+            while(zeros < SaveState.SIZE && current[zeros] == next[zeros])
+                zeros++;
+            int literals = zeros;
+            while(literals < SaveState.SIZE && current[literals] != next[literals])
+                literals++;
+
+            out = putVarint(out, zeros - position);
+            out = putVarint(out, literals - zeros);
+            for(int i = zeros; i < literals; i++)
+                staging[out++] = (byte) (current[i] ^ next[i]);
+            position = literals;
+        }
+        return out;
+    }
+
+    // XORs the delta in 'staging' into 'current'
+    private void applyDelta(int length)
+    {
+        int in = 0;
+        int position = 0;
+        while(in < length)
+        {
+            int zeros = 0;
+            for(int shift = 0; ; shift += 7)
+            {
+                byte b = staging[in++];
+                zeros |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            int literals = 0;
+            for(int shift = 0; ; shift += 7)
+            {
+                byte b = staging[in++];
+                literals |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            position += zeros;
+            for(int i = 0; i < literals; i++)
+                current[position++] ^= staging[in++];
+        }
+    }
+
+    private int putVarint(int out, int value)
+    {
+        while(value >= 0x80)
+        {
+            staging[out++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        staging[out++] = (byte) value;
+        return out;
+    }
+
+    private void dropOldest()
+    {
+        int tail = wrap(head - used);
+        int length = readInt(tail);
+        used -= length + OVERHEAD;
+        frames--;
+    }
+
+    private int wrap(int position)
+    {
+        return Math.floorMod(position, ring.length);
+    }
+
+    private void copyIn(int position, int length)
+    {
+        position = wrap(position);
+        int first = Math.min(length, ring.length - position);
+        System.arraycopy(staging, 0, ring, position, first);
+        System.arraycopy(staging, first, ring, 0, length - first);
+    }
+
+    private void copyOut(int position, int length)
+    {
+        int first = Math.min(length, ring.length - position);
+        System.arraycopy(ring, position, staging, 0, first);
+        System.arraycopy(ring, 0, staging, first, length - first);
+    }
+
+    private void writeInt(int position, int value)
+    {
+        for(int i = 0; i < 4; i++)
+            ring[wrap(position + i)] = (byte) (value >>> (24 - 8 * i));
+    }
+
+    private int readInt(int position)
+    {
+        int value = 0;
+        for(int i = 0; i < 4; i++)
+            value = (value << 8) | (ring[wrap(position + i)] & 0xFF);
+        return value;
+    }
+}
@@ -0,0 +1,42 @@
+package com.kgeleta;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Same linear congruential generator as java.util.Random (same seed gives the same numbers), but
+// its state can be read and restored, which save states and rewinding need.
+final class Rng
+{
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    Rng()
+    {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    Rng(long seed)
+    {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    long getState()
+    {
+        return state;
+    }
+
+    void setState(long state)
+    {
+        this.state = state & MASK;
+    }
+
+    // 'bound' has to be a power of two, CXNN only ever asks for 256
+    int nextInt(int bound)
+    {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        int next = (int) (state >>> (48 - 31));
+        return (int) ((bound * (long) next) >> 31);
+    }
+}
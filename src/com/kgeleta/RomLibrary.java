@@ -0,0 +1,406 @@
+package com.kgeleta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+// Catalog of ROMs kept in a directory as two files:
+//   roms.pack   - every distinct ROM image once, back to back, only ever appended to; read through one mapping
+//   roms.index  - SHA-1, place in the pack, title, quirk profile and time of last use of every ROM
+// A ROM is identified by the SHA-1 of its contents, so the same game found under different names or in
+// several archives is stored once. Loading a machine from the library is a single copy from the mapping.
+// The index is replaced as a whole by save() (and close()), a crash before that loses only the new entries.
+// Not thread safe.
+public class RomLibrary implements Closeable
+{
+    private static final int PACK_MAGIC = 0x43385041;       // "C8PA"
+    private static final int INDEX_MAGIC = 0x43384958;      // "C8IX"
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER = 8;
+
+    private final Path indexPath;
+    private final FileChannel pack;
+    private final Map<String, Entry> byHash = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final MessageDigest sha1;
+    private MappedByteBuffer mapping;                       // covers the pack up to 'packSize' or less
+    private long packSize;
+    private boolean changed;                                // index needs to be saved
+
+    public static class Entry
+    {
+        private final String hash;
+        private final long offset;
+        private final int size;
+        private String title;
+        private String quirks;
+        private long lastOpened;                            // ms since the epoch, 0 = never
+
+        private Entry(String hash, long offset, int size, String title, String quirks, long lastOpened)
+        {
+            this.hash = hash;
+            this.offset = offset;
+            this.size = size;
+            this.title = title;
+            this.quirks = quirks;
+            this.lastOpened = lastOpened;
+        }
+
+        // SHA-1 of the ROM, 40 hex digits
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public int getSize()
+        {
+            return size;
+        }
+
+        public String getTitle()
+        {
+            return title;
+        }
+
+        // name of the quirk profile the ROM needs, empty if not known
+        public String getQuirks()
+        {
+            return quirks;
+        }
+
+        public long getLastOpened()
+        {
+            return lastOpened;
+        }
+
+        @Override
+        public String toString()
+        {
+            return title;
+        }
+    }
+
+    // opens the library in 'directory', creating it if there is none
+    public RomLibrary(Path directory) throws IOException
+    {
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        }catch(NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);         // every JVM has to provide SHA-1
+        }
+        Files.createDirectories(directory);
+        indexPath = directory.resolve("roms.index");
+        pack = FileChannel.open(directory.resolve("roms.pack"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            openPack();
+            if(Files.exists(indexPath))
+                readIndex();
+        }catch(IOException ioe) {
+            pack.close();
+            throw ioe;
+        }
+    }
+
+    // the library of the current user, in ~/.chip8
+    public static RomLibrary openDefault() throws IOException
+    {
+        return new RomLibrary(Path.of(System.getProperty("user.home"), ".chip8"));
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    // null if there is no ROM with this SHA-1
+    public Entry get(String hash)
+    {
+        return byHash.get(hash.toLowerCase(Locale.ROOT));
+    }
+
+    // up to 'count' ROMs opened most recently, the latest first
+    public List<Entry> getRecent(int count)
+    {
+        List<Entry> recent = new ArrayList<>();
+        for(Entry entry : entries)
+            if(entry.lastOpened != 0)
+                recent.add(entry);
+        recent.sort(Comparator.comparingLong((Entry entry) -> entry.lastOpened).reversed());
+        return recent.subList(0, Math.min(count, recent.size()));
+    }
+
+    // adds a ROM unless the library already has one with the same contents, returns its entry either way
+    public Entry add(String title, byte[] rom) throws IOException
+    {
+        if(rom.length == 0 || rom.length > Chip8.MAX_ROM_SIZE)
+            throw new IOException(title + " has " + rom.length + " bytes, a ROM has to have 1 to " + Chip8.MAX_ROM_SIZE);
+        String hash = hash(rom);
+        Entry entry = byHash.get(hash);
+        if(entry != null)
+            return entry;
+
+        ByteBuffer source = ByteBuffer.wrap(rom);
+        while(source.hasRemaining())
+            pack.write(source, packSize + source.position());
+        entry = new Entry(hash, packSize, rom.length, title, "", 0);
+        packSize += rom.length;
+        byHash.put(hash, entry);
+        entries.add(entry);
+        changed = true;
+        return entry;
+    }
+
+    // adds a ROM file, the title is its name without the extension
+    public Entry add(Path file) throws IOException
+    {
+        long size = Files.size(file);
+        if(size > Chip8.MAX_ROM_SIZE)
+            throw new IOException(file.getFileName() + " has " + size + " bytes, a ROM can't be bigger than " + Chip8.MAX_ROM_SIZE);
+        return add(title(file.getFileName().toString()), Files.readAllBytes(file));
+    }
+
+    // adds every .ch8/.c8 file in 'path' and its subdirectories, including those inside .zip archives;
+    // 'path' itself may be a ROM or a zip archive too. Files that aren't ROMs are skipped. Returns how many
+    // ROMs were new to the library.
+    public int scan(Path path) throws IOException
+    {
+        int before = entries.size();
+        if(Files.isDirectory(path))
+        {
+            List<Path> files = new ArrayList<>();
+            try(Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+            for(Path file : files)
+                scanFile(file);
+        }
+        else
+            scanFile(path);
+        return entries.size() - before;
+    }
+
+    private void scanFile(Path file) throws IOException
+    {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if(name.endsWith(".zip"))
+        {
+            try(InputStream in = Files.newInputStream(file)) {
+                scanZip(in);
+            }
+        }
+        else if(isRomName(name) && Files.size(file) > 0 && Files.size(file) <= Chip8.MAX_ROM_SIZE)
+            add(file);
+    }
+
+    private void scanZip(InputStream in) throws IOException
+    {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(in));
+        byte[] buffer = new byte[Chip8.MAX_ROM_SIZE + 1];
+        ZipEntry zipEntry;
+        while((zipEntry = zip.getNextEntry()) != null)
+        {
+            String name = zipEntry.getName();
+            String lowerCase = name.toLowerCase(Locale.ROOT);
+            if(zipEntry.isDirectory())
+                continue;
+            if(lowerCase.endsWith(".zip"))
+            {
+                scanZip(zip);                                   // archive inside an archive, ends with the entry
+                continue;
+            }
+            if(!isRomName(lowerCase))
+                continue;
+            int length = zip.readNBytes(buffer, 0, buffer.length);
+            if(length > 0 && length <= Chip8.MAX_ROM_SIZE)
+                add(title(name.substring(name.lastIndexOf('/') + 1)), Arrays.copyOf(buffer, length));
+        }
+    }
+
+    // the ROM as a read only buffer over the mapping, position 0 and limit its size
+    public ByteBuffer read(Entry entry) throws IOException
+    {
+        if(mapping == null || mapping.capacity() < entry.offset + entry.size)
+            mapping = pack.map(FileChannel.MapMode.READ_ONLY, 0, packSize);
+        return mapping.slice((int) entry.offset, entry.size).asReadOnlyBuffer();
+    }
+
+    // a copy of the ROM, e.g. for InputRecording
+    public byte[] readBytes(Entry entry) throws IOException
+    {
+        byte[] rom = new byte[entry.size];
+        read(entry).get(rom);
+        return rom;
+    }
+
+    // loads the ROM into an initialized machine
+    public void load(Entry entry, Chip8 chip8) throws IOException
+    {
+        chip8.loadRom(read(entry));
+    }
+
+    // remembers that the ROM was opened now, for getRecent()
+    public void touch(Entry entry)
+    {
+        entry.lastOpened = System.currentTimeMillis();
+        changed = true;
+    }
+
+    public void setTitle(Entry entry, String title)
+    {
+        entry.title = title;
+        changed = true;
+    }
+
+    public void setQuirks(Entry entry, String quirks)
+    {
+        entry.quirks = quirks;
+        changed = true;
+    }
+
+    // writes the index if anything changed
+    public void save() throws IOException
+    {
+        if(!changed)
+            return;
+        pack.force(false);                                  // the index must never point past what is stored
+        Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(entries.size());
+            for(Entry entry : entries)
+            {
+                out.write(hexToBytes(entry.hash));
+                out.writeLong(entry.offset);
+                out.writeShort(entry.size);
+                out.writeLong(entry.lastOpened);
+                out.writeUTF(entry.title);
+                out.writeUTF(entry.quirks);
+            }
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            save();
+        } finally {
+            pack.close();                                   // the mapping itself is released when it is garbage collected
+        }
+    }
+
+    private void openPack() throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+        if(pack.size() == 0)
+        {
+            header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+            while(header.hasRemaining())
+                pack.write(header, header.position());
+        }
+        else
+        {
+            while(header.hasRemaining())
+                if(pack.read(header, header.position()) < 0)
+                    break;
+            header.flip();
+            if(header.remaining() < PACK_HEADER || header.getInt() != PACK_MAGIC)
+                throw new IOException("Not a ROM pack file");
+            if(header.getInt() != VERSION)
+                throw new IOException("Unsupported ROM pack version");
+        }
+        packSize = pack.size();
+    }
+
+    private void readIndex() throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if(in.readInt() != INDEX_MAGIC)
+                throw new IOException("Not a ROM index file");
+            if(in.readUnsignedShort() != VERSION)
+                throw new IOException("Unsupported ROM index version");
+            int count = in.readInt();
+            if(count < 0)
+                throw new IOException("Damaged ROM index");
+            byte[] hash = new byte[20];
+            for(int i = 0; i < count; i++)
+            {
+                in.readFully(hash);
+                long offset = in.readLong();
+                int size = in.readUnsignedShort();
+                long lastOpened = in.readLong();
+                String title = in.readUTF();
+                String quirks = in.readUTF();
+                if(offset < PACK_HEADER || size == 0 || size > Chip8.MAX_ROM_SIZE || offset + size > packSize)
+                    throw new IOException("ROM index doesn't match the pack, entry " + i + " is out of range");
+                Entry entry = new Entry(bytesToHex(hash), offset, size, title, quirks, lastOpened);
+                byHash.put(entry.hash, entry);
+                entries.add(entry);
+            }
+        }
+    }
+
+    private String hash(byte[] rom)
+    {
+        return bytesToHex(sha1.digest(rom));
+    }
+
+    private static boolean isRomName(String lowerCaseName)
+    {
+        return lowerCaseName.endsWith(".ch8") || lowerCaseName.endsWith(".c8");
+    }
+
+    private static String title(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static String bytesToHex(byte[] bytes)
+    {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for(byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private static byte[] hexToBytes(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+        for(int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return bytes;
+    }
+}
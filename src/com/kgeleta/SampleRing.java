@@ -0,0 +1,77 @@
+package com.kgeleta;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bytes of audio on their way from the emulation thread to whoever plays or stores them. One writer
+// and one reader, neither of them ever blocks or allocates: the writer drops what doesn't fit and the
+// reader gets what is there.
+public class SampleRing
+{
+    private final byte[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();       // next byte to read, written by the reader
+    private final AtomicLong tail = new AtomicLong();       // next byte to write, written by the writer
+    private final AtomicLong dropped = new AtomicLong();    // bytes that didn't fit
+
+    // 'capacity' in bytes, has to be a power of two
+    public SampleRing(int capacity)
+    {
+        if(capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity should be a power of two, not " + capacity);
+        ring = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public int getCapacity()
+    {
+        return ring.length;
+    }
+
+    // bytes waiting to be read
+    public int available()
+    {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    // writer: copies as much of 'length' bytes as fits, returns how many
+    public int offer(byte[] source, int offset, int length)
+    {
+        long t = tail.get();
+        int count = Math.min(length, ring.length - (int) (t - head.get()));
+        int position = (int) t & mask;
+        int first = Math.min(count, ring.length - position);
+        System.arraycopy(source, offset, ring, position, first);
+        System.arraycopy(source, offset + first, ring, 0, count - first);
+        tail.lazySet(t + count);                            // publishes the bytes copied above
+        if(count < length)
+            dropped.addAndGet(length - count);
+        return count;
+    }
+
+    // reader: copies up to 'length' bytes into 'target', returns how many
+    public int poll(byte[] target, int offset, int length)
+    {
+        long h = head.get();
+        int count = Math.min(length, (int) (tail.get() - h));
+        int position = (int) h & mask;
+        int first = Math.min(count, ring.length - position);
+        System.arraycopy(ring, position, target, offset, first);
+        System.arraycopy(ring, 0, target, offset + first, count - first);
+        head.lazySet(h + count);                            // lets the writer reuse the bytes copied above
+        return count;
+    }
+
+    // reader: throws away up to 'length' of the oldest bytes, returns how many
+    public int skip(int length)
+    {
+        long h = head.get();
+        int count = Math.min(length, (int) (tail.get() - h));
+        head.lazySet(h + count);
+        return count;
+    }
+}
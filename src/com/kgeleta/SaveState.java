@@ -0,0 +1,90 @@
+package com.kgeleta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Fixed layout binary snapshot of a whole machine. Every state has exactly SIZE bytes, so states can
+// be stored in slots of a mapped file or a ring buffer and be written without any allocation.
+//
+//   offset  size  field
+//        0     4  magic "C8ST"
+//        4     2  format version
+//        6     1  quirk profile, QuirkProfile ordinal (version 1: reserved, always CLASSIC)
+//        7     1  reserved
+//        8     4  pc
+//       12     4  I
+//       16     4  sp
+//       20     1  delay timer
+//       21     1  sound timer
+//       22     2  pressed keys, bit 'k' = key 'k'
+//       24     8  random generator state
+//       32    32  V[0] - V[F], 16 bit each
+//       64    64  stack, 32 bit each
+//      128   256  screen, 32 rows of 64 bits
+//      384  4096  memory
+public final class SaveState
+{
+    public static final int MAGIC = 0x43385354;         // "C8ST"
+    public static final int VERSION = 2;
+    public static final int SIZE = 384 + Memory.SIZE;
+
+    private SaveState() {}
+
+    // writes SIZE bytes at the position of 'target' and advances it
+    public static void write(Chip8 c, ByteBuffer target)
+    {
+        target.putInt(MAGIC);
+        target.putShort((short) VERSION);
+        target.put((byte) c.getQuirks().ordinal());
+        target.put((byte) 0);
+        target.putInt(c.pc);
+        target.putInt(c.I);
+        target.putInt(c.sp);
+        target.put((byte) c.delayTimer);
+        target.put((byte) c.soundTimer);
+        target.putShort((short) c.keys);
+        target.putLong(c.random.getState());
+        for(int v : c.V)
+            target.putShort((short) v);
+        for(int address : c.stack)
+            target.putInt(address);
+        for(long row : c.gfx)
+            target.putLong(row);
+        c.memory.copyTo(target);
+    }
+
+    // reads SIZE bytes at the position of 'source' into the machine and advances the buffer
+    public static void read(Chip8 c, ByteBuffer source) throws IOException
+    {
+        int start = source.position();
+        if(source.remaining() < SIZE || source.getInt(start) != MAGIC)
+            throw new IOException("Not a CHIP-8 save state");
+        int version = source.getShort(start + 4);
+        if(version != 1 && version != VERSION)
+            throw new IOException("Unsupported save state version " + version);
+        int profile = version >= 2 ? source.get(start + 6) : QuirkProfile.CLASSIC.ordinal();
+        if(profile < 0 || profile >= QuirkProfile.values().length)
+            throw new IOException("Corrupted save state: quirk profile " + profile);
+        int sp = source.getInt(start + 16);
+        if(sp < -1 || sp >= c.stack.length)
+            throw new IOException("Corrupted save state: stack pointer " + sp);
+
+        c.setQuirks(QuirkProfile.values()[profile]);
+        source.position(start + 8);
+        c.pc = source.getInt();
+        c.I = source.getInt();
+        c.sp = source.getInt();
+        c.delayTimer = source.get() & 0xFF;
+        c.soundTimer = source.get() & 0xFF;
+        c.keys = source.getShort() & 0xFFFF;
+        c.random.setState(source.getLong());
+        for(int i = 0; i < c.V.length; i++)
+            c.V[i] = source.getShort() & 0xFFFF;
+        for(int i = 0; i < c.stack.length; i++)
+            c.stack[i] = source.getInt();
+        for(int i = 0; i < c.gfx.length; i++)
+            c.gfx[i] = source.getLong();
+        c.memory.copyFrom(source);
+        c.stateRestored();
+    }
+}
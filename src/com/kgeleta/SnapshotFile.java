@@ -0,0 +1,73 @@
+package com.kgeleta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// File with a fixed number of SaveState slots, mapped into memory once. Saving and loading a slot is
+// a plain copy between the machine and the mapping - no allocation and no system call per snapshot.
+// Not thread safe, slots share the position of one buffer.
+public class SnapshotFile implements Closeable
+{
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+
+    public SnapshotFile(Path path, int slots) throws IOException
+    {
+        if(slots < 1 || (long) slots * SaveState.SIZE > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Number of slots should be in range 1 to " + Integer.MAX_VALUE / SaveState.SIZE);
+        this.slots = slots;
+        long size = (long) slots * SaveState.SIZE;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if(channel.size() != 0 && channel.size() < size)
+        {
+            channel.close();                    // don't grow some unrelated file
+            throw new IOException(path.getFileName() + " is not a snapshot file with " + slots + " slots");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    public int getSlots()
+    {
+        return slots;
+    }
+
+    public void save(int slot, Chip8 chip8)
+    {
+        SaveState.write(chip8, buffer.position(offset(slot)));
+    }
+
+    public void load(int slot, Chip8 chip8) throws IOException
+    {
+        SaveState.read(chip8, buffer.position(offset(slot)));
+    }
+
+    // true if something was saved in 'slot'
+    public boolean isUsed(int slot)
+    {
+        return buffer.getInt(offset(slot)) == SaveState.MAGIC;
+    }
+
+    // writes dirty pages to the storage device
+    public void force()
+    {
+        buffer.force();
+    }
+
+    private int offset(int slot)
+    {
+        if(slot < 0 || slot >= slots)
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of range 0 to " + (slots - 1));
+        return slot * SaveState.SIZE;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();                        // the mapping itself is released when it is garbage collected
+    }
+}
@@ -0,0 +1,136 @@
+package com.kgeleta;
+
+import javax.swing.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// Shows a stream of a SpectatorServer in a window, the CHIP-8 keys are sent back to the machine.
+// Usage: SpectatorClient [host] [port] [stream]
+public class SpectatorClient
+{
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final long[] screen = new long[Chip8.HEIGHT];
+    private final byte[] payload = new byte[0x10000];
+
+    public SpectatorClient(String host, int port, int stream) throws IOException
+    {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = socket.getOutputStream();
+        out.write(stream);
+        out.flush();
+
+        if(in.readUnsignedByte() != SpectatorServer.HELLO)
+            throw new IOException("Not a CHIP-8 spectator server");
+        int length = in.readUnsignedShort();
+        in.readFully(payload, 0, length);
+        DataInputStream hello = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        if(hello.readInt() != SpectatorServer.MAGIC)
+            throw new IOException("Not a CHIP-8 spectator server");
+        if(hello.readUnsignedShort() != SpectatorServer.VERSION)
+            throw new IOException("Unsupported protocol version");
+    }
+
+    public long[] getScreen()
+    {
+        return screen;
+    }
+
+    // waits for the next frame and applies it to getScreen(), returns the rows that changed
+    public int nextFrame() throws IOException
+    {
+        int type = in.read();
+        if(type < 0)
+            throw new EOFException("Server closed the stream");
+        int length = in.readUnsignedShort();
+        in.readFully(payload, 0, length);
+
+        if(type == SpectatorServer.KEYFRAME)
+        {
+            if(length != SpectatorServer.SCREEN_BYTES)
+                throw new IOException("Wrong keyframe length " + length);
+            for(int y = 0; y < Chip8.HEIGHT; y++)
+            {
+                long row = 0;
+                for(int i = 0; i < 8; i++)
+                    row = (row << 8) | (payload[y * 8 + i] & 0xFF);
+                screen[y] = row;
+            }
+            return -1;
+        }
+        if(type == SpectatorServer.DELTA)
+            return SpectatorServer.applyDelta(screen, payload, length);
+        return 0;                                       // unknown message, newer servers may send more
+    }
+
+    public synchronized void sendKey(int key, boolean pressed) throws IOException
+    {
+        out.write(pressed ? SpectatorServer.KEY_DOWN : SpectatorServer.KEY_UP);
+        out.write(key);
+        out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        socket.close();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : SpectatorServer.DEFAULT_PORT;
+        int stream = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        SpectatorClient client = new SpectatorClient(host, port, stream);
+
+        DisplayPanel display = new DisplayPanel(10);
+        JFrame frame = new JFrame("CHIP-8 spectator: " + host + ":" + port + " #" + stream);
+        frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        frame.setContentPane(display);
+        frame.pack();
+        frame.setVisible(true);
+        frame.addKeyListener(new KeyAdapter()
+        {
+            @Override
+            public void keyPressed(KeyEvent e)
+            {
+                send(e, true);
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e)
+            {
+                send(e, false);
+            }
+
+            private void send(KeyEvent e, boolean pressed)
+            {
+                int key = Emulator.chip8Key(e);
+                if(key < 0)
+                    return;
+                try {
+                    client.sendKey(key, pressed);
+                }catch(IOException ioe) {
+                    System.err.println("Cannot send key: " + ioe.getMessage());
+                }
+            }
+        });
+
+        try {
+            while(true)
+                display.present(client.getScreen(), client.nextFrame());
+        }catch(IOException ioe) {
+            frame.setTitle(frame.getTitle() + " - disconnected");
+            System.err.println(ioe.getMessage());
+        }
+    }
+}
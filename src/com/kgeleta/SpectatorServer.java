@@ -0,0 +1,437 @@
+package com.kgeleta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Streams screens of running machines to any number of spectators over TCP. Everything network
+// related happens on one selector thread; the emulation thread only copies 32 rows into a Stream and
+// never waits for the network. A spectator that can't keep up misses frames (it gets one delta
+// covering all of them later), and one that doesn't read anything for STALL_TIMEOUT is disconnected.
+//
+// Client -> server: stream number (1 byte), then key events of 2 bytes: KEY_DOWN or KEY_UP, key 0 - F.
+// Keys a spectator still holds when it disconnects are released.
+// Server -> client: messages of [type, 1 byte] [payload length, 2 bytes] [payload]
+//   HELLO      magic "C8SP", version (2 bytes), width, height (1 byte each)
+//   KEYFRAME   the whole screen, 32 rows of 8 bytes, leftmost pixel in the top bit
+//   DELTA      XOR with the previous screen, as (zero run varint, literal count varint, literals)*
+// Frames without any change are not sent at all.
+public class SpectatorServer implements Closeable
+{
+    public static final int MAGIC = 0x43385350;             // "C8SP"
+    public static final int VERSION = 1;
+    public static final int DEFAULT_PORT = 8088;
+
+    static final int HELLO = 'H';
+    static final int KEYFRAME = 'K';
+    static final int DELTA = 'D';
+    static final int KEY_DOWN = 1;
+    static final int KEY_UP = 0;
+
+    static final int SCREEN_BYTES = Chip8.HEIGHT * 8;
+    private static final long STALL_TIMEOUT = 5_000_000_000L;
+    private static final int OUTPUT_BUFFER = 4096;
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final List<Stream> streams = new CopyOnWriteArrayList<>();
+    private final List<Spectator> spectators = new ArrayList<>();     // selector thread only
+    private volatile boolean running = true;
+
+    // 'address' e.g. new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT)
+    public SpectatorServer(InetSocketAddress address) throws IOException
+    {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        thread = new Thread(this::serve, "CHIP-8 spectators");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getAddress() throws IOException
+    {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    // a new stream, spectators ask for it by its number (0, 1, 2, ... in order of creation)
+    public synchronized Stream openStream()
+    {
+        if(streams.size() > 255)
+            throw new IllegalStateException("At most 256 streams");
+        Stream stream = new Stream();
+        streams.add(stream);
+        return stream;
+    }
+
+    public int getSpectatorCount()
+    {
+        int count = 0;
+        for(Stream stream : streams)
+            count += stream.spectators;
+        return count;
+    }
+
+    // Screen of one machine. publish() is called by the thread running the machine, key events sent by
+    // spectators come out of getKeyInput(), which only the selector thread writes to.
+    public class Stream
+    {
+        private final AtomicLongArray rows = new AtomicLongArray(Chip8.HEIGHT);
+        private final AtomicLong sequence = new AtomicLong();      // odd while rows are being written
+        private final KeyQueue keyInput = new KeyQueue();
+        private final long[] latest = new long[Chip8.HEIGHT];      // last screen read, selector thread only
+        private long read;                                          // sequence of 'latest', selector thread only
+        private volatile int spectators;
+
+        public KeyQueue getKeyInput()
+        {
+            return keyInput;
+        }
+
+        public int getSpectators()
+        {
+            return spectators;
+        }
+
+        // copies the screen even without spectators, so that a new one gets it right away
+        public void publish(Chip8 chip8)
+        {
+            sequence.incrementAndGet();
+            for(int y = 0; y < Chip8.HEIGHT; y++)
+                rows.set(y, chip8.getRow(y));
+            sequence.incrementAndGet();
+            if(spectators > 0)
+                selector.wakeup();
+        }
+
+        // makes 'latest' a consistent copy of the last published screen, false if there is nothing new
+        private boolean readLatest()
+        {
+            while(true)
+            {
+                long before = sequence.get();
+                if(before == read)
+                    return false;
+                if((before & 1) != 0)
+                {
+                    Thread.onSpinWait();                           // a copy of 32 longs is about to finish
+                    continue;
+                }
+                for(int y = 0; y < Chip8.HEIGHT; y++)
+                    latest[y] = rows.get(y);
+                if(sequence.get() == before)
+                {
+                    read = before;
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static class Spectator
+    {
+        final SocketChannel channel;
+        final ByteBuffer input = ByteBuffer.allocate(64);
+        final ByteBuffer output = ByteBuffer.allocate(OUTPUT_BUFFER);  // in write mode, position = bytes pending
+        final long[] screen = new long[Chip8.HEIGHT];                   // what the spectator shows now
+        Stream stream;                                                  // null until the stream number arrived
+        boolean keyframeSent;
+        boolean stale;                                                  // stream.latest hasn't been sent yet
+        int heldKeys;                                                   // keys the spectator holds down, bit 'k' = key 'k'
+        long stalledSince;                                              // 0 = not stalled
+
+        Spectator(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    private void serve()
+    {
+        byte[] delta = new byte[2 * SCREEN_BYTES];
+        while(running)
+        {
+            try {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid())
+                        continue;
+                    if(key.isAcceptable())
+                        accept();
+                    else
+                    {
+                        Spectator spectator = (Spectator) key.attachment();
+                        if(key.isReadable())
+                            read(spectator, key);
+                        if(key.isValid() && key.isWritable())
+                            flush(spectator, key);
+                    }
+                }
+
+                for(Stream stream : streams)
+                    if(stream.readLatest())
+                        for(Spectator spectator : spectators)
+                            if(spectator.stream == stream)
+                                spectator.stale = true;
+
+                // a spectator still busy with an older frame gets the newest one when it's done
+                long now = System.nanoTime();
+                for(Spectator spectator : new ArrayList<>(spectators))
+                {
+                    if(spectator.stale && spectator.output.position() == 0)
+                        send(spectator, delta);
+                    else if(spectator.stalledSince != 0 && now - spectator.stalledSince > STALL_TIMEOUT)
+                        disconnect(spectator);
+                }
+            }catch(IOException ioe) {
+                if(running)
+                    System.err.println("Spectator server: " + ioe.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if(channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Spectator spectator = new Spectator(channel);
+        channel.register(selector, SelectionKey.OP_READ, spectator);
+        spectators.add(spectator);
+    }
+
+    private void read(Spectator spectator, SelectionKey key)
+    {
+        int count;
+        try {
+            count = spectator.channel.read(spectator.input);
+        }catch(IOException ioe) {
+            count = -1;
+        }
+        if(count < 0)
+        {
+            disconnect(spectator);
+            return;
+        }
+
+        ByteBuffer input = spectator.input.flip();
+        if(spectator.stream == null && input.hasRemaining())
+        {
+            int number = input.get() & 0xFF;
+            if(number >= streams.size())
+            {
+                disconnect(spectator);
+                return;
+            }
+            spectator.stream = streams.get(number);
+            spectator.stream.spectators++;
+            spectator.stale = true;
+            writeMessage(spectator, HELLO, helloPayload(), 0, 8);
+            flush(spectator, key);
+        }
+        while(spectator.stream != null && input.remaining() >= 2)
+        {
+            boolean pressed = input.get() == KEY_DOWN;
+            int chip8Key = input.get() & 0xF;
+            spectator.heldKeys = pressed ? spectator.heldKeys | 1 << chip8Key : spectator.heldKeys & ~(1 << chip8Key);
+            spectator.stream.keyInput.offer(chip8Key, pressed);
+        }
+        input.compact();
+    }
+
+    private static byte[] helloPayload()
+    {
+        return ByteBuffer.allocate(8).putInt(MAGIC).putShort((short) VERSION)
+                .put((byte) Chip8.WIDTH).put((byte) Chip8.HEIGHT).array();
+    }
+
+    private void send(Spectator spectator, byte[] buffer)
+    {
+        long[] screen = spectator.stream.latest;
+        spectator.stale = false;
+        if(!spectator.keyframeSent)
+        {
+            ByteBuffer payload = ByteBuffer.wrap(buffer, 0, SCREEN_BYTES);
+            for(long row : screen)
+                payload.putLong(row);
+            writeMessage(spectator, KEYFRAME, buffer, 0, SCREEN_BYTES);
+            spectator.keyframeSent = true;
+        }
+        else
+        {
+            int length = encodeDelta(spectator.screen, screen, buffer);
+            if(length == 0)
+                return;                                 // nothing changed
+            writeMessage(spectator, DELTA, buffer, 0, length);
+        }
+        System.arraycopy(screen, 0, spectator.screen, 0, Chip8.HEIGHT);
+        flush(spectator, spectator.channel.keyFor(selector));
+    }
+
+    private void writeMessage(Spectator spectator, int type, byte[] payload, int offset, int length)
+    {
+        spectator.output.put((byte) type).putShort((short) length).put(payload, offset, length);
+    }
+
+    private void flush(Spectator spectator, SelectionKey key)
+    {
+        ByteBuffer output = spectator.output.flip();
+        try {
+            spectator.channel.write(output);
+        }catch(IOException ioe) {
+            disconnect(spectator);
+            return;
+        }
+        output.compact();
+        if(output.position() > 0)
+        {
+            if(spectator.stalledSince == 0)
+                spectator.stalledSince = System.nanoTime();
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        else
+        {
+            spectator.stalledSince = 0;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void disconnect(Spectator spectator)
+    {
+        if(!spectators.remove(spectator))
+            return;
+        if(spectator.stream != null)
+        {
+            spectator.stream.spectators--;
+            releaseKeys(spectator);
+        }
+        try {
+            spectator.channel.close();
+        }catch(IOException ignored) {}
+    }
+
+    // keys a spectator held when it left would stay pressed for good, unless another spectator holds them too
+    private void releaseKeys(Spectator leaving)
+    {
+        int keys = leaving.heldKeys;
+        for(Spectator spectator : spectators)
+            if(spectator.stream == leaving.stream)
+                keys &= ~spectator.heldKeys;
+        for(int key = 0; keys != 0; key++, keys >>>= 1)
+            if((keys & 1) != 0)
+                leaving.stream.keyInput.offer(key, false);
+    }
+
+    // XOR of two screens, run-length encoded like RewindBuffer does; 0 if they are equal
+    static int encodeDelta(long[] previous, long[] current, byte[] target)
+    {
+        int out = 0;
+        int position = 0;
+        while(position < SCREEN_BYTES)
+        {
+            int zeros = position;
+            while(zeros < SCREEN_BYTES && screenByte(previous, zeros) == screenByte(current, zeros))
+                zeros++;
+            if(zeros == SCREEN_BYTES)
+                break;                                  // trailing zeros don't need to be sent
+            int literals = zeros;
+            while(literals < SCREEN_BYTES && screenByte(previous, literals) != screenByte(current, literals))
+                literals++;
+
+            out = putVarint(target, out, zeros - position);
+            out = putVarint(target, out, literals - zeros);
+            for(int i = zeros; i < literals; i++)
+                target[out++] = (byte) (screenByte(previous, i) ^ screenByte(current, i));
+            position = literals;
+        }
+        return out;
+    }
+
+    // applies a delta made by encodeDelta() to 'screen', returns the changed rows, one bit per row
+    static int applyDelta(long[] screen, byte[] delta, int length)
+    {
+        int dirtyRows = 0;
+        int in = 0;
+        int position = 0;
+        while(in < length)
+        {
+            int zeros = 0;
+            for(int shift = 0; ; shift += 7)
+            {
+                byte b = delta[in++];
+                zeros |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            int literals = 0;
+            for(int shift = 0; ; shift += 7)
+            {
+                byte b = delta[in++];
+                literals |= (b & 0x7F) << shift;
+                if(b >= 0)
+                    break;
+            }
+            position += zeros;
+            for(int i = 0; i < literals && position < SCREEN_BYTES; i++, position++)
+            {
+                int row = position >>> 3;
+                screen[row] ^= (long) (delta[in++] & 0xFF) << (56 - 8 * (position & 7));
+                dirtyRows |= 1 << row;
+            }
+        }
+        return dirtyRows;
+    }
+
+    private static int screenByte(long[] screen, int index)
+    {
+        return (int) (screen[index >>> 3] >>> (56 - 8 * (index & 7))) & 0xFF;
+    }
+
+    private static int putVarint(byte[] target, int out, int value)
+    {
+        while(value >= 0x80)
+        {
+            target[out++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        target[out++] = (byte) value;
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        }catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        for(Spectator spectator : new ArrayList<>(spectators))
+            disconnect(spectator);
+        server.close();
+        selector.close();
+    }
+}
@@ -0,0 +1,187 @@
+package com.kgeleta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Reads a trace written by Tracer through read only mappings of the file, and compares two traces.
+// Traces of the same ROM with the same seed, keys and speed are equal record by record whatever engine
+// or build made them, so the first difference points at the instruction that went wrong.
+//
+//   java -cp out com.kgeleta.TraceReader dump trace.c8t [first] [count]
+//   java -cp out com.kgeleta.TraceReader diff interpreter.c8t dynarec.c8t [context]
+public class TraceReader implements Closeable
+{
+    private static final long WINDOW = 1L << 30;            // a whole number of records
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] windows;
+    private final long records;
+
+    public TraceReader(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Tracer.HEADER);
+            while(header.hasRemaining())
+                if(channel.read(header, header.position()) < 0)
+                    throw new IOException(path.getFileName() + " is not a trace file");
+            header.flip();
+            if(header.getInt() != Tracer.MAGIC)
+                throw new IOException(path.getFileName() + " is not a trace file");
+            if(header.getShort() != Tracer.VERSION || header.getShort() != Tracer.RECORD)
+                throw new IOException("Unsupported trace version");
+            records = header.getLong();
+            if(records < 0 || Tracer.HEADER + records * Tracer.RECORD > channel.size())
+                throw new IOException(path.getFileName() + " is truncated");
+
+            long bytes = records * Tracer.RECORD;
+            windows = new MappedByteBuffer[(int) ((bytes + WINDOW - 1) / WINDOW)];
+            for(int i = 0; i < windows.length; i++)
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, Tracer.HEADER + i * WINDOW, Math.min(WINDOW, bytes - i * WINDOW));
+        }catch(IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    public long getRecords()
+    {
+        return records;
+    }
+
+    public int getPc(long record)
+    {
+        return window(record).getShort(offset(record)) & 0xFFFF;
+    }
+
+    public int getOpcode(long record)
+    {
+        return window(record).getShort(offset(record) + 2) & 0xFFFF;
+    }
+
+    public int getI(long record)
+    {
+        return window(record).getShort(offset(record) + 4) & 0xFFFF;
+    }
+
+    // bit x set = Vx changed
+    public int getChanged(long record)
+    {
+        return window(record).getShort(offset(record) + 6) & 0xFFFF;
+    }
+
+    public int getV(long record, int x)
+    {
+        return window(record).get(offset(record) + 8 + x) & 0xFF;
+    }
+
+    public int getDelayTimer(long record)
+    {
+        return window(record).get(offset(record) + 24) & 0xFF;
+    }
+
+    public int getSoundTimer(long record)
+    {
+        return window(record).get(offset(record) + 25) & 0xFF;
+    }
+
+    public int getStackDepth(long record)
+    {
+        return window(record).get(offset(record) + 26) & 0xFF;
+    }
+
+    public int getFrame(long record)
+    {
+        return window(record).getInt(offset(record) + 28);
+    }
+
+    // one line, e.g. "#120 frame 3  0x0214 7A01  I=0300  VA=05"
+    public String format(long record)
+    {
+        StringBuilder line = new StringBuilder(String.format("#%d frame %d  0x%04X %04X  I=%04X",
+                record, getFrame(record), getPc(record), getOpcode(record), getI(record)));
+        int changed = getChanged(record);
+        for(int x = 0; x < 16; x++)
+            if((changed & (1 << x)) != 0)
+                line.append(String.format("  V%X=%02X", x, getV(record, x)));
+        if(getDelayTimer(record) != 0 || getSoundTimer(record) != 0)
+            line.append(String.format("  DT=%02X ST=%02X", getDelayTimer(record), getSoundTimer(record)));
+        return line.toString();
+    }
+
+    // index of the first record that differs, or the length of the shorter trace if one is a prefix of the
+    // other; -1 if both are equal
+    public static long firstDifference(TraceReader a, TraceReader b)
+    {
+        long common = Math.min(a.records, b.records);
+        for(int i = 0; (long) i * WINDOW < common * Tracer.RECORD; i++)
+        {
+            long length = Math.min(WINDOW, common * Tracer.RECORD - i * WINDOW);
+            int mismatch = a.windows[i].slice(0, (int) length).mismatch(b.windows[i].slice(0, (int) length));
+            if(mismatch >= 0)
+                return i * (WINDOW / Tracer.RECORD) + mismatch / Tracer.RECORD;
+        }
+        return a.records == b.records ? -1 : common;
+    }
+
+    private MappedByteBuffer window(long record)
+    {
+        if(record < 0 || record >= records)
+            throw new IndexOutOfBoundsException("Record " + record + " out of range 0 to " + (records - 1));
+        return windows[(int) (record * Tracer.RECORD / WINDOW)];
+    }
+
+    private static int offset(long record)
+    {
+        return (int) (record * Tracer.RECORD % WINDOW);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();                        // the mappings themselves are released when they are garbage collected
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length >= 2 && args[0].equals("dump"))
+        {
+            try(TraceReader trace = new TraceReader(Paths.get(args[1]))) {
+                long first = args.length > 2 ? Long.parseLong(args[2]) : 0;
+                long count = args.length > 3 ? Long.parseLong(args[3]) : trace.getRecords();
+                for(long i = Math.max(0, first); i < Math.min(trace.getRecords(), first + count); i++)
+                    System.out.println(trace.format(i));
+            }
+        }
+        else if(args.length >= 3 && args[0].equals("diff"))
+        {
+            int context = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+            try(TraceReader a = new TraceReader(Paths.get(args[1])); TraceReader b = new TraceReader(Paths.get(args[2]))) {
+                long difference = firstDifference(a, b);
+                if(difference < 0)
+                {
+                    System.out.println("Traces are equal, " + a.getRecords() + " instructions");
+                    return;
+                }
+                System.out.println("Traces differ at instruction " + difference + " (" + a.getRecords() + " and " + b.getRecords() + " instructions)");
+                for(long i = Math.max(0, difference - context); i <= difference; i++)
+                {
+                    System.out.println("  " + args[1] + ": " + (i < a.getRecords() ? a.format(i) : "end of trace"));
+                    System.out.println("  " + args[2] + ": " + (i < b.getRecords() ? b.format(i) : "end of trace"));
+                }
+                System.exit(1);
+            }
+        }
+        else
+        {
+            System.err.println("Usage: TraceReader dump <trace> [first] [count]\n       TraceReader diff <trace> <trace> [context]");
+            System.exit(2);
+        }
+    }
+}
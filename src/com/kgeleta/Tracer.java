@@ -0,0 +1,144 @@
+package com.kgeleta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Records every instruction a machine executes into a trace file (see Chip8.setTracer()). Records have a
+// fixed width, so the n-th instruction is at HEADER + n * RECORD and two traces can be compared byte by
+// byte (TraceReader). Records go into a preallocated buffer owned by the thread running the machine and
+// a full buffer is copied into a memory-mapped window of the file in one go - no allocation and no
+// system call per instruction.
+//
+// All tracing code is guarded by ENABLED, which is a compile time constant for the JIT like
+// Metrics.ENABLED: unless the JVM runs with -Dchip8.trace=true the engines carry no trace code at all.
+// While a tracer is attached idle loops are executed instead of skipped, so that every engine
+// records exactly the same instructions.
+//
+// File: header  magic "C8TR", version (2 bytes), record size (2 bytes), number of records (8 bytes), 16 zero bytes
+//       record  pc, opcode, I (2 bytes each), changed V registers (2 bytes, bit x = Vx),
+//               V0 - VF, delay timer, sound timer, stack depth, 0 (1 byte each), frame (4 bytes)
+// pc and opcode are those of the instruction, all the rest is the state after it. Big endian.
+public class Tracer implements Closeable
+{
+    public static final boolean ENABLED = Boolean.getBoolean("chip8.trace");
+
+    static final int MAGIC = 0x43385452;                    // "C8TR"
+    static final int VERSION = 1;
+    static final int HEADER = 32;
+    static final int RECORD = 32;
+
+    private static final int BATCH = 8192;                  // records per buffer
+    private static final long WINDOW = 64L * 1024 * 1024;   // bytes of the file mapped at a time
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BATCH * RECORD);
+    private final int[] last = new int[16];                 // V registers after the previous record
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;                                   // in 'buffer'
+    private long records;
+    private int frame;
+
+    public Tracer(Path path) throws IOException
+    {
+        if(!ENABLED)
+            throw new IllegalStateException("Tracing needs the JVM to run with -Dchip8.trace=true");
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        windowStart = 0;
+        window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW);
+        window.position(HEADER);
+    }
+
+    public long getRecords()
+    {
+        return records + position / RECORD;
+    }
+
+    // called by the code generated by BlockCompiler after every instruction of a block
+    public static void step(Chip8 c, int pc, int opcode)
+    {
+        Tracer tracer = c.tracer;
+        if(tracer != null)
+            tracer.record(c, pc, opcode & 0xFFFF);
+    }
+
+    // instruction at 'pc' was executed
+    void record(Chip8 c, int pc, int opcode)
+    {
+        final ByteBuffer b = buffer;
+        final int[] V = c.V;
+        int p = position;
+        int changed = 0;
+        for(int x = 0; x < 16; x++)
+        {
+            int v = V[x];
+            if(v != last[x])
+            {
+                changed |= 1 << x;
+                last[x] = v;
+            }
+            b.put(p + 8 + x, (byte) v);
+        }
+        b.putShort(p, (short) pc);
+        b.putShort(p + 2, (short) opcode);
+        b.putShort(p + 4, (short) c.I);
+        b.putShort(p + 6, (short) changed);
+        b.put(p + 24, (byte) c.delayTimer);
+        b.put(p + 25, (byte) c.soundTimer);
+        b.put(p + 26, (byte) (c.sp + 1));
+        b.put(p + 27, (byte) 0);
+        b.putInt(p + 28, frame);
+        position = p + RECORD;
+        if(position == b.capacity())
+            flush();
+    }
+
+    // timers ticked, the following records belong to the next frame
+    void frameEnded()
+    {
+        frame++;
+    }
+
+    // copies the records in the buffer to the file
+    public void flush()
+    {
+        try {
+            int offset = 0;
+            while(offset < position)
+            {
+                if(!window.hasRemaining())
+                {
+                    windowStart += WINDOW;
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, WINDOW);
+                }
+                int length = Math.min(position - offset, window.remaining());
+                window.put(buffer.array(), offset, length);
+                offset += length;
+            }
+        }catch(IOException ioe) {
+            throw new UncheckedIOException("Cannot write trace", ioe);
+        }
+        records += position / RECORD;
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD).putLong(records).flip();
+        while(header.hasRemaining())
+            channel.write(header, header.position());
+        window = null;
+        channel.truncate(HEADER + records * RECORD);        // drop the unused rest of the last window
+        channel.close();
+    }
+}
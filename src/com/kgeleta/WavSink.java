@@ -0,0 +1,80 @@
+package com.kgeleta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes samples from a SampleRing to a WAV file instead of a sound card, e.g. when running without
+// any audio device. Whoever drives the machine calls drain() now and then (after every frame is fine),
+// the sizes in the header are filled in by close().
+public class WavSink implements Closeable
+{
+    private static final int HEADER = 44;
+
+    private final SampleRing input;
+    private final FileChannel channel;
+    private final byte[] chunk = new byte[8192];
+    private final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    private long dataBytes;
+
+    public WavSink(SampleRing input, Path path) throws IOException
+    {
+        this.input = input;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.write(header(0), 0);
+        channel.position(HEADER);
+    }
+
+    public long getDataBytes()
+    {
+        return dataBytes;
+    }
+
+    // writes everything waiting in the ring
+    public void drain() throws IOException
+    {
+        int length;
+        while((length = input.poll(chunk, 0, chunk.length)) > 0)
+        {
+            buffer.clear().limit(length);
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            dataBytes += length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            drain();
+            channel.write(header(dataBytes), 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // canonical 44 byte header of a PCM file in Beeper.FORMAT
+    private static ByteBuffer header(long dataBytes)
+    {
+        int blockAlign = Beeper.FORMAT.getFrameSize();
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, 36 + dataBytes));
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16);                                          // size of the fmt chunk
+        header.putShort((short) 1);                                 // PCM
+        header.putShort((short) Beeper.FORMAT.getChannels());
+        header.putInt((int) Beeper.FORMAT.getSampleRate());
+        header.putInt((int) Beeper.FORMAT.getSampleRate() * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) Beeper.FORMAT.getSampleSizeInBits());
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt((int) Math.min(0xFFFFFFFFL, dataBytes));
+        return header.flip();
+    }
+}
@@ -0,0 +1,78 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Every machine of a batch has to show the same screen as a Chip8 started with the same seed and given
+// the same keys, until it is done. Runs with and without the vector lanes, see the surefire executions.
+class BatchEnvironmentTest
+{
+    private static final int PROGRAMS = 40;
+    private static final int MACHINES = 70;           // a few whole vectors and a scalar rest
+    private static final int FRAMES = 200;
+
+    @Test
+    void machinesShowTheSameScreensAsChip8()
+    {
+        Random random = new Random(11);
+        for(int p = 0; p < PROGRAMS; p++)
+            assertSameScreens(EngineEquivalenceTest.randomProgram(random), 1 + random.nextInt(30), p);
+    }
+
+    @Test
+    void arithmeticInLockStepMatchesChip8()
+    {
+        // V0 counts, V1 - V5 mix it with every 8XY_ and FX1E, V4 adds up every V[F] they leave (through V7),
+        // V6 = DT, then the digit of the low 4 bits of V0 is drawn at V3, V4
+        byte[] rom = EngineEquivalenceTest.program(0x7003, 0x8100, 0x8214, 0x87F0, 0x8474, 0x8315, 0x87F0,
+                0x8474, 0x8517, 0x87F0, 0x8474, 0x8506, 0x87F0, 0x8474, 0x810E, 0x87F0, 0x8474, 0x8231, 0x8342,
+                0x8453, 0xF51E, 0x87F0, 0x8474, 0x3540, 0x4631, 0x9120, 0xF615, 0xF607, 0xE19E, 0xE2A1, 0x00E0,
+                0x6A0F, 0x8A02, 0xFA29, 0xD345, 0x1200);
+        assertSameScreens(rom, 40, 0);
+    }
+
+    private static void assertSameScreens(byte[] rom, int cyclesPerFrame, long seed)
+    {
+        BatchEnvironment batch = new BatchEnvironment(rom, MACHINES, cyclesPerFrame);
+        batch.reset(seed);
+        Chip8[] machines = new Chip8[MACHINES];
+        boolean[] failed = new boolean[MACHINES];
+        for(int m = 0; m < MACHINES; m++)
+        {
+            machines[m] = new Chip8();
+            machines[m].initialize(seed + m);
+            machines[m].loadRom(rom);
+        }
+
+        int[] actions = new int[MACHINES];
+        for(int frame = 0; frame < FRAMES; frame++)
+        {
+            for(int m = 0; m < MACHINES; m++)
+                actions[m] = m / 24 % 2 == 0 && frame % 7 >= 3 ? 1 << (frame % 16) : 0;  // runs of machines diverge
+            batch.step(actions);
+
+            for(int m = 0; m < MACHINES; m++)
+            {
+                if(failed[m])
+                    continue;
+                machines[m].setKeys(actions[m]);
+                try {
+                    machines[m].runFrame(cyclesPerFrame);
+                }catch(RuntimeException e) {
+                    failed[m] = true;
+                    assertTrue(batch.getDone()[m], "machine " + m + " of program " + seed + " failed in frame " + frame);
+                    continue;
+                }
+                if(batch.getDone()[m])
+                    continue;               // stands still from here on, the Chip8 may do anything
+                for(int y = 0; y < Chip8.HEIGHT; y++)
+                    assertEquals(machines[m].getRow(y), batch.getScreens()[m * Chip8.HEIGHT + y],
+                            "row " + y + " of machine " + m + " of program " + seed + " in frame " + frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DebuggerTest
+{
+    // 0x200: V0 = 5, calls 0x20A, then counts V1 and waits forever
+    // 0x20A: counts V2, calls 0x212, counts V3 and returns
+    // 0x212: counts V4, stores V0 - V2 at 0x300 and returns
+    private static final byte[] CALLS = EngineEquivalenceTest.program(0x6005, 0x220A, 0x7101, 0x1206, 0x0000,
+            0x7201, 0x2212, 0x7301, 0x00EE, 0x7401, 0xA300, 0xF255, 0x00EE);
+    private static final int CYCLES = 100;
+
+    @Test
+    void stepOverRunsTheWholeCall()
+    {
+        Debugger debugger = new Debugger();
+        Chip8 chip8 = machine(debugger);
+        debugger.setBreakpoint(0x202, null);
+        chip8.runFrame(CYCLES);
+        assertStopped(debugger, chip8, 0x202);
+
+        debugger.removeBreakpoint(0x202);
+        debugger.stepOver();
+        chip8.runFrame(CYCLES);
+        assertStopped(debugger, chip8, 0x204);
+        assertEquals(-1, chip8.sp);
+        assertEquals(1, chip8.V[0x3]);                      // the call and the one nested in it ran
+        assertEquals(1, chip8.V[0x4]);
+        assertEquals(0, chip8.V[0x1]);
+    }
+
+    @Test
+    void runToReturnLeavesOnlyTheCurrentCall()
+    {
+        Debugger debugger = new Debugger();
+        Chip8 chip8 = machine(debugger);
+        debugger.setBreakpoint(0x212, null);
+        chip8.runFrame(CYCLES);
+        assertStopped(debugger, chip8, 0x212);
+        assertEquals(1, chip8.sp);
+
+        debugger.removeBreakpoint(0x212);
+        debugger.runToReturn();
+        chip8.runFrame(CYCLES);
+        assertStopped(debugger, chip8, 0x20E);             // back in the outer call, before its V3 count
+        assertEquals(0, chip8.sp);
+        assertEquals(1, chip8.V[0x4]);
+        assertEquals(0, chip8.V[0x3]);
+        assertEquals("Returned", debugger.getStopReason());
+    }
+
+    @Test
+    void writeWatchpointStopsBeforeFX55()
+    {
+        Debugger debugger = new Debugger();
+        Chip8 chip8 = machine(debugger);
+        debugger.setWatchpoint(0x301, 0x301, false, true);
+        chip8.runFrame(CYCLES);
+        assertStopped(debugger, chip8, 0x216);
+        assertEquals("Write of 0x301 by LD [I]", debugger.getStopReason());
+        assertEquals(0, chip8.memory.read(0x300));          // not executed yet
+
+        debugger.resume();
+        chip8.runFrame(CYCLES);
+        assertFalse(debugger.isStopped());
+        assertEquals(5, chip8.memory.read(0x300));
+        assertEquals(0x206, chip8.pc);                      // went on to the waiting loop
+    }
+
+    @Test
+    void unarmedDebuggerLeavesTheMachineOnItsEngine()
+    {
+        int[] checks = new int[1];
+        Debugger debugger = new Debugger()
+        {
+            @Override
+            boolean shouldStop(Chip8 c)
+            {
+                checks[0]++;
+                return super.shouldStop(c);
+            }
+        };
+        Chip8 chip8 = machine(debugger);
+        chip8.setEngine(EngineType.DYNAREC);
+        for(int frame = 0; frame < 10; frame++)
+            chip8.runFrame(CYCLES);
+        assertEquals(0, checks[0]);
+        assertEquals(1, chip8.V[0x3]);
+
+        debugger.setBreakpoint(0x100, null);                // never reached, but arms the debugger
+        chip8.runFrame(CYCLES);
+        assertEquals(CYCLES, checks[0]);
+
+        debugger.removeBreakpoint(0x100);
+        chip8.runFrame(CYCLES);
+        assertEquals(CYCLES, checks[0]);
+    }
+
+    private static Chip8 machine(Debugger debugger)
+    {
+        Chip8 chip8 = new Chip8();
+        chip8.initialize(1);
+        chip8.loadRom(CALLS);
+        chip8.setDebugger(debugger);
+        return chip8;
+    }
+
+    private static void assertStopped(Debugger debugger, Chip8 chip8, int pc)
+    {
+        assertTrue(debugger.isStopped(), "stopped");
+        assertTrue(chip8.isInFrame());
+        assertEquals(pc, chip8.pc, debugger.getStopReason());
+    }
+}
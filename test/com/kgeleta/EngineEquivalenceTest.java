@@ -0,0 +1,127 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Every engine has to give exactly the same results as Chip8.interpret(): the same machine state
+// after every frame, or the same exception in the same frame.
+class EngineEquivalenceTest
+{
+    private static final int PROGRAMS = 200;
+    private static final int FRAMES = 300;
+
+    @Test
+    void randomProgramsRunTheSameOnEveryEngine()
+    {
+        for(QuirkProfile quirks : QuirkProfile.values())
+        {
+            Random random = new Random(7);
+            for(int p = 0; p < PROGRAMS; p++)
+                assertSameRuns(randomProgram(random), 1 + random.nextInt(30), p, quirks);
+        }
+    }
+
+    @Test
+    void jumpPastTheEndOfMemoryRunsTheSameOnEveryEngine()
+    {
+        // V0 = 0xFF, BFFF: pc ends up at 0x10FE, which only the interpreter path can handle
+        byte[] rom = program(0x60FF, 0xBFFF);
+        for(QuirkProfile quirks : QuirkProfile.values())
+            assertSameRuns(rom, 20, 0, quirks);
+    }
+
+    @Test
+    void hotLoopsRunTheSameOnEveryEngine()
+    {
+        // long enough for the recompiler to translate and invalidate blocks: a counting loop that calls a
+        // subroutine storing registers over its own code
+        byte[] rom = program(0x6000, 0x7001, 0x2208, 0x1202, 0xA20A, 0xF055, 0x00EE, 0x0000);
+        for(QuirkProfile quirks : QuirkProfile.values())
+            assertSameRuns(rom, 25, 0, quirks);
+    }
+
+    private static void assertSameRuns(byte[] rom, int cyclesPerFrame, long seed, QuirkProfile quirks)
+    {
+        Chip8[] machines = new Chip8[EngineType.values().length];
+        for(EngineType engine : EngineType.values())
+        {
+            Chip8 chip8 = new Chip8();
+            chip8.setEngine(engine);
+            chip8.setQuirks(quirks);
+            chip8.initialize(seed);
+            chip8.loadRom(rom);
+            machines[engine.ordinal()] = chip8;
+        }
+
+        for(int frame = 0; frame < FRAMES; frame++)
+        {
+            String[] results = new String[machines.length];
+            for(int m = 0; m < machines.length; m++)
+            {
+                if(frame % 7 == 3)
+                    machines[m].setKeys(machines[m].getKeys() ^ (1 << (frame % 16)));
+                try {
+                    machines[m].runFrame(cyclesPerFrame);
+                    results[m] = state(machines[m]);
+                }catch(RuntimeException e) {
+                    results[m] = e.getClass().getName();
+                }
+            }
+            for(int m = 1; m < machines.length; m++)
+                assertEquals(results[0], results[m], EngineType.values()[m] + " differs from "
+                        + EngineType.values()[0] + " with " + quirks + " in frame " + frame + " of program " + seed);
+            if(results[0].indexOf('=') < 0)
+                return;                                 // all threw the same exception
+        }
+    }
+
+    private static String state(Chip8 chip8)
+    {
+        byte[] memory = new byte[Memory.SIZE];
+        chip8.memory.store(0, memory, 0, Memory.SIZE);
+        return "memory=" + Arrays.hashCode(memory) + " V=" + Arrays.toString(chip8.V) + " I=" + chip8.I
+                + " pc=" + chip8.pc + " sp=" + chip8.sp + " stack=" + Arrays.toString(chip8.stack)
+                + " DT=" + chip8.delayTimer + " ST=" + chip8.soundTimer + " gfx=" + Arrays.toString(chip8.gfx);
+    }
+
+    // random instructions biased towards the ones with quirks, jumps and calls kept inside the program,
+    // ending with a jump back to the start so that code gets hot
+    static byte[] randomProgram(Random random)
+    {
+        int[] words = new int[300];
+        for(int i = 0; i < words.length; i++)
+        {
+            int family = random.nextInt(3) == 0 ? new int[] {0x8, 0xF, 0xB, 0xD}[random.nextInt(4)] : random.nextInt(16);
+            int word = (family << 12) | random.nextInt(0x1000);
+            switch(family)
+            {
+                case 0x0: word = 0x00E0; break;
+                case 0x1:
+                case 0x2:
+                case 0xB: word = (family << 12) | 0x200 | (random.nextInt(0x100) & 0xFE); break;
+                case 0x8: word = (word & 0xFFF0) | new int[] {1, 2, 3, 4, 5, 6, 7, 0xE}[random.nextInt(8)]; break;
+                case 0xA: word = 0xA600 | (word & 0xFF); break;
+                case 0xF: word = (word & 0xFF00) | new int[] {0x07, 0x15, 0x18, 0x1E, 0x29, 0x33, 0x55, 0x65}[random.nextInt(8)]; break;
+                default: break;
+            }
+            words[i] = word;
+        }
+        words[words.length - 1] = 0x1200;
+        return program(words);
+    }
+
+    static byte[] program(int... words)
+    {
+        byte[] rom = new byte[words.length * 2];
+        for(int i = 0; i < words.length; i++)
+        {
+            rom[2 * i] = (byte) (words[i] >>> 8);
+            rom[2 * i + 1] = (byte) words[i];
+        }
+        return rom;
+    }
+}
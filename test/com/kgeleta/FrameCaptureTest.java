@@ -0,0 +1,36 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FrameCaptureTest
+{
+    @Test
+    void rawCaptureRepeatsFramesThatStayedOnScreen(@TempDir Path directory) throws IOException
+    {
+        Path file = directory.resolve("clip.raw");
+        Chip8 chip8 = new Chip8();
+        chip8.initialize();
+        try(FrameCapture capture = new FrameCapture(FrameCapture.open(file, Chip8.WIDTH, Chip8.HEIGHT), 8))
+        {
+            capture.offer(chip8, 10);
+            chip8.gfx[0] = 0x5555_5555_5555_5555L;          // top left pixel dark
+            capture.offer(chip8, 14);                       // the empty screen was shown for 4 frames
+            chip8.gfx[0] = -1L;                             // top row lit
+            capture.offer(chip8, 14);                       // same frame, replaces the one before
+            capture.offer(chip8, 15);
+        }
+
+        byte[] images = Files.readAllBytes(file);
+        int size = Chip8.WIDTH * Chip8.HEIGHT;
+        assertEquals(6 * size, images.length);
+        for(int image = 0; image < 6; image++)
+            assertEquals(image < 4 ? 0 : (byte) 0xFF, images[image * size], "image " + image);
+    }
+}
@@ -0,0 +1,109 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class HeadlessRunnerTest
+{
+    // V0 = 0x80, DT = V0, then counts V1 up while reading DT into V2 forever
+    private static final byte[] COUNTER = {0x60, (byte) 0x80, (byte) 0xF0, 0x15, 0x71, 0x01, (byte) 0xF2, 0x07, 0x12, 0x04};
+    // draws the font sprite of V1 at V0, V1 while counting both up, one sprite per frame with display waits
+    private static final byte[] DRAWING = {(byte) 0xF1, 0x29, (byte) 0xD0, 0x15, 0x70, 0x01, 0x71, 0x01, 0x12, 0x00};
+    // 00EE with an empty stack
+    private static final byte[] BROKEN = {0x00, (byte) 0xEE};
+
+    @Test
+    void framesSplitBetweenRunsTickTimersLikeWholeFrames()
+    {
+        try(HeadlessRunner whole = new HeadlessRunner(1); HeadlessRunner split = new HeadlessRunner(1))
+        {
+            whole.setCyclesPerFrame(10);
+            split.setCyclesPerFrame(10);
+            Chip8 expected = whole.add(COUNTER);
+            Chip8 actual = split.add(COUNTER);
+
+            whole.run(1000);
+            for(int part : new int[] {3, 14, 7, 333, 1, 642})
+                split.run(part);
+
+            assertEquals(expected.delayTimer, actual.delayTimer);
+            assertArrayEquals(expected.V, actual.V);
+            assertEquals(expected.pc, actual.pc);
+        }
+    }
+
+    @Test
+    void displayWaitsLastUntilTheEndOfFramesSplitBetweenRuns()
+    {
+        try(HeadlessRunner whole = new HeadlessRunner(1); HeadlessRunner split = new HeadlessRunner(1))
+        {
+            whole.setCyclesPerFrame(10);
+            split.setCyclesPerFrame(10);
+            Chip8 expected = whole.add(DRAWING);
+            Chip8 actual = split.add(DRAWING);
+            expected.setQuirks(QuirkProfile.VIP);
+            actual.setQuirks(QuirkProfile.VIP);
+
+            whole.run(1000);
+            for(int part : new int[] {3, 14, 7, 333, 1, 642})
+                split.run(part);
+
+            assertEquals(99, expected.V[0]);                // one sprite per frame, the first frame draws before counting
+            assertArrayEquals(expected.V, actual.V);
+            assertArrayEquals(expected.gfx, actual.gfx);
+            assertEquals(expected.pc, actual.pc);
+        }
+    }
+
+    @Test
+    void failuresAreRecordedInTheResult()
+    {
+        try(HeadlessRunner runner = new HeadlessRunner(2))
+        {
+            runner.add(COUNTER);
+            runner.add(BROKEN);
+            HeadlessRunner.Result result = runner.run(100);
+
+            assertEquals(2, result.getMachines());
+            assertEquals(1, result.getFailed());
+            assertNull(result.getFailure(0));
+            assertInstanceOf(ArrayIndexOutOfBoundsException.class, result.getFailure(1));
+        }
+    }
+
+    @Test
+    void publishedMachinesAreStreamedAndTakeKeysFromSpectators() throws IOException, InterruptedException
+    {
+        try(HeadlessRunner runner = new HeadlessRunner(1);
+            SpectatorServer server = new SpectatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            SocketChannel spectator = SocketChannel.open())
+        {
+            Chip8 chip8 = runner.add(COUNTER);
+            runner.publish(chip8, server.openStream());
+            spectator.connect(server.getAddress());
+            spectator.write(ByteBuffer.wrap(new byte[] {0, SpectatorServer.KEY_DOWN, 0x3}));   // stream 0, key 3 down
+
+            long start = System.nanoTime();
+            while(chip8.getKeys() == 0 && System.nanoTime() - start < 5_000_000_000L)
+            {
+                runner.run(runner.getCyclesPerFrame());
+                Thread.sleep(5);
+            }
+            assertEquals(1 << 0x3, chip8.getKeys());
+
+            ByteBuffer type = ByteBuffer.allocate(1);
+            spectator.read(type);                               // blocks until the first message
+            assertEquals(SpectatorServer.HELLO, type.get(0));
+        }
+    }
+}
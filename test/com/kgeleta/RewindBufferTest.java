@@ -0,0 +1,94 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Going back through the deltas has to give exactly the states that were recorded, kept here in full
+class RewindBufferTest
+{
+    // every frame V1, V2 random, stores V0 - V2 at 0x300 + V0 and draws the sprite there at V1, V2
+    private static final byte[] SCRIBBLE = EngineEquivalenceTest.program(0xA300, 0xF01E, 0xC1FF, 0xC2FF, 0xF255,
+            0xD125, 0x7001, 0x1200);
+    private static final int CYCLES = 8;
+
+    @Test
+    void steppingBackRestoresRecordedStates()
+    {
+        Chip8 chip8 = machine();
+        RewindBuffer rewind = new RewindBuffer(1 << 20);
+        List<byte[]> states = run(chip8, rewind, 300);
+        assertEquals(299, rewind.getFrames());
+
+        assertEquals(1, rewind.stepBack(chip8, 1));
+        assertArrayEquals(states.get(298), state(chip8));
+        assertEquals(10, rewind.stepBack(chip8, 10));
+        assertArrayEquals(states.get(288), state(chip8));
+
+        // new frames from there replace the ones stepped over
+        List<byte[]> more = run(chip8, rewind, 5);
+        assertEquals(3, rewind.stepBack(chip8, 3));
+        assertArrayEquals(more.get(1), state(chip8));
+        assertEquals(3, rewind.stepBack(chip8, 3));
+        assertArrayEquals(states.get(287), state(chip8));
+
+        assertEquals(287, rewind.stepBack(chip8, 1000));
+        assertArrayEquals(states.get(0), state(chip8));
+        assertEquals(0, rewind.getFrames());
+        assertEquals(0, rewind.getUsedBytes());
+    }
+
+    @Test
+    void aFullRingForgetsTheOldestFrames()
+    {
+        Chip8 chip8 = machine();
+        int capacity = 3 * SaveState.SIZE;
+        RewindBuffer rewind = new RewindBuffer(capacity);
+        List<byte[]> states = run(chip8, rewind, 2000);
+
+        int kept = rewind.getFrames();
+        assertTrue(kept > 10 && kept < 1999, kept + " frames kept");
+        assertTrue(rewind.getUsedBytes() <= capacity);
+        for(int back = 1; back <= kept; back++)                 // entries wrapped around the end of the ring
+        {
+            assertEquals(1, rewind.stepBack(chip8, 1));
+            assertArrayEquals(states.get(1999 - back), state(chip8), back + " frames back");
+        }
+        assertEquals(0, rewind.stepBack(chip8, 1));
+        assertArrayEquals(states.get(1999 - kept), state(chip8));
+    }
+
+    private static Chip8 machine()
+    {
+        Chip8 chip8 = new Chip8();
+        chip8.initialize(5);
+        chip8.loadRom(SCRIBBLE);
+        return chip8;
+    }
+
+    // runs and records 'frames' frames, returns the state after each
+    private static List<byte[]> run(Chip8 chip8, RewindBuffer rewind, int frames)
+    {
+        List<byte[]> states = new ArrayList<>();
+        for(int frame = 0; frame < frames; frame++)
+        {
+            chip8.runFrame(CYCLES);
+            rewind.record(chip8);
+            states.add(state(chip8));
+        }
+        return states;
+    }
+
+    static byte[] state(Chip8 chip8)
+    {
+        byte[] state = new byte[SaveState.SIZE];
+        SaveState.write(chip8, ByteBuffer.wrap(state));
+        return state;
+    }
+}
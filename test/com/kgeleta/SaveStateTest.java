@@ -0,0 +1,126 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A loaded state has to give the same machine, which then also runs on exactly like the saved one
+class SaveStateTest
+{
+    // calls a loop that takes random numbers into V0, V1, the timers and memory at 0x300 + V0, draws at
+    // V0, V1 and counts V2 up while key V4 is up
+    private static final byte[] PROGRAM = EngineEquivalenceTest.program(0x2204, 0x0000, 0xC0FF, 0xC1FF, 0xF015,
+            0xF018, 0xA300, 0xF01E, 0xF355, 0xD015, 0xE49E, 0x7201, 0x1204);
+    private static final int CYCLES = 20;
+
+    @Test
+    void loadedStatesRunOnLikeTheSavedMachine() throws IOException
+    {
+        Chip8 saved = running(QuirkProfile.VIP);
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.SIZE);
+        SaveState.write(saved, buffer);
+        assertEquals(SaveState.SIZE, buffer.position());
+
+        Chip8 loaded = new Chip8();
+        loaded.initialize(99);
+        SaveState.read(loaded, buffer.flip());
+        assertEquals(SaveState.SIZE, buffer.position());
+        assertEquals(QuirkProfile.VIP, loaded.getQuirks());
+        assertSameRuns(saved, loaded);
+    }
+
+    @Test
+    void version1StatesLoadAsClassic() throws IOException
+    {
+        Chip8 saved = running(QuirkProfile.CLASSIC);
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.SIZE);
+        SaveState.write(saved, buffer);
+        buffer.putShort(4, (short) 1);
+        buffer.put(6, (byte) 0x55);                             // reserved in version 1, ignored
+
+        Chip8 loaded = new Chip8();
+        loaded.setQuirks(QuirkProfile.SCHIP);
+        loaded.initialize(99);
+        SaveState.read(loaded, buffer.flip());
+        assertEquals(QuirkProfile.CLASSIC, loaded.getQuirks());
+        assertSameRuns(saved, loaded);
+    }
+
+    @Test
+    void brokenStatesAreRejected()
+    {
+        Chip8 saved = running(QuirkProfile.CLASSIC);
+        assertRejected(saved, 0, 0);                            // magic
+        assertRejected(saved, 5, 3);                            // version
+        assertRejected(saved, 6, QuirkProfile.values().length);
+        assertRejected(saved, 19, 16);                          // sp
+        assertThrows(IOException.class, () -> SaveState.read(saved, ByteBuffer.allocate(SaveState.SIZE - 1)));
+    }
+
+    @Test
+    void snapshotSlotsSurviveReopeningTheFile(@TempDir Path directory) throws IOException
+    {
+        Path path = directory.resolve("states.c8s");
+        Chip8 saved = running(QuirkProfile.MODERN);
+        try(SnapshotFile file = new SnapshotFile(path, 4))
+        {
+            file.save(2, saved);
+            file.force();
+        }
+
+        Chip8 loaded = new Chip8();
+        loaded.initialize(99);
+        try(SnapshotFile file = new SnapshotFile(path, 4))
+        {
+            assertTrue(file.isUsed(2));
+            assertFalse(file.isUsed(1));
+            file.load(2, loaded);
+            assertThrows(IndexOutOfBoundsException.class, () -> file.load(4, loaded));
+        }
+        assertThrows(IOException.class, () -> new SnapshotFile(path, 5));
+        assertSameRuns(saved, loaded);
+    }
+
+    private static Chip8 running(QuirkProfile quirks)
+    {
+        Chip8 chip8 = new Chip8();
+        chip8.setQuirks(quirks);
+        chip8.initialize(17);
+        chip8.loadRom(PROGRAM);
+        chip8.setKeys(1 << 0x4 | 1 << 0xB);
+        for(int frame = 0; frame < 30; frame++)
+            chip8.runFrame(CYCLES);
+        return chip8;
+    }
+
+    private static void assertSameRuns(Chip8 expected, Chip8 actual)
+    {
+        assertArrayEquals(RewindBufferTest.state(expected), RewindBufferTest.state(actual));
+        assertEquals(expected.sp, actual.sp);
+        assertArrayEquals(expected.stack, actual.stack);
+        assertEquals(expected.getKeys(), actual.getKeys());
+        for(int frame = 0; frame < 100; frame++)
+        {
+            expected.runFrame(CYCLES);
+            actual.runFrame(CYCLES);
+            assertArrayEquals(RewindBufferTest.state(expected), RewindBufferTest.state(actual), "frame " + frame + " after loading");
+        }
+    }
+
+    private static void assertRejected(Chip8 chip8, int offset, int value)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(SaveState.SIZE);
+        SaveState.write(chip8, buffer);
+        buffer.put(offset, (byte) value);
+        assertThrows(IOException.class, () -> SaveState.read(chip8, buffer.flip()), "byte " + offset + " = " + value);
+    }
+}
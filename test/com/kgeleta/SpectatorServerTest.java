@@ -0,0 +1,64 @@
+package com.kgeleta;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpectatorServerTest
+{
+    private static final long TIMEOUT = 5_000_000_000L;
+
+    @Test
+    void keysHeldByADisconnectingSpectatorAreReleased() throws IOException, InterruptedException
+    {
+        try(SpectatorServer server = new SpectatorServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)))
+        {
+            SpectatorServer.Stream stream = server.openStream();
+            KeyQueue keys = stream.getKeyInput();
+            try(SocketChannel leaving = connect(server); SocketChannel staying = connect(server))
+            {
+                send(leaving, SpectatorServer.KEY_DOWN, 0x5, SpectatorServer.KEY_DOWN, 0xA);
+                send(staying, SpectatorServer.KEY_DOWN, 0xA);
+                assertTrue(awaitKeys(keys, k -> k == (1 << 0x5 | 1 << 0xA)), "keys pressed");
+
+                leaving.close();
+                assertTrue(awaitKeys(keys, k -> k == 1 << 0xA), "only the keys of the other spectator stay pressed");
+            }
+            assertTrue(awaitKeys(keys, k -> k == 0), "all keys released");
+        }
+    }
+
+    private static SocketChannel connect(SpectatorServer server) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(server.getAddress());
+        channel.write(ByteBuffer.wrap(new byte[] {0}));         // stream 0
+        return channel;
+    }
+
+    private static void send(SocketChannel channel, int... events) throws IOException
+    {
+        byte[] bytes = new byte[events.length];
+        for(int i = 0; i < events.length; i++)
+            bytes[i] = (byte) events[i];
+        channel.write(ByteBuffer.wrap(bytes));
+    }
+
+    private static boolean awaitKeys(KeyQueue keys, IntPredicate expected) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        while(System.nanoTime() - start < TIMEOUT)
+        {
+            if(expected.test(keys.poll()))
+                return true;
+            Thread.sleep(5);
+        }
+        return false;
+    }
+}